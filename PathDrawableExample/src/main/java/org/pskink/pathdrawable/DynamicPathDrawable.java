@@ -107,7 +107,8 @@ public class DynamicPathDrawable extends Activity {
                 break;
 
             case Adapter.TRIANGLE:
-                pd = new PathDrawable(ctx, R.xml.triangle);
+                // res/xml/triangle.xml compiled at build time
+                pd = PathDrawable.fromAsset(ctx, "pathdrawable/triangle.pd");
                 break;
 
             case Adapter.PENTAGON:
@@ -155,7 +156,7 @@ public class DynamicPathDrawable extends Activity {
             switch (mSample) {
             case Adapter.DYNAMIC_GRADIENT:
                 Shader shader = new LinearGradient(bounds.left, 0, bounds.right, 0, 0x00ffffff, 0xffffffff, TileMode.CLAMP);
-                drawable.findLayerByTag("layer1").getPaint().setShader(shader);
+                drawable.findLayerByTag("layer1").setShader(shader);
                 break;
             case Adapter.DYNAMIC_GRADIENT_PATTERN:
                 Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.hexagon);
@@ -166,7 +167,7 @@ public class DynamicPathDrawable extends Activity {
                 shader0.setLocalMatrix(m);
                 Shader shader1 = new LinearGradient(bounds.left, 0, bounds.right, 0, 0x00ffffff, 0xffffffff, TileMode.CLAMP);
                 Shader cs = new ComposeShader(shader0, shader1, Mode.SRC_IN);
-                drawable.findLayerByTag("layer1").getPaint().setShader(cs);
+                drawable.findLayerByTag("layer1").setShader(cs);
                 break;
             case Adapter.PATTERN:
                 bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.hexagon);
@@ -177,7 +178,7 @@ public class DynamicPathDrawable extends Activity {
                 shader0.setLocalMatrix(m);
                 shader1 = new LinearGradient(bounds.left, 0, bounds.right, 0, 0x66ffd700, 0xffffd700, TileMode.CLAMP);
                 cs = new ComposeShader(shader0, shader1, Mode.SRC_IN);
-                drawable.findLayerByTag("layer0").getPaint().setShader(cs);
+                drawable.findLayerByTag("layer0").setShader(cs);
                 break;
             }
         }
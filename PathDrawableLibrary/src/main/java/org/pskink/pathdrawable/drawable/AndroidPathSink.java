@@ -0,0 +1,74 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Path;
+
+/**
+ * The {@link PathSink} adding everything to an {@link android.graphics.Path}.
+ * The target can be changed, so one instance can be reused for many Paths.
+ */
+final class AndroidPathSink implements PathSink {
+    private Path mPath;
+
+    AndroidPathSink() {
+    }
+
+    AndroidPathSink(Path path) {
+        mPath = path;
+    }
+
+    /**
+     * @param path The target Path object.
+     */
+    void setPath(Path path) {
+        mPath = path;
+    }
+
+    Path getPath() {
+        return mPath;
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+        mPath.moveTo(x, y);
+    }
+
+    @Override
+    public void rMoveTo(float dx, float dy) {
+        mPath.rMoveTo(dx, dy);
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+        mPath.lineTo(x, y);
+    }
+
+    @Override
+    public void rLineTo(float dx, float dy) {
+        mPath.rLineTo(dx, dy);
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        mPath.quadTo(x1, y1, x2, y2);
+    }
+
+    @Override
+    public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+        mPath.rQuadTo(dx1, dy1, dx2, dy2);
+    }
+
+    @Override
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        mPath.cubicTo(x1, y1, x2, y2, x3, y3);
+    }
+
+    @Override
+    public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        mPath.rCubicTo(x1, y1, x2, y2, x3, y3);
+    }
+
+    @Override
+    public void close() {
+        mPath.close();
+    }
+}
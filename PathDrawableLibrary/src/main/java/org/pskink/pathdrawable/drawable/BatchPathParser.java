@@ -0,0 +1,214 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Path;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel parser of many path strings, e.g. at startup, see {@link #createPaths(List)}.
+ * The xml files of PathDrawable are parsed by it too.
+ * <p>
+ * The strings are sorted by their length (longest first) and every worker (the
+ * calling thread included) repeatedly takes the next string from that order, so a
+ * huge path is started early and the other workers keep parsing the remaining
+ * strings meanwhile. ForkJoinPool is not used since it needs API level 21.
+ * Short batches are parsed on the calling thread only.
+ */
+public final class BatchPathParser {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    // the total length of the strings below which handing them to other threads
+    // costs more than parsing them
+    static final int MIN_PARALLEL_LENGTH = 8 * 1024;
+    private static Executor sExecutor;
+
+    private final List<? extends CharSequence> mPathData;
+    // Path or PathData objects
+    private final Object[] mResults;
+    private final long[] mOrder;
+    private final long mTotalLength;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final CountDownLatch mDone;
+    // the lowest index of the strings that failed so far
+    private volatile int mErrorIndex = Integer.MAX_VALUE;
+    private RuntimeException mError;
+
+    private BatchPathParser(List<? extends CharSequence> pathData, Object[] results) {
+        int count = pathData.size();
+        mPathData = pathData;
+        mResults = results;
+        mDone = new CountDownLatch(count);
+        // (length << 32 | index) sorted descending gives the longest strings first
+        mOrder = new long[count];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            CharSequence data = pathData.get(i);
+            long length = data != null ? data.length() : 0;
+            mOrder[i] = (length << 32) | i;
+            total += length;
+        }
+        mTotalLength = total;
+        Arrays.sort(mOrder);
+    }
+
+    /**
+     * Thrown by {@link #createPaths(List)} when one of the strings cannot be parsed.
+     */
+    public static class BatchParseException extends RuntimeException {
+        private final int mIndex;
+
+        BatchParseException(int index, Throwable cause) {
+            super("Error in parsing path data #" + index, cause);
+            mIndex = index;
+        }
+
+        /**
+         * @return the index of the path data that could not be parsed, the lowest one
+         * if more of them failed
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+    }
+
+    /**
+     * Parse many path strings in parallel on a shared pool of background threads
+     * (the calling thread helps as well).
+     *
+     * @param pathData The strings representing paths, the same as "d" string in svg file.
+     * @return the generated Path objects, in the same order as <code>pathData</code>
+     * (null for the null strings)
+     * @throws BatchParseException if any of the strings cannot be parsed
+     */
+    public static Path[] createPaths(List<? extends CharSequence> pathData) {
+        return createPaths(pathData, null);
+    }
+
+    /**
+     * Parse many path strings in parallel on the given executor (the calling
+     * thread helps as well).
+     *
+     * @param pathData The strings representing paths, the same as "d" string in svg file.
+     * @param executor The executor to run the parsing on, null for the shared pool
+     * @return the generated Path objects, in the same order as <code>pathData</code>
+     * (null for the null strings)
+     * @throws BatchParseException if any of the strings cannot be parsed
+     */
+    public static Path[] createPaths(List<? extends CharSequence> pathData, Executor executor) {
+        Path[] paths = new Path[pathData.size()];
+        new BatchPathParser(pathData, paths).run(executor);
+        return paths;
+    }
+
+    /**
+     * Parse many path strings into the compact PathData, see {@link #createPaths(List, Executor)}.
+     */
+    static PathData[] createPathData(List<? extends CharSequence> pathData, Executor executor) {
+        PathData[] data = new PathData[pathData.size()];
+        new BatchPathParser(pathData, data).run(executor);
+        return data;
+    }
+
+    private void run(Executor executor) {
+        int count = mOrder.length;
+        if (count > 1 && mTotalLength >= MIN_PARALLEL_LENGTH) {
+            if (executor == null) {
+                executor = getExecutor();
+            }
+            int helpers = Math.min(CPU_COUNT, count) - 1;
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            };
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(worker);
+            }
+        }
+        work();
+
+        // wait only for the strings taken by other threads, helpers that have not
+        // started yet will find nothing to do
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (mError != null) {
+                throw new BatchParseException(mErrorIndex, mError);
+            }
+        }
+    }
+
+    private void work() {
+        PathDataTokenizer tokenizer = null;
+        long[] order = mOrder;
+        Object[] results = mResults;
+        boolean paths = results instanceof Path[];
+        int i;
+        while ((i = mNext.getAndIncrement()) < order.length) {
+            int index = (int) order[order.length - 1 - i];
+            try {
+                CharSequence data = mPathData.get(index);
+                // once failed only the strings that could fail with a lower index are parsed
+                if (index < mErrorIndex && data != null) {
+                    if (tokenizer == null) {
+                        tokenizer = new PathDataTokenizer();
+                    }
+                    if (paths) {
+                        results[index] = PathParser.createPathFromPathData(tokenizer, data);
+                    } else {
+                        tokenizer.tokenize(data);
+                        results[index] = new PathData(tokenizer);
+                    }
+                }
+            } catch (RuntimeException e) {
+                fail(index, e);
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+
+    private synchronized void fail(int index, RuntimeException e) {
+        if (index < mErrorIndex) {
+            mErrorIndex = index;
+            mError = e;
+        }
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            ThreadFactory factory = new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PathParser #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            int threads = Math.max(CPU_COUNT - 1, 1);
+            sExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), factory);
+        }
+        return sExecutor;
+    }
+}
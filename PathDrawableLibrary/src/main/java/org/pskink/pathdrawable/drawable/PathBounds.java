@@ -0,0 +1,184 @@
+package org.pskink.pathdrawable.drawable;
+
+/**
+ * The {@link PathSink} computing the bounds of the path data without creating any Path.
+ * <p>
+ * The control bounds include all the points (the control points of the curves too)
+ * like {@link android.graphics.Path#computeBounds}, the tight bounds include only the
+ * end points and the extrema of the curves. The arcs are already converted to cubic
+ * Bezier segments whose error is negligible for the bounds.
+ */
+final class PathBounds implements PathSink {
+    // left, top, right, bottom
+    final float[] mControl = new float[4];
+    final float[] mTight = new float[4];
+    private boolean mEmpty = true;
+    private float mX;
+    private float mY;
+    private float mStartX;
+    private float mStartY;
+    private final float[] mRoots = new float[2];
+
+    void reset() {
+        mEmpty = true;
+        mX = mY = mStartX = mStartY = 0;
+    }
+
+    /**
+     * @return whether there are no points at all
+     */
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    private void add(float[] bounds, float x, float y) {
+        if (x < bounds[0]) bounds[0] = x;
+        if (y < bounds[1]) bounds[1] = y;
+        if (x > bounds[2]) bounds[2] = x;
+        if (y > bounds[3]) bounds[3] = y;
+    }
+
+    private void addPoint(float x, float y) {
+        if (mEmpty) {
+            mEmpty = false;
+            float[] control = mControl;
+            float[] tight = mTight;
+            control[0] = control[2] = tight[0] = tight[2] = x;
+            control[1] = control[3] = tight[1] = tight[3] = y;
+        } else {
+            add(mControl, x, y);
+            add(mTight, x, y);
+        }
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+        addPoint(x, y);
+        mX = mStartX = x;
+        mY = mStartY = y;
+    }
+
+    @Override
+    public void rMoveTo(float dx, float dy) {
+        moveTo(mX + dx, mY + dy);
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+        // the segment starts at the current point, which may be the implicit (0, 0)
+        addPoint(mX, mY);
+        addPoint(x, y);
+        mX = x;
+        mY = y;
+    }
+
+    @Override
+    public void rLineTo(float dx, float dy) {
+        lineTo(mX + dx, mY + dy);
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        float x0 = mX;
+        float y0 = mY;
+        addPoint(x0, y0);
+        addPoint(x2, y2);
+        add(mControl, x1, y1);
+        float tx = quadExtremum(x0, x1, x2);
+        float ty = quadExtremum(y0, y1, y2);
+        if (tx > 0) {
+            add(mTight, quad(x0, x1, x2, tx), quad(y0, y1, y2, tx));
+        }
+        if (ty > 0) {
+            add(mTight, quad(x0, x1, x2, ty), quad(y0, y1, y2, ty));
+        }
+        mX = x2;
+        mY = y2;
+    }
+
+    @Override
+    public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+        quadTo(mX + dx1, mY + dy1, mX + dx2, mY + dy2);
+    }
+
+    @Override
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        float x0 = mX;
+        float y0 = mY;
+        addPoint(x0, y0);
+        addPoint(x3, y3);
+        add(mControl, x1, y1);
+        add(mControl, x2, y2);
+        for (int i = 0, n = cubicExtrema(x0, x1, x2, x3); i < n; i++) {
+            float t = mRoots[i];
+            add(mTight, cubic(x0, x1, x2, x3, t), cubic(y0, y1, y2, y3, t));
+        }
+        for (int i = 0, n = cubicExtrema(y0, y1, y2, y3); i < n; i++) {
+            float t = mRoots[i];
+            add(mTight, cubic(x0, x1, x2, x3, t), cubic(y0, y1, y2, y3, t));
+        }
+        mX = x3;
+        mY = y3;
+    }
+
+    @Override
+    public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        cubicTo(mX + x1, mY + y1, mX + x2, mY + y2, mX + x3, mY + y3);
+    }
+
+    @Override
+    public void close() {
+        mX = mStartX;
+        mY = mStartY;
+    }
+
+    /**
+     * @return the t in (0, 1) where the derivative of the quadratic is 0, or -1
+     */
+    private static float quadExtremum(float p0, float p1, float p2) {
+        float denom = p0 - 2 * p1 + p2;
+        if (denom == 0) {
+            return -1;
+        }
+        float t = (p0 - p1) / denom;
+        return t > 0 && t < 1 ? t : -1;
+    }
+
+    private static float quad(float p0, float p1, float p2, float t) {
+        float mt = 1 - t;
+        return mt * mt * p0 + 2 * mt * t * p1 + t * t * p2;
+    }
+
+    private static float cubic(float p0, float p1, float p2, float p3, float t) {
+        float mt = 1 - t;
+        return mt * mt * mt * p0 + 3 * mt * mt * t * p1 + 3 * mt * t * t * p2 + t * t * t * p3;
+    }
+
+    /**
+     * Find the t in (0, 1) where the derivative of the cubic is 0.
+     * @return the number of the roots stored in mRoots
+     */
+    private int cubicExtrema(float p0, float p1, float p2, float p3) {
+        // the derivative divided by 3 is a * t^2 + b * t + c
+        double a = p3 - 3 * p2 + 3 * p1 - p0;
+        double b = 2 * (p2 - 2 * p1 + p0);
+        double c = p1 - p0;
+        if (Math.abs(a) < 1e-12) {
+            return b != 0 ? addRoot(-c / b, 0) : 0;
+        }
+        double disc = b * b - 4 * a * c;
+        if (disc < 0) {
+            return 0;
+        }
+        double sqrt = Math.sqrt(disc);
+        int count = addRoot((-b + sqrt) / (2 * a), 0);
+        return addRoot((-b - sqrt) / (2 * a), count);
+    }
+
+    private int addRoot(double t, int count) {
+        if (t > 0 && t < 1) {
+            mRoots[count++] = (float) t;
+        }
+        return count;
+    }
+}
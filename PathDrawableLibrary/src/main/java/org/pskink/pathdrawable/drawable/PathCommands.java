@@ -0,0 +1,574 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.pskink.pathdrawable.drawable;
+
+/**
+ * The command playing part of PathParser, it feeds a {@link PathSink} instead of
+ * android.graphics.Path so it does not depend on the Android framework (like
+ * PathDataTokenizer) and can run on a plain JVM, e.g. in build tools or tests.
+ */
+public final class PathCommands {
+    /**
+     * The maximum distance (in pixels) between an arc and its cubic Bezier approximation.
+     */
+    static final float ARC_TOLERANCE = 0.25f;
+    private static final int MAX_ARC_SEGMENTS = 1024;
+
+    private PathCommands() {
+    }
+
+    /**
+     * Parse the path data straight into the sink, without creating any Path. The
+     * arcs are converted to cubic Bezier segments spanning at most 45 degrees.
+     *
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @param sink     The consumer of the path segments.
+     */
+    public static void parse(CharSequence pathData, PathSink sink) {
+        parse(pathData, 0, sink);
+    }
+
+    /**
+     * Parse the path data straight into the sink, without creating any Path. The
+     * arcs are converted to as few cubic Bezier segments as needed to keep the error
+     * within a quarter of a pixel when the path is drawn with the given scale.
+     *
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @param scale    The scale the path is drawn with, 0 if not known.
+     * @param sink     The consumer of the path segments.
+     */
+    public static void parse(CharSequence pathData, float scale, PathSink sink) {
+        parse(new PathDataTokenizer(), pathData, scale, sink);
+    }
+
+    /**
+     * Parse the path data straight into the sink, without creating any Path.
+     *
+     * @param tokenizer The tokenizer to use, it can be reused for many strings.
+     * @param pathData  The string representing a path, the same as "d" string in svg file.
+     * @param scale     The scale the path is drawn with, 0 if not known.
+     * @param sink      The consumer of the path segments.
+     */
+    static void parse(PathDataTokenizer tokenizer, CharSequence pathData, float scale, PathSink sink) {
+        tokenizer.tokenize(pathData);
+        try {
+            play(tokenizer.mCommands, tokenizer.mOffsets, tokenizer.mParams,
+                    tokenizer.mCommandCount, scale, new float[6], sink);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Error in parsing " + pathData, e);
+        }
+    }
+
+    /**
+     * Play the commands stored in the flat arrays into the sink without allocating.
+     *
+     * @param commands The commands, one (ascii) byte per command.
+     * @param offsets  The start of each command's params, followed by the end of the last one.
+     * @param params   The params of all the commands.
+     * @param count    The number of commands.
+     * @param scale    The scale the path is drawn with, used to choose the number of
+     *                 cubic segments of the arcs, 0 if not known.
+     * @param current  The scratch array of (at least) 6 floats.
+     * @param sink     The consumer of the path segments.
+     */
+    static void play(byte[] commands, int[] offsets, float[] params, int count,
+                     float scale, float[] current, PathSink sink) {
+        for (int i = 0; i < 6; i++) {
+            current[i] = 0;
+        }
+        char previousCommand = 'm';
+        for (int i = 0; i < count; i++) {
+            char cmd = (char) commands[i];
+            addCommand(sink, current, previousCommand, cmd, params, offsets[i], offsets[i + 1],
+                    scale);
+            previousCommand = cmd;
+        }
+    }
+
+    static void addCommand(PathSink path, float[] current,
+                           char previousCmd, char cmd, float[] val,
+                           int start, int end, float scale) {
+
+        int incr = 2;
+        float currentX = current[0];
+        float currentY = current[1];
+        float ctrlPointX = current[2];
+        float ctrlPointY = current[3];
+        float currentSegmentStartX = current[4];
+        float currentSegmentStartY = current[5];
+        float reflectiveCtrlPointX;
+        float reflectiveCtrlPointY;
+
+        switch (cmd) {
+            case 'z':
+            case 'Z':
+                path.close();
+                // Path is closed here, but we need to move the pen to the
+                // closed position. So we cache the segment's starting position,
+                // and restore it here.
+                currentX = currentSegmentStartX;
+                currentY = currentSegmentStartY;
+                ctrlPointX = currentSegmentStartX;
+                ctrlPointY = currentSegmentStartY;
+                path.moveTo(currentX, currentY);
+                break;
+            case 'm':
+            case 'M':
+            case 'l':
+            case 'L':
+            case 't':
+            case 'T':
+                incr = 2;
+                break;
+            case 'h':
+            case 'H':
+            case 'v':
+            case 'V':
+                incr = 1;
+                break;
+            case 'c':
+            case 'C':
+                incr = 6;
+                break;
+            case 's':
+            case 'S':
+            case 'q':
+            case 'Q':
+                incr = 4;
+                break;
+            case 'a':
+            case 'A':
+                incr = 7;
+                break;
+        }
+
+        for (int k = start; k < end; k += incr) {
+            if (k + incr > end) {
+                // val is shared between commands, do not read the next one's params
+                throw new ArrayIndexOutOfBoundsException("Incomplete params for command " + cmd);
+            }
+            switch (cmd) {
+                case 'm': // moveto - Start a new sub-path (relative)
+                    currentX += val[k + 0];
+                    currentY += val[k + 1];
+                    if (k > start) {
+                        // According to the spec, if a moveto is followed by multiple
+                        // pairs of coordinates, the subsequent pairs are treated as
+                        // implicit lineto commands.
+                        path.rLineTo(val[k + 0], val[k + 1]);
+                    } else {
+                        path.rMoveTo(val[k + 0], val[k + 1]);
+                        currentSegmentStartX = currentX;
+                        currentSegmentStartY = currentY;
+                    }
+                    break;
+                case 'M': // moveto - Start a new sub-path
+                    currentX = val[k + 0];
+                    currentY = val[k + 1];
+                    if (k > start) {
+                        // According to the spec, if a moveto is followed by multiple
+                        // pairs of coordinates, the subsequent pairs are treated as
+                        // implicit lineto commands.
+                        path.lineTo(val[k + 0], val[k + 1]);
+                    } else {
+                        path.moveTo(val[k + 0], val[k + 1]);
+                        currentSegmentStartX = currentX;
+                        currentSegmentStartY = currentY;
+                    }
+                    break;
+                case 'l': // lineto - Draw a line from the current point (relative)
+                    path.rLineTo(val[k + 0], val[k + 1]);
+                    currentX += val[k + 0];
+                    currentY += val[k + 1];
+                    break;
+                case 'L': // lineto - Draw a line from the current point
+                    path.lineTo(val[k + 0], val[k + 1]);
+                    currentX = val[k + 0];
+                    currentY = val[k + 1];
+                    break;
+                case 'h': // horizontal lineto - Draws a horizontal line (relative)
+                    path.rLineTo(val[k + 0], 0);
+                    currentX += val[k + 0];
+                    break;
+                case 'H': // horizontal lineto - Draws a horizontal line
+                    path.lineTo(val[k + 0], currentY);
+                    currentX = val[k + 0];
+                    break;
+                case 'v': // vertical lineto - Draws a vertical line from the current point (r)
+                    path.rLineTo(0, val[k + 0]);
+                    currentY += val[k + 0];
+                    break;
+                case 'V': // vertical lineto - Draws a vertical line from the current point
+                    path.lineTo(currentX, val[k + 0]);
+                    currentY = val[k + 0];
+                    break;
+                case 'c': // curveto - Draws a cubic Bézier curve (relative)
+                    path.rCubicTo(val[k + 0], val[k + 1], val[k + 2], val[k + 3],
+                            val[k + 4], val[k + 5]);
+
+                    ctrlPointX = currentX + val[k + 2];
+                    ctrlPointY = currentY + val[k + 3];
+                    currentX += val[k + 4];
+                    currentY += val[k + 5];
+
+                    break;
+                case 'C': // curveto - Draws a cubic Bézier curve
+                    path.cubicTo(val[k + 0], val[k + 1], val[k + 2], val[k + 3],
+                            val[k + 4], val[k + 5]);
+                    currentX = val[k + 4];
+                    currentY = val[k + 5];
+                    ctrlPointX = val[k + 2];
+                    ctrlPointY = val[k + 3];
+                    break;
+                case 's': // smooth curveto - Draws a cubic Bézier curve (reflective cp)
+                    reflectiveCtrlPointX = 0;
+                    reflectiveCtrlPointY = 0;
+                    if (previousCmd == 'c' || previousCmd == 's'
+                            || previousCmd == 'C' || previousCmd == 'S') {
+                        reflectiveCtrlPointX = currentX - ctrlPointX;
+                        reflectiveCtrlPointY = currentY - ctrlPointY;
+                    }
+                    path.rCubicTo(reflectiveCtrlPointX, reflectiveCtrlPointY,
+                            val[k + 0], val[k + 1],
+                            val[k + 2], val[k + 3]);
+
+                    ctrlPointX = currentX + val[k + 0];
+                    ctrlPointY = currentY + val[k + 1];
+                    currentX += val[k + 2];
+                    currentY += val[k + 3];
+                    break;
+                case 'S': // shorthand/smooth curveto Draws a cubic Bézier curve(reflective cp)
+                    reflectiveCtrlPointX = currentX;
+                    reflectiveCtrlPointY = currentY;
+                    if (previousCmd == 'c' || previousCmd == 's'
+                            || previousCmd == 'C' || previousCmd == 'S') {
+                        reflectiveCtrlPointX = 2 * currentX - ctrlPointX;
+                        reflectiveCtrlPointY = 2 * currentY - ctrlPointY;
+                    }
+                    path.cubicTo(reflectiveCtrlPointX, reflectiveCtrlPointY,
+                            val[k + 0], val[k + 1], val[k + 2], val[k + 3]);
+                    ctrlPointX = val[k + 0];
+                    ctrlPointY = val[k + 1];
+                    currentX = val[k + 2];
+                    currentY = val[k + 3];
+                    break;
+                case 'q': // Draws a quadratic Bézier (relative)
+                    path.rQuadTo(val[k + 0], val[k + 1], val[k + 2], val[k + 3]);
+                    ctrlPointX = currentX + val[k + 0];
+                    ctrlPointY = currentY + val[k + 1];
+                    currentX += val[k + 2];
+                    currentY += val[k + 3];
+                    break;
+                case 'Q': // Draws a quadratic Bézier
+                    path.quadTo(val[k + 0], val[k + 1], val[k + 2], val[k + 3]);
+                    ctrlPointX = val[k + 0];
+                    ctrlPointY = val[k + 1];
+                    currentX = val[k + 2];
+                    currentY = val[k + 3];
+                    break;
+                case 't': // Draws a quadratic Bézier curve(reflective control point)(relative)
+                    reflectiveCtrlPointX = 0;
+                    reflectiveCtrlPointY = 0;
+                    if (previousCmd == 'q' || previousCmd == 't'
+                            || previousCmd == 'Q' || previousCmd == 'T') {
+                        reflectiveCtrlPointX = currentX - ctrlPointX;
+                        reflectiveCtrlPointY = currentY - ctrlPointY;
+                    }
+                    path.rQuadTo(reflectiveCtrlPointX, reflectiveCtrlPointY,
+                            val[k + 0], val[k + 1]);
+                    ctrlPointX = currentX + reflectiveCtrlPointX;
+                    ctrlPointY = currentY + reflectiveCtrlPointY;
+                    currentX += val[k + 0];
+                    currentY += val[k + 1];
+                    break;
+                case 'T': // Draws a quadratic Bézier curve (reflective control point)
+                    reflectiveCtrlPointX = currentX;
+                    reflectiveCtrlPointY = currentY;
+                    if (previousCmd == 'q' || previousCmd == 't'
+                            || previousCmd == 'Q' || previousCmd == 'T') {
+                        reflectiveCtrlPointX = 2 * currentX - ctrlPointX;
+                        reflectiveCtrlPointY = 2 * currentY - ctrlPointY;
+                    }
+                    path.quadTo(reflectiveCtrlPointX, reflectiveCtrlPointY,
+                            val[k + 0], val[k + 1]);
+                    ctrlPointX = reflectiveCtrlPointX;
+                    ctrlPointY = reflectiveCtrlPointY;
+                    currentX = val[k + 0];
+                    currentY = val[k + 1];
+                    break;
+                case 'a': // Draws an elliptical arc
+                    // (rx ry x-axis-rotation large-arc-flag sweep-flag x y)
+                    drawArc(path,
+                            currentX,
+                            currentY,
+                            val[k + 5] + currentX,
+                            val[k + 6] + currentY,
+                            val[k + 0],
+                            val[k + 1],
+                            val[k + 2],
+                            val[k + 3] != 0,
+                            val[k + 4] != 0,
+                            scale);
+                    currentX += val[k + 5];
+                    currentY += val[k + 6];
+                    ctrlPointX = currentX;
+                    ctrlPointY = currentY;
+                    break;
+                case 'A': // Draws an elliptical arc
+                    drawArc(path,
+                            currentX,
+                            currentY,
+                            val[k + 5],
+                            val[k + 6],
+                            val[k + 0],
+                            val[k + 1],
+                            val[k + 2],
+                            val[k + 3] != 0,
+                            val[k + 4] != 0,
+                            scale);
+                    currentX = val[k + 5];
+                    currentY = val[k + 6];
+                    ctrlPointX = currentX;
+                    ctrlPointY = currentY;
+                    break;
+            }
+            previousCmd = cmd;
+        }
+        current[0] = currentX;
+        current[1] = currentY;
+        current[2] = ctrlPointX;
+        current[3] = ctrlPointY;
+        current[4] = currentSegmentStartX;
+        current[5] = currentSegmentStartY;
+    }
+
+    private static void drawArc(PathSink p,
+                                float x0,
+                                float y0,
+                                float x1,
+                                float y1,
+                                float a,
+                                float b,
+                                float theta,
+                                boolean isMoreThanHalf,
+                                boolean isPositiveArc,
+                                float scale) {
+
+        /* Convert rotation angle from degrees to radians */
+        double thetaD = Math.toRadians(theta);
+        /* Pre-compute rotation matrix entries */
+        double cosTheta = Math.cos(thetaD);
+        double sinTheta = Math.sin(thetaD);
+        /* Transform (x0, y0) and (x1, y1) into unit space */
+        /* using (inverse) rotation, followed by (inverse) scale */
+        double x0p = (x0 * cosTheta + y0 * sinTheta) / a;
+        double y0p = (-x0 * sinTheta + y0 * cosTheta) / b;
+        double x1p = (x1 * cosTheta + y1 * sinTheta) / a;
+        double y1p = (-x1 * sinTheta + y1 * cosTheta) / b;
+
+        /* Compute differences and averages */
+        double dx = x0p - x1p;
+        double dy = y0p - y1p;
+        double xm = (x0p + x1p) / 2;
+        double ym = (y0p + y1p) / 2;
+        /* Solve for intersecting unit circles */
+        double dsq = dx * dx + dy * dy;
+        if (dsq == 0.0) {
+            return; /* Points are coincident */
+        }
+        double disc = 1.0 / dsq - 1.0 / 4.0;
+        if (disc < 0.0) {
+            float adjust = (float) (Math.sqrt(dsq) / 1.99999);
+            drawArc(p, x0, y0, x1, y1, a * adjust,
+                    b * adjust, theta, isMoreThanHalf, isPositiveArc, scale);
+            return; /* Points are too far apart */
+        }
+        double s = Math.sqrt(disc);
+        double sdx = s * dx;
+        double sdy = s * dy;
+        double cx;
+        double cy;
+        if (isMoreThanHalf == isPositiveArc) {
+            cx = xm - sdy;
+            cy = ym + sdx;
+        } else {
+            cx = xm + sdy;
+            cy = ym - sdx;
+        }
+
+        double eta0 = Math.atan2((y0p - cy), (x0p - cx));
+
+        double eta1 = Math.atan2((y1p - cy), (x1p - cx));
+
+        double sweep = (eta1 - eta0);
+        if (isPositiveArc != (sweep >= 0)) {
+            if (sweep > 0) {
+                sweep -= 2 * Math.PI;
+            } else {
+                sweep += 2 * Math.PI;
+            }
+        }
+
+        cx *= a;
+        cy *= b;
+        double tcx = cx;
+        cx = cx * cosTheta - cy * sinTheta;
+        cy = tcx * sinTheta + cy * cosTheta;
+
+        // the tolerance in the path units
+        double tolerance = scale > 0 ? ARC_TOLERANCE / scale : 0;
+        arcToBezier(p, cx, cy, a, b, x0, y0, thetaD, eta0, sweep, tolerance);
+    }
+
+    /**
+     * Compute the number of cubic Bezier segments needed to approximate the arc.
+     * <p>
+     * With the tolerance the segments use the control handles of the length
+     * 4/3 * tan(phi/4) (see arcToBezier()), so the radial error of one segment
+     * spanning the angle phi of a circle with the radius r is at most
+     * r * 2/27 * sin(phi/4)^6 / cos(phi/4)^2, the larger radius of the ellipse is
+     * used for r. No segment spans more than 90 degrees and if the tolerance cannot
+     * be met there are never fewer segments than with the fixed 45 degrees. Without
+     * the tolerance the framework's fixed 45 degrees split (and its handles) is kept.
+     *
+     * @param radius    The larger radius of the ellipse
+     * @param sweep     The angle (positive or negative) of the sweep of the arc
+     * @param tolerance The maximum error, 0 for the fixed 45 degrees per segment
+     * @return the number of segments
+     */
+    static int getArcSegmentCount(double radius, double sweep, double tolerance) {
+        double angle = Math.abs(sweep);
+        // Maximum of 45 degrees per cubic Bezier segment
+        int fixedSegments = (int) Math.ceil(angle * 4 / Math.PI);
+        if (tolerance <= 0) {
+            return fixedSegments;
+        }
+        int numSegments = (int) Math.ceil(angle * 2 / Math.PI);
+        if (tolerance < radius) {
+            // for small angles sin(x) ~ x, so start with that estimate
+            double maxAngle = 4 * Math.pow(tolerance * 27 / (2 * radius), 1.0 / 6);
+            numSegments = Math.max(numSegments, (int) Math.ceil(angle / maxAngle));
+        }
+        while (numSegments < MAX_ARC_SEGMENTS) {
+            double quarter = angle / numSegments / 4;
+            double sin = Math.sin(quarter);
+            double cos = Math.cos(quarter);
+            double sin3 = sin * sin * sin;
+            if (radius * 2 / 27 * sin3 * sin3 / (cos * cos) <= tolerance) {
+                return numSegments;
+            }
+            numSegments++;
+        }
+        return Math.max(numSegments, fixedSegments);
+    }
+
+    /**
+     * Converts an arc to cubic Bezier segments and records them in p.
+     *
+     * @param p     The target for the cubic Bezier segments
+     * @param cx    The x coordinate center of the ellipse
+     * @param cy    The y coordinate center of the ellipse
+     * @param a     The radius of the ellipse in the horizontal direction
+     * @param b     The radius of the ellipse in the vertical direction
+     * @param e1x   E(eta1) x coordinate of the starting point of the arc
+     * @param e1y   E(eta2) y coordinate of the starting point of the arc
+     * @param theta The angle that the ellipse bounding rectangle makes with horizontal plane
+     * @param start The start angle of the arc on the ellipse
+     * @param sweep The angle (positive or negative) of the sweep of the arc on the ellipse
+     * @param tolerance The maximum error in the path units, 0 for the fixed 45 degrees
+     *              per segment
+     */
+    private static void arcToBezier(PathSink p,
+                                    double cx,
+                                    double cy,
+                                    double a,
+                                    double b,
+                                    double e1x,
+                                    double e1y,
+                                    double theta,
+                                    double start,
+                                    double sweep,
+                                    double tolerance) {
+        // Taken from equations at: http://spaceroots.org/documents/ellipse/node8.html
+        // and http://www.spaceroots.org/documents/ellipse/node22.html
+
+        int numSegments = getArcSegmentCount(Math.max(Math.abs(a), Math.abs(b)), sweep, tolerance);
+        if (numSegments == 0) {
+            return;
+        }
+
+        double cosTheta = Math.cos(theta);
+        double sinTheta = Math.sin(theta);
+        double cosEta1 = Math.cos(start);
+        double sinEta1 = Math.sin(start);
+        double ep1x = (-a * cosTheta * sinEta1) - (b * sinTheta * cosEta1);
+        double ep1y = (-a * sinTheta * sinEta1) + (b * cosTheta * cosEta1);
+
+        // all the segments span the same angle so alpha is the same for all of them
+        // and the next angle's sin/cos is the current one rotated by that angle
+        double anglePerSegment = sweep / numSegments;
+        double cosDelta = Math.cos(anglePerSegment);
+        double sinDelta = Math.sin(anglePerSegment);
+        // the handle length of the error bound used by getArcSegmentCount()
+        double alpha = 4.0 / 3 * Math.tan(anglePerSegment / 4);
+        double eta1 = start;
+        for (int i = 0; i < numSegments; i++) {
+            double eta2 = eta1 + anglePerSegment;
+            double cosEta2;
+            double sinEta2;
+            if (tolerance <= 0) {
+                // without the tolerance the segments are the same as the framework's
+                cosEta2 = Math.cos(eta2);
+                sinEta2 = Math.sin(eta2);
+                double tanDiff2 = Math.tan((eta2 - eta1) / 2);
+                alpha = Math.sin(eta2 - eta1) * (Math.sqrt(4 + (3 * tanDiff2 * tanDiff2)) - 1) / 3;
+            } else if (i == numSegments - 1) {
+                // no error accumulated at the end point
+                cosEta2 = Math.cos(start + sweep);
+                sinEta2 = Math.sin(start + sweep);
+            } else {
+                cosEta2 = cosEta1 * cosDelta - sinEta1 * sinDelta;
+                sinEta2 = sinEta1 * cosDelta + cosEta1 * sinDelta;
+            }
+            double e2x = cx + (a * cosTheta * cosEta2) - (b * sinTheta * sinEta2);
+            double e2y = cy + (a * sinTheta * cosEta2) + (b * cosTheta * sinEta2);
+            double ep2x = -a * cosTheta * sinEta2 - b * sinTheta * cosEta2;
+            double ep2y = -a * sinTheta * sinEta2 + b * cosTheta * cosEta2;
+            double q1x = e1x + alpha * ep1x;
+            double q1y = e1y + alpha * ep1y;
+            double q2x = e2x - alpha * ep2x;
+            double q2y = e2y - alpha * ep2y;
+
+            // Use the extra math below and relative cubicTo function, just to work around
+            // one issue with VM and proguard.
+            final float delta_q1x = (float) q1x - (float) e1x;
+            final float delta_q1y = (float) q1y - (float) e1y;
+            final float delta_q2x = (float) q2x - (float) e1x;
+            final float delta_q2y = (float) q2y - (float) e1y;
+            final float delta_e2x = (float) e2x - (float) e1x;
+            final float delta_e2y = (float) e2y - (float) e1y;
+
+            p.rCubicTo(delta_q1x, delta_q1y, delta_q2x, delta_q2y, delta_e2x, delta_e2y);
+
+            eta1 = eta2;
+            cosEta1 = cosEta2;
+            sinEta1 = sinEta2;
+            e1x = e2x;
+            e1y = e2y;
+            ep1x = ep2x;
+            ep1y = ep2y;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/**
+ * Compact (struct of arrays) representation of the parsed path data.
+ * <p>
+ * Instead of one {@link PathParser.PathDataNode} object with its own params array
+ * per command, all commands are kept in one byte array, all params in one shared
+ * float array and {@link #mOffsets} holds the start of each command's params
+ * (the last entry is the total number of params).
+ */
+final class PathData {
+    final byte[] mCommands;
+    final int[] mOffsets;
+    final float[] mParams;
+
+    PathData(PathDataTokenizer tokenizer) {
+        int count = tokenizer.mCommandCount;
+        mCommands = new byte[count];
+        System.arraycopy(tokenizer.mCommands, 0, mCommands, 0, count);
+        mOffsets = new int[count + 1];
+        System.arraycopy(tokenizer.mOffsets, 0, mOffsets, 0, count + 1);
+        mParams = PathParser.copyOfRange(tokenizer.mParams, 0, tokenizer.mParamCount);
+    }
+
+    PathData(byte[] commands, int[] offsets, float[] params) {
+        mCommands = commands;
+        mOffsets = offsets;
+        mParams = params;
+    }
+
+    /**
+     * Create a deep copy of the given PathData.
+     * @param source the PathData to copy
+     */
+    PathData(PathData source) {
+        mCommands = source.mCommands.clone();
+        mOffsets = source.mOffsets.clone();
+        mParams = source.mParams.clone();
+    }
+
+    /**
+     * @return the number of commands
+     */
+    int getCommandCount() {
+        return mCommands.length;
+    }
+
+    /**
+     * @return the number of params of all the commands
+     */
+    int getParamCount() {
+        return mParams.length;
+    }
+
+    /**
+     * Play the commands into the given Path.
+     * @param path The target Path object.
+     */
+    void toPath(Path path) {
+        PathParser.PathDataNode.commandsToPath(mCommands, mOffsets, mParams, mCommands.length, path);
+    }
+
+    /**
+     * Play the commands into the given Path, the arcs are approximated with as few
+     * cubic segments as needed when the Path is drawn with the given scale.
+     * @param path The target Path object.
+     * @param scale The scale the Path is drawn with.
+     */
+    void toPath(Path path, float scale) {
+        PathParser.PathDataNode.commandsToPath(mCommands, mOffsets, mParams, mCommands.length,
+                scale, path);
+    }
+
+    /**
+     * Play the commands into the given sink without allocating.
+     * @param sink The consumer of the path segments.
+     * @param current The scratch array of (at least) 6 floats.
+     */
+    void toPath(PathSink sink, float[] current) {
+        PathCommands.play(mCommands, mOffsets, mParams, mCommands.length, 0, current, sink);
+    }
+
+    /**
+     * Compute the bounds straight from the commands, without building any Path.
+     * @param out The bounds, empty if there are no points at all
+     * @param tight true for the bounds of the curves (their extrema), false for
+     *              the bounds of all the points (the control points included)
+     *              like {@link Path#computeBounds(RectF, boolean)}
+     */
+    void computeBounds(RectF out, boolean tight) {
+        PathBounds bounds = new PathBounds();
+        toPath(bounds, new float[6]);
+        if (bounds.isEmpty()) {
+            out.setEmpty();
+        } else {
+            float[] b = tight ? bounds.mTight : bounds.mControl;
+            out.set(b[0], b[1], b[2], b[3]);
+        }
+    }
+
+    /**
+     * @return whether there is any arc command
+     */
+    boolean hasArcs() {
+        for (byte cmd : mCommands) {
+            if (cmd == 'a' || cmd == 'A') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param to The target path data
+     * @return whether this path data can morph into <code>to</code>
+     */
+    boolean canMorph(PathData to) {
+        if (to == null || mCommands.length != to.mCommands.length
+                || mParams.length != to.mParams.length) {
+            return false;
+        }
+        for (int i = 0; i < mCommands.length; i++) {
+            if (mCommands[i] != to.mCommands[i] || mOffsets[i + 1] != to.mOffsets[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Interpolate the params between <code>from</code> and <code>to</code> according
+     * to the <code>fraction</code>.
+     * Before calling this, make sure from.canMorph(to) and canMorph(from) are true.
+     *
+     * @param from The start value
+     * @param to The end value
+     * @param fraction The fraction to interpolate.
+     */
+    void interpolate(PathData from, PathData to, float fraction) {
+        float[] params = mParams;
+        float[] fromParams = from.mParams;
+        float[] toParams = to.mParams;
+        for (int i = 0; i < params.length; i++) {
+            params[i] = fromParams[i] * (1 - fraction) + toParams[i] * fraction;
+        }
+    }
+
+    /**
+     * Update the params to match the source.
+     * Before calling this, make sure canMorph(source) is true.
+     *
+     * @param source The source path data
+     */
+    void set(PathData source) {
+        System.arraycopy(source.mParams, 0, mParams, 0, mParams.length);
+    }
+}
@@ -0,0 +1,247 @@
+package org.pskink.pathdrawable.drawable;
+
+/**
+ * Single pass scanner for the svg path data ("d" attribute) format.
+ * <p>
+ * The input is walked exactly once, numbers are parsed in place (no substring per
+ * number) and the result is written into growable primitive buffers:
+ * {@link #mCommands} holds one (ascii) byte per command, {@link #mOffsets} holds the start
+ * of each command's parameters in {@link #mParams} (with an extra entry marking
+ * the end of the last command).
+ * <p>
+ * For valid input the produced floats are bit-identical to {@link Float#parseFloat(String)}.
+ */
+final class PathDataTokenizer {
+    // 10^0 .. 10^22 are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    byte[] mCommands;
+    int[] mOffsets;
+    float[] mParams;
+    int mCommandCount;
+    int mParamCount;
+
+    private CharSequence mData;
+    private int mLength;
+    private int mPosition;
+
+    PathDataTokenizer() {
+        this(16, 64);
+    }
+
+    PathDataTokenizer(int commandCapacity, int paramCapacity) {
+        mCommands = new byte[Math.max(commandCapacity, 1)];
+        mOffsets = new int[Math.max(commandCapacity, 1) + 1];
+        mParams = new float[Math.max(paramCapacity, 1)];
+    }
+
+    /**
+     * Tokenize the given path data, replacing any previous content of the buffers.
+     *
+     * @param data The string representing a path, the same as "d" string in svg file.
+     */
+    void tokenize(CharSequence data) {
+        mData = data;
+        mLength = data.length();
+        mPosition = 0;
+        mCommandCount = 0;
+        mParamCount = 0;
+        mOffsets[0] = 0;
+        try {
+            // anything before the first command is ignored, just like the
+            // substring based parser did
+            while (mPosition < mLength && !isCommand(data.charAt(mPosition))) {
+                mPosition++;
+            }
+            while (mPosition < mLength) {
+                char cmd = data.charAt(mPosition++);
+                addCommand(cmd);
+                if (cmd == 'z' || cmd == 'Z') {
+                    // close path has no parameters, skip until the next command
+                    while (mPosition < mLength && !isCommand(data.charAt(mPosition))) {
+                        mPosition++;
+                    }
+                } else {
+                    readParams(cmd == 'a' || cmd == 'A');
+                }
+                mOffsets[mCommandCount] = mParamCount;
+            }
+        } finally {
+            mData = null;
+        }
+    }
+
+    private void readParams(boolean isArc) {
+        CharSequence data = mData;
+        int index = 0;
+        while (true) {
+            skipSeparators();
+            if (mPosition >= mLength) {
+                return;
+            }
+            char c = data.charAt(mPosition);
+            if (isCommand(c)) {
+                return;
+            }
+            int flagIndex = index % 7;
+            if (isArc && (flagIndex == 3 || flagIndex == 4) && (c == '0' || c == '1')) {
+                // large-arc-flag and sweep-flag are single characters and do
+                // not need any separator: "a1 1 0 00.5.5"
+                addParam(c == '1' ? 1 : 0);
+                mPosition++;
+            } else {
+                addParam(readNumber());
+            }
+            index++;
+        }
+    }
+
+    private void skipSeparators() {
+        CharSequence data = mData;
+        while (mPosition < mLength) {
+            char c = data.charAt(mPosition);
+            if (c != ',' && c > ' ') {
+                return;
+            }
+            mPosition++;
+        }
+    }
+
+    private float readNumber() {
+        CharSequence data = mData;
+        int start = mPosition;
+        int i = start;
+        boolean negative = false;
+        char c = data.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean exact = true;
+
+        // integer part
+        while (i < mLength && (c = data.charAt(i)) >= '0' && c <= '9') {
+            hasDigits = true;
+            if (mantissa != 0 || c != '0') {
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    significantDigits++;
+                } else {
+                    exponent++;
+                    exact &= c == '0';
+                }
+            }
+            i++;
+        }
+        // fraction part, a second '.' starts the next number
+        if (i < mLength && data.charAt(i) == '.') {
+            i++;
+            while (i < mLength && (c = data.charAt(i)) >= '0' && c <= '9') {
+                hasDigits = true;
+                if (mantissa != 0 || c != '0') {
+                    if (significantDigits < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        significantDigits++;
+                        exponent--;
+                    } else {
+                        exact &= c == '0';
+                    }
+                } else {
+                    exponent--;
+                }
+                i++;
+            }
+        }
+        if (!hasDigits) {
+            throw error(start, i + 1);
+        }
+        // exponent part, the sign following 'e' or 'E' is not a separator
+        if (i < mLength && ((c = data.charAt(i)) == 'e' || c == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < mLength && ((c = data.charAt(i)) == '-' || c == '+')) {
+                negativeExponent = c == '-';
+                i++;
+            }
+            int expStart = i;
+            int exp = 0;
+            while (i < mLength && (c = data.charAt(i)) >= '0' && c <= '9') {
+                if (exp < 100000) {
+                    exp = exp * 10 + (c - '0');
+                }
+                i++;
+            }
+            if (i == expStart) {
+                throw error(start, i + 1);
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+        mPosition = i;
+
+        if (mantissa == 0) {
+            return negative ? -0f : 0f;
+        }
+        if (exact && mantissa < MAX_EXACT_MANTISSA
+                && exponent >= -22 && exponent <= 22) {
+            // a single correctly rounded operation on exact operands
+            double d = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+            float f = (float) d;
+            // rounding double -> float can differ from direct rounding only if d
+            // lies exactly halfway between two floats, let the slow path decide then
+            if (f >= Float.MIN_NORMAL && !Float.isInfinite(f)
+                    && (Double.doubleToRawLongBits(d) & 0x1fffffffL) != 0x10000000L) {
+                return negative ? -f : f;
+            }
+        }
+        try {
+            return Float.parseFloat(data.subSequence(start, i).toString());
+        } catch (NumberFormatException e) {
+            throw error(start, i);
+        }
+    }
+
+    private void addCommand(char cmd) {
+        if (mCommandCount == mCommands.length) {
+            int capacity = mCommands.length * 2;
+            byte[] commands = new byte[capacity];
+            System.arraycopy(mCommands, 0, commands, 0, mCommandCount);
+            mCommands = commands;
+            int[] offsets = new int[capacity + 1];
+            System.arraycopy(mOffsets, 0, offsets, 0, mCommandCount + 1);
+            mOffsets = offsets;
+        }
+        mOffsets[mCommandCount] = mParamCount;
+        mCommands[mCommandCount++] = (byte) cmd;
+    }
+
+    private void addParam(float value) {
+        if (mParamCount == mParams.length) {
+            float[] params = new float[mParams.length * 2];
+            System.arraycopy(mParams, 0, params, 0, mParamCount);
+            mParams = params;
+        }
+        mParams[mParamCount++] = value;
+    }
+
+    private RuntimeException error(int start, int end) {
+        end = Math.min(end, mLength);
+        return new RuntimeException("error in parsing \"" + mData.subSequence(start, end)
+                + "\" at position " + start);
+    }
+
+    // Note that 'e' or 'E' are not valid path commands, but could be
+    // used for floating point numbers' scientific notation.
+    static boolean isCommand(char c) {
+        return ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) && c != 'e' && c != 'E';
+    }
+}
@@ -3,7 +3,6 @@ package org.pskink.pathdrawable.drawable;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
-import android.content.res.XmlResourceParser;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Matrix;
@@ -13,35 +12,126 @@ import android.graphics.Paint.Cap;
 import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.Path;
+import android.graphics.PathMeasure;
 import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.Xml;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 
 import org.pskink.pathdrawable.lib.R;
-import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class PathDrawable extends Drawable {
     private final static String TAG = "PathDrawable";
 
-    private Rect mPadding = new Rect();
-    private RectF mPathRect = new RectF();
-    private ScaleToFit mScaleType = ScaleToFit.FILL;
-    private List<Layer> mLayers = new LinkedList<>();
+    private PathState mState;
+    private boolean mMutated;
+    private List<Layer> mLayers = new ArrayList<>();
 
     private OnBoundsChangeListener mListener;
     private Drawable mBackground;
 
+    private static Handler sMainHandler;
+    private LoadTask mLoadTask;
+    // the LoadCallback posted by loadAsync() when the xml file was cached
+    private Runnable mLoadedCallback;
+    private Drawable mPlaceholder;
+    private boolean mLevelOfDetail;
+
+    // the matrix mapping the paths into the bounds' size, positioned at
+    // (mMatrixLeft, mMatrixTop): when only the bounds' offset changes the layers are
+    // drawn translated instead of transforming the paths again
+    private final Matrix mMatrix = new Matrix();
+    private boolean mMatrixValid;
+    private int mMatrixLeft;
+    private int mMatrixTop;
+    private int mMatrixWidth;
+    private int mMatrixHeight;
+    private float mScale;
+    private boolean mUniformScale;
+    private boolean mCanvasMatrix;
+    private final Rect mTmpRect = new Rect();
+    private final RectF mTmpRectF = new RectF();
+    private final float[] mTmpValues = new float[9];
+
+    private boolean mRasterCache;
+    private PathTileRenderer mTileRenderer;
+    private PathRasterCache.Entry mRasterEntry;
+    // the source of the private bitmap, not the drawable itself since the cache
+    // must not keep the drawable reachable
+    private final Object mRasterSource = new Object();
+    // the part of the raster cache bitmap to be redrawn, see invalidateLayer()
+    private final Rect mRasterDirty = new Rect();
+    private final Rect mDirtyRect = new Rect();
+    // whether getDirtyBounds() returns mDirtyRect, see endLayerChange()
+    private boolean mDirtyValid;
+    private final RectF mLayerBounds = new RectF();
+
+    // the batches, bounds and index of the layers, see prepareLayers()
+    private boolean mLayersPrepared;
+    private final RectF mBatchBounds = new RectF();
+    private int mVisibleLayerCount;
+    // for many layers: the layers (their indices) intersecting every row
+    private PathRowIndex mRowIndex;
+    private final BitSet mCandidates = new BitSet();
+    private final Rect mClipRect = new Rect();
+    private int mDrawnLayerCount;
+    private int mCulledLayerCount;
+    // the display density and the intrinsic size, see getIntrinsicWidth()
+    private float mDensity;
+    private boolean mIntrinsicSizeValid;
+    private boolean mIntrinsicSizeEnabled;
+    private int mIntrinsicWidth;
+    private int mIntrinsicHeight;
+    // the time spent on every layer by the draw() measured for PathMetrics
+    private long[] mLayerNanos;
+    private boolean mMeasureLayers;
+
+    private int mAlpha = 255;
+    private ColorFilter mColorFilter;
+    private Paint mAlphaPaint;
+    private int mSavedAlpha;
+    private boolean mLayersOverlap;
+    private boolean mOverlapValid;
+
+    // hit testing, see findLayerAt(): the grid of the layers and the inverse matrix
+    private PathHitIndex mHitIndex;
+    private final Matrix mHitMatrix = new Matrix();
+    private float mHitScaleX;
+    private float mHitScaleY;
+    private final float[] mHitPoint = new float[2];
+    private final RectF mHitRect = new RectF();
+    private final BitSet mHitCandidates = new BitSet();
+    private int[] mHitOrder = new int[16];
+
+    // the first layer with every tag, built by findLayerByTag()
+    private HashMap<Object, Layer> mTagIndex;
+    // whether more layers have the same tag, so removing one needs the index rebuilt
+    private boolean mTagDuplicates;
+    // the layers below this position have the right Layer.mIndex, see getLayerIndex()
+    private int mLayerIndexValid;
+    // incremented when any group's matrix changes, see LayerGroup.update()
+    private int mGroupsVersion;
+    private final Matrix mGroupMatrix = new Matrix();
+    private final float[] mGroupPoint = new float[2];
+
     /**
      * Interface definition for a callback to be invoked when 
      * PathDrawable's bounds are changed.
@@ -56,13 +146,37 @@ public class PathDrawable extends Drawable {
         public void onBoundsChange(PathDrawable drawable, Rect bounds);
     }
     
+    /**
+     * Interface definition for a callback to be invoked on the main thread when
+     * PathDrawable created by {@link #loadAsync} is loaded.
+     */
+    public interface LoadCallback {
+        /**
+         * Called when the drawable is loaded and ready to draw.
+         * @param drawable
+         */
+        public void onLoaded(PathDrawable drawable);
+
+        /**
+         * Called when loading the drawable failed.
+         * @param drawable
+         * @param e
+         */
+        public void onLoadFailed(PathDrawable drawable, RuntimeException e);
+    }
+
     /**
      * Create a new PathDrawable
      * @param pathWidth
      * @param pathHeight
      */
     public PathDrawable(float pathWidth, float pathHeight) {
-        init(pathWidth, pathHeight);
+        if (pathWidth <= 0 || pathHeight <= 0) {
+            throw new RuntimeException("Both pathWidth and pathHeight must be >= 0");
+        }
+        mState = new PathState();
+        mState.mPathRect.set(0, 0, pathWidth, pathHeight);
+        mDensity = getDensity(null);
     }
     
     /**
@@ -71,10 +185,250 @@ public class PathDrawable extends Drawable {
      * @param resId Xml file resource id
      */
     public PathDrawable(Context ctx, int resId) {
+        this(getTemplate(ctx.getResources(), resId, null), ctx.getResources());
+    }
+
+    /**
+     * Create a new PathDrawable based on the binary asset compiled at build time
+     * by the compilePathDrawables gradle task, no xml or path data parsing is done
+     * @param ctx Context to use
+     * @param assetName Compiled asset name, for example "pathdrawable/heart.pd"
+     * for res/xml/heart.xml or "pathdrawable/land/heart.pd" for res/xml-land/heart.xml
+     * @return The new PathDrawable
+     * @see #fromAsset(Context, int)
+     */
+    public static PathDrawable fromAsset(Context ctx, String assetName) {
+        Resources res = ctx.getResources();
+        PathTemplate template;
+        try {
+            template = PathDrawableCache.getAsset(res, ctx.getPackageName(), assetName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new PathDrawable(template, res);
+    }
+
+    /**
+     * Create a new PathDrawable based on the binary asset compiled at build time from
+     * the variant of the XML file (res/xml or res/xml-&lt;qualifiers&gt;) selected by the
+     * resources for the current configuration
+     * @param ctx Context to use
+     * @param resId Xml file resource id
+     * @return The new PathDrawable
+     */
+    public static PathDrawable fromAsset(Context ctx, int resId) {
+        Resources res = ctx.getResources();
+        TypedValue value = new TypedValue();
+        // the path of the selected file, like "res/xml-land/heart.xml"
+        res.getValue(resId, value, true);
+        String file = value.string.toString();
+        int slash = file.lastIndexOf('/');
+        int dirStart = file.lastIndexOf('/', slash - 1) + 1;
+        String dir = file.substring(dirStart, slash);
+        String name = file.substring(slash + 1, file.lastIndexOf('.'));
+        String qualifiers = dir.startsWith("xml-") ? dir.substring("xml-".length()) : "";
+        String assetName = getAssetName(qualifiers, name);
+        // aapt may add the version qualifier implied by the other ones, e.g. "-v4"
+        String unversioned = qualifiers.replaceFirst("(^|-)v\\d+$", "");
+        if (!unversioned.equals(qualifiers)) {
+            try {
+                res.getAssets().open(assetName).close();
+            } catch (IOException e) {
+                assetName = getAssetName(unversioned, name);
+            }
+        }
+        return fromAsset(ctx, assetName);
+    }
+
+    private static String getAssetName(String qualifiers, String name) {
+        return qualifiers.length() > 0 ? "pathdrawable/" + qualifiers + "/" + name + ".pd" : "pathdrawable/" + name + ".pd";
+    }
+
+    /**
+     * Create a new PathDrawable based on XML file, the XML file and path data are
+     * parsed on the given executor. Until it is done the returned drawable draws
+     * nothing (or the placeholder set by {@link #setPlaceholder(Drawable)}).
+     * If the XML file is already cached the drawable is ready immediately and
+     * the executor is not used, the callback is posted to the main thread anyway.
+     * The layers added while loading are drawn above the loaded ones.
+     * @param ctx Context to use
+     * @param resId Xml file resource id
+     * @param executor Executor used for parsing
+     * @param callback Callback invoked on the main thread when done, can be null
+     * @return The new PathDrawable
+     * @see #cancelLoad()
+     */
+    public static PathDrawable loadAsync(Context ctx, int resId, Executor executor, LoadCallback callback) {
         Resources res = ctx.getResources();
-        XmlResourceParser parser = res.getXml(resId);
+        synchronized (PathDrawable.class) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+        PathTemplate template = PathDrawableCache.getCached(res, resId);
+        if (template != null) {
+            final PathDrawable drawable = new PathDrawable(template, res);
+            if (callback != null) {
+                // posted as well, so the callback never runs before loadAsync() returns
+                final LoadCallback loadCallback = callback;
+                drawable.mLoadedCallback = new Runnable() {
+                    @Override
+                    public void run() {
+                        drawable.mLoadedCallback = null;
+                        loadCallback.onLoaded(drawable);
+                    }
+                };
+                sMainHandler.post(drawable.mLoadedCallback);
+            }
+            return drawable;
+        }
+
+        PathDrawable drawable = new PathDrawable();
+        drawable.mLoadTask = new LoadTask(drawable, res, resId, executor, callback);
+        executor.execute(drawable.mLoadTask);
+        return drawable;
+    }
+
+    /**
+     * Cancel loading started by {@link #loadAsync}, for example when a recycled
+     * view gets rebound to another resource. The callback will not be called.
+     * Must be called on the main thread.
+     */
+    public void cancelLoad() {
+        if (mLoadTask != null) {
+            mLoadTask.mCancelled = true;
+            mLoadTask = null;
+        }
+        if (mLoadedCallback != null) {
+            sMainHandler.removeCallbacks(mLoadedCallback);
+            mLoadedCallback = null;
+        }
+    }
+
+    /**
+     * @return true if this drawable is still being loaded by {@link #loadAsync}
+     */
+    public boolean isLoading() {
+        return mLoadTask != null;
+    }
+
+    /**
+     * Set the drawable drawn while this PathDrawable is being loaded by {@link #loadAsync}.
+     * @param placeholder The placeholder, can be null
+     */
+    public void setPlaceholder(Drawable placeholder) {
+        mPlaceholder = placeholder;
+        if (placeholder != null) {
+            placeholder.setBounds(getBounds());
+        }
+        if (mLoadTask != null) {
+            invalidateSelf();
+        }
+    }
+
+    private static class LoadTask implements Runnable {
+        private final PathDrawable mDrawable;
+        private final Resources mResources;
+        private final int mResId;
+        private final Executor mExecutor;
+        private final LoadCallback mCallback;
+        volatile boolean mCancelled;
+
+        LoadTask(PathDrawable drawable, Resources res, int resId, Executor executor, LoadCallback callback) {
+            mDrawable = drawable;
+            mResources = res;
+            mResId = resId;
+            mExecutor = executor;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            PathTemplate template = null;
+            PathState state = null;
+            RuntimeException error = null;
+            long nanos = 0;
+            try {
+                // the path data is parsed by the other threads of the executor too
+                template = getTemplate(mResources, mResId, mExecutor);
+                long start = PathMetrics.sListener != null ? System.nanoTime() : 0;
+                // the source paths are built here as well
+                state = new PathState(template);
+                if (start != 0) {
+                    nanos = System.nanoTime() - start;
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            final PathTemplate loadedTemplate = template;
+            final PathState loadedState = state;
+            final RuntimeException loadError = error;
+            final long stateNanos = nanos;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    mDrawable.mLoadTask = null;
+                    if (loadedState != null) {
+                        mDrawable.setLoadedState(loadedTemplate, loadedState, mResources, stateNanos);
+                        if (mCallback != null) {
+                            mCallback.onLoaded(mDrawable);
+                        }
+                    } else if (mCallback != null) {
+                        mCallback.onLoadFailed(mDrawable, loadError);
+                    } else {
+                        Log.d(TAG, "loadAsync error: ", loadError);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @param stateNanos The time of creating the state for PathMetrics
+     */
+    private void setLoadedState(PathTemplate template, PathState state, Resources res, long stateNanos) {
+        PathMetrics.Listener metrics = PathMetrics.sListener;
+        long start = metrics != null ? System.nanoTime() : 0;
+        // the layers added while loading go above the loaded ones
+        ArrayList<Layer> added = new ArrayList<>(mLayers);
+        mState = state;
+        mLayers.clear();
+        mTagIndex = null;
+        mLayerIndexValid = 0;
+        init(res);
+        if (!added.isEmpty()) {
+            for (int i = 0; i < added.size(); i++) {
+                Layer layer = added.get(i);
+                state.mLayers.add(layer.mState);
+                mLayers.add(layer);
+            }
+            state.mModified = true;
+        }
+        mLayersPrepared = false;
+        mHitIndex = null;
+        if (state.mBackground == null) {
+            setBackground(template.newBackground(res));
+        }
+        mPlaceholder = null;
+        mMatrixValid = false;
+        if (metrics != null) {
+            metrics.onInflate(this, stateNanos + System.nanoTime() - start);
+        }
+        invalidateSelf();
+    }
+
+    /**
+     * @param executor Executor used for parsing the path data, null for the shared pool
+     */
+    private static PathTemplate getTemplate(Resources res, int resId, Executor executor) {
         try {
-            parse(parser, res);
+            return PathDrawableCache.get(res, resId, executor);
         } catch (XmlPullParserException e) {
             throw new RuntimeException(e);
         } catch (IOException e) {
@@ -82,6 +436,174 @@ public class PathDrawable extends Drawable {
         }
     }
 
+    private PathDrawable(PathTemplate template, Resources res) {
+        PathMetrics.Listener metrics = PathMetrics.sListener;
+        long start = metrics != null ? System.nanoTime() : 0;
+        // paints are not shared with other drawables created from the same xml file,
+        // only the immutable geometry is
+        mState = new PathState(template);
+        init(res);
+        if (mState.mBackground == null) {
+            // the background (if any) has no ConstantState, see PathTemplate
+            setBackground(template.newBackground(res));
+        }
+        if (metrics != null) {
+            metrics.onInflate(this, System.nanoTime() - start);
+        }
+    }
+
+    private PathDrawable() {
+        // loaded by loadAsync()
+        mState = new PathState();
+    }
+
+    private PathDrawable(PathState state, Resources res) {
+        mState = state;
+        init(res);
+    }
+
+    /**
+     * Enable the level of detail mode: the layers are drawn with the paths simplified
+     * for the current scale, so complex paths drawn small (like icons) are cheaper
+     * to draw. The simplified paths are cached per scale and shared with other
+     * drawables created from the same {@link #getConstantState() ConstantState}.
+     * If simplifying a path would not make it simpler (like when it is drawn large)
+     * the original path is drawn.
+     * @param enabled true to enable the level of detail mode, false by default
+     */
+    public void setLevelOfDetailEnabled(boolean enabled) {
+        if (mLevelOfDetail != enabled) {
+            mLevelOfDetail = enabled;
+            for (Layer layer : mLayers) {
+                layer.invalidatePath();
+            }
+            mLayersPrepared = false;
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @return true if the level of detail mode is enabled
+     * @see #setLevelOfDetailEnabled(boolean)
+     */
+    public boolean isLevelOfDetailEnabled() {
+        return mLevelOfDetail;
+    }
+
+    /**
+     * Enable the canvas matrix mode: the layers' paths are drawn with the matrix
+     * mapping them into the bounds concatenated to the canvas (and the stroke widths
+     * rescaled) instead of keeping their transformed copies, so resizing the drawable
+     * costs nothing and the paths use half the memory. The layers whose paint has a
+     * shader, path effect or mask filter (that would be scaled too) and all the layers
+     * if the scale is not uniform (scale_type="fill" with other aspect ratio) are
+     * still drawn the old way.
+     * @param enabled true to enable the canvas matrix mode, false by default
+     */
+    public void setCanvasMatrixEnabled(boolean enabled) {
+        if (mCanvasMatrix != enabled) {
+            mCanvasMatrix = enabled;
+            mLayersPrepared = false;
+            if (enabled) {
+                // recreated by draw() only for the layers that cannot use the canvas matrix
+                for (Layer layer : mLayers) {
+                    layer.mDrawPath = null;
+                    layer.mDrawPathValid = false;
+                }
+            }
+            invalidateRasterCache();
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @return true if the canvas matrix mode is enabled
+     * @see #setCanvasMatrixEnabled(boolean)
+     */
+    public boolean isCanvasMatrixEnabled() {
+        return mCanvasMatrix;
+    }
+
+    /**
+     * Enable the raster cache mode: the background and all the layers are drawn
+     * into a bitmap of the bounds' size once and then only the bitmap is drawn.
+     * Unmodified drawables created from the same xml file and drawn with the same
+     * size share one bitmap, see {@link PathRasterCache}. The bitmap is redrawn
+     * when the size changes, the layers are added or removed or the paint returned
+     * by {@link Layer#getPaint()} changes.
+     * @param enabled true to enable the raster cache mode, false by default
+     */
+    public void setRasterCacheEnabled(boolean enabled) {
+        if (mRasterCache != enabled) {
+            mRasterCache = enabled;
+            if (!enabled) {
+                releaseRasterCache();
+            }
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @return true if the raster cache mode is enabled
+     * @see #setRasterCacheEnabled(boolean)
+     */
+    public boolean isRasterCacheEnabled() {
+        return mRasterCache;
+    }
+
+    /**
+     * Enable the tiled mode for large drawables shown zoomed in, e.g. by a pan and
+     * zoom view scaling the canvas: the bounds are split into tiles rendered on
+     * background threads at the zoom levels (powers of two) matching the canvas
+     * matrix scale, then only the tiles intersecting the canvas clip are drawn.
+     * While the tiles for the current zoom level are rendered the best available
+     * lower resolution ones are drawn instead, so the gestures stay smooth.
+     * The tiles are rendered again when the size or the layers change.
+     * This mode takes precedence over the raster cache mode.
+     * @param enabled true to enable the tiled mode, false by default
+     * @see #setTileCacheMaxSize(int)
+     */
+    public void setTiledRenderingEnabled(boolean enabled) {
+        if ((mTileRenderer != null) != enabled) {
+            if (enabled) {
+                mTileRenderer = new PathTileRenderer(this);
+                releaseRasterCache();
+            } else {
+                mTileRenderer.release();
+                mTileRenderer = null;
+            }
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @return true if the tiled mode is enabled
+     * @see #setTiledRenderingEnabled(boolean)
+     */
+    public boolean isTiledRenderingEnabled() {
+        return mTileRenderer != null;
+    }
+
+    /**
+     * Set the maximum size of the tiles' bitmaps kept by this drawable in the tiled mode,
+     * the least recently drawn tiles are dropped first.
+     * @param maxSize the maximum size in bytes, 16MB by default
+     * @throws IllegalStateException if the tiled mode is not enabled
+     */
+    public void setTileCacheMaxSize(int maxSize) {
+        if (mTileRenderer == null) {
+            throw new IllegalStateException("The tiled mode is not enabled");
+        }
+        mTileRenderer.setMaxSize(maxSize);
+    }
+
+    private void releaseRasterCache() {
+        if (mRasterEntry != null) {
+            PathRasterCache.release(mRasterEntry, this);
+            mRasterEntry = null;
+        }
+    }
+
     /**
      * Register a callback to be invoked when PathDrawable's bounds are changed.
      *
@@ -102,7 +624,17 @@ public class PathDrawable extends Drawable {
      */
     public Layer addLayer(String data, int strokeColor, float strokeWidth, Style style, Cap capType) {
         Layer layer = new Layer(data, strokeColor, strokeWidth, style, capType);
+        ensureOwnState();
+        mState.mLayers.add(layer.mState);
+        mState.mModified = true;
+        mIntrinsicSizeValid = false;
+        layer.mOwner = this;
+        layer.mIndex = mLayers.size();
         mLayers.add(layer);
+        mLayersPrepared = false;
+        mHitIndex = null;
+        addToTagIndex(layer);
+        invalidateRasterCache();
         return layer;
     }
 
@@ -111,7 +643,64 @@ public class PathDrawable extends Drawable {
      * @param layer - the layer to be removed.
      */
     public void removeLayer(Layer layer) {
-        mLayers.remove(layer);
+        int index = getLayerIndex(layer);
+        if (index != -1) {
+            ensureOwnState();
+            // mState.mLayers is in the same order as mLayers
+            mLayers.remove(index);
+            mState.mLayers.remove(index);
+            mLayerIndexValid = Math.min(mLayerIndexValid, index);
+            mState.mModified = true;
+            mIntrinsicSizeValid = false;
+            layer.mOwner = null;
+            layer.mGroup = null;
+            mLayersPrepared = false;
+            mHitIndex = null;
+            removeFromTagIndex(layer);
+            invalidateRasterCache();
+        }
+    }
+
+    /**
+     * @return the position of the layer in mLayers or -1 if it is not there, the
+     * layers above the last removed one are renumbered on the first use
+     */
+    private int getLayerIndex(Layer layer) {
+        if (layer.mOwner != this) {
+            return -1;
+        }
+        if (layer.mIndex >= mLayerIndexValid) {
+            List<Layer> layers = mLayers;
+            for (int i = mLayerIndexValid; i < layers.size(); i++) {
+                layers.get(i).mIndex = i;
+            }
+            mLayerIndexValid = layers.size();
+        }
+        return layer.mIndex;
+    }
+
+    private void addToTagIndex(Layer layer) {
+        Object tag = layer.mState.mTag;
+        if (mTagIndex != null && tag != null) {
+            // the first layer wins, the new one is the last
+            if (mTagIndex.containsKey(tag)) {
+                mTagDuplicates = true;
+            } else {
+                mTagIndex.put(tag, layer);
+            }
+        }
+    }
+
+    private void removeFromTagIndex(Layer layer) {
+        Object tag = layer.mState.mTag;
+        if (mTagIndex != null && tag != null) {
+            if (mTagDuplicates) {
+                // another layer with the same tag may take its place
+                mTagIndex = null;
+            } else {
+                mTagIndex.remove(tag);
+            }
+        }
     }
 
     /**
@@ -121,14 +710,294 @@ public class PathDrawable extends Drawable {
      * @return The layer or null if not found.
      */
     public Layer findLayerByTag(Object tag) {
-        for (Layer layer : mLayers) {
-            if (tag.equals(layer.mTag)) {
+        if (mTagIndex == null) {
+            HashMap<Object, Layer> index = new HashMap<>();
+            boolean duplicates = false;
+            // the first layer wins if more of them have the same tag
+            for (int i = mLayers.size() - 1; i >= 0; i--) {
+                Layer layer = mLayers.get(i);
+                if (layer.mState.mTag != null && index.put(layer.mState.mTag, layer) != null) {
+                    duplicates = true;
+                }
+            }
+            mTagIndex = index;
+            mTagDuplicates = duplicates;
+        }
+        return mTagIndex.get(tag);
+    }
+
+    /**
+     * Create a new group of layers, see {@link LayerGroup}.
+     * @param parent The parent group, null for a top level group
+     * @return the new group
+     * @throws IllegalArgumentException if the parent belongs to another drawable
+     */
+    public LayerGroup createGroup(LayerGroup parent) {
+        if (parent != null && parent.mOwner != this) {
+            throw new IllegalArgumentException("The parent group belongs to another drawable");
+        }
+        return new LayerGroup(this, parent);
+    }
+
+    /**
+     * Called by the LayerGroup's setters.
+     * @param matrix whether the group's matrix changed
+     */
+    private void onGroupChanged(boolean matrix) {
+        if (matrix) {
+            mGroupsVersion++;
+        }
+        // the layers are not drawn like the template's anymore, so the raster cache
+        // must not share its bitmap, see drawRasterCache()
+        ensureOwnState();
+        mState.mModified = true;
+        mLayersPrepared = false;
+        mHitIndex = null;
+        invalidateRasterCache();
+        invalidateSelf();
+    }
+    
+    /**
+     * Find the top most visible layer drawn at the given point, e.g. the tapped one.
+     * The first call builds the index of the layers' geometry (shared with other
+     * PathDrawables created from the same {@link #getConstantState() ConstantState}),
+     * then the queries only test the layers near the point. The filled layers are
+     * tested using their path's fill type, the stroked ones using the stroke width
+     * (the caps and joins are treated as round). The trim params are ignored.
+     * @param x The x coordinate in the drawable's coordinates (the same as its bounds)
+     * @param y The y coordinate
+     * @return the layer or null if there is none at the point
+     */
+    public Layer findLayerAt(float x, float y) {
+        return findLayerAt(x, y, 0);
+    }
+
+    /**
+     * Find the top most visible layer drawn at the given point or within the given
+     * distance from it.
+     * @param x The x coordinate in the drawable's coordinates (the same as its bounds)
+     * @param y The y coordinate
+     * @param slop The distance in pixels, e.g. the touch slop for thin strokes
+     * @return the layer or null if there is none near the point
+     * @see #findLayerAt(float, float)
+     */
+    public Layer findLayerAt(float x, float y, float slop) {
+        int count = queryLayersAt(x, y, slop);
+        int[] order = mHitOrder;
+        for (int k = count - 1; k >= 0; k--) {
+            Layer layer = mLayers.get(order[k]);
+            if (hitLayer(layer, mHitPoint[0], mHitPoint[1], slop)) {
                 return layer;
             }
         }
         return null;
     }
-    
+
+    /**
+     * Find all the visible layers drawn at the given point (or within the given
+     * distance from it), like a ray going through all the layers.
+     * @param x The x coordinate in the drawable's coordinates (the same as its bounds)
+     * @param y The y coordinate
+     * @param slop The distance in pixels
+     * @param out The list the layers are added to, the top most first
+     * @return out
+     * @see #findLayerAt(float, float)
+     */
+    public List<Layer> findLayersAt(float x, float y, float slop, List<Layer> out) {
+        int count = queryLayersAt(x, y, slop);
+        int[] order = mHitOrder;
+        for (int k = count - 1; k >= 0; k--) {
+            Layer layer = mLayers.get(order[k]);
+            if (hitLayer(layer, mHitPoint[0], mHitPoint[1], slop)) {
+                out.add(layer);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Find all the visible layers drawn (at least partially) inside the given rectangle.
+     * @param rect The rectangle in the drawable's coordinates (the same as its bounds)
+     * @param out The list the layers are added to, in the drawing order
+     * @return out
+     * @see #findLayerAt(float, float)
+     */
+    public List<Layer> findLayersIn(RectF rect, List<Layer> out) {
+        if (!prepareHitTest()) {
+            return out;
+        }
+        RectF pathRect = mHitRect;
+        pathRect.set(rect);
+        Rect bounds = getBounds();
+        pathRect.offset(mMatrixLeft - bounds.left, mMatrixTop - bounds.top);
+        mHitMatrix.mapRect(pathRect);
+        BitSet candidates = mHitCandidates;
+        mHitIndex.query(pathRect.left, pathRect.top, pathRect.right, pathRect.bottom, candidates);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Layer layer = mLayers.get(i);
+            if (layer.isShown() && intersectsLayer(layer, pathRect)) {
+                out.add(layer);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Map the point into the path coordinates (stored in mHitPoint) and find
+     * the visible candidate layers.
+     * @return the number of the candidates stored in mHitOrder, in the drawing order
+     */
+    private int queryLayersAt(float x, float y, float slop) {
+        if (!prepareHitTest()) {
+            return 0;
+        }
+        float[] point = mHitPoint;
+        Rect bounds = getBounds();
+        point[0] = x + mMatrixLeft - bounds.left;
+        point[1] = y + mMatrixTop - bounds.top;
+        mHitMatrix.mapPoints(point);
+        RectF rect = mHitRect;
+        rect.set(point[0], point[1], point[0], point[1]);
+        rect.inset(-slop / mHitScaleX, -slop / mHitScaleY);
+        BitSet candidates = mHitCandidates;
+        mHitIndex.query(rect.left, rect.top, rect.right, rect.bottom, candidates);
+        if (mHitOrder.length < candidates.cardinality()) {
+            mHitOrder = new int[candidates.cardinality()];
+        }
+        int[] order = mHitOrder;
+        int count = 0;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (mLayers.get(i).isShown()) {
+                order[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Update the matrix and build the hit test index if needed.
+     * @return false if nothing can be hit
+     */
+    private boolean prepareHitTest() {
+        Rect bounds = getBounds();
+        if (mLoadTask != null || bounds.isEmpty()) {
+            return false;
+        }
+        if (!mMatrixValid) {
+            updateMatrix(bounds);
+        }
+        if (mHitIndex == null) {
+            if (!mMatrix.invert(mHitMatrix)) {
+                return false;
+            }
+            float[] values = mTmpValues;
+            mMatrix.getValues(values);
+            mHitScaleX = Math.abs(values[Matrix.MSCALE_X]);
+            mHitScaleY = Math.abs(values[Matrix.MSCALE_Y]);
+            mHitIndex = buildHitIndex();
+        }
+        return true;
+    }
+
+    private PathHitIndex buildHitIndex() {
+        List<Layer> layers = mLayers;
+        int count = layers.size();
+        float[] bounds = new float[4 * count];
+        RectF r = mHitRect;
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.get(i);
+            LayerState state = layer.mState;
+            bounds[4 * i] = Float.NaN;
+            // the morphing layers and the exposed paints can change at any time
+            if (layer.mMorphTo != null || state.mPaintExposed) {
+                continue;
+            }
+            PathHitShape shape = layer.getHitShape();
+            if (shape.mInverse) {
+                continue;
+            }
+            r.set(shape.mBounds);
+            if (layer.mGroup != null) {
+                layer.mGroup.update();
+                layer.mGroup.mFullMatrix.mapRect(r);
+            }
+            Paint paint = state.mPaint;
+            if (paint.getStyle() != Style.FILL) {
+                float outset = getStrokeOutset(paint);
+                r.inset(-outset / mHitScaleX, -outset / mHitScaleY);
+            }
+            bounds[4 * i] = r.left;
+            bounds[4 * i + 1] = r.top;
+            bounds[4 * i + 2] = r.right;
+            bounds[4 * i + 3] = r.bottom;
+        }
+        return new PathHitIndex(bounds, count);
+    }
+
+    private boolean hitLayer(Layer layer, float x, float y, float slop) {
+        Paint paint = layer.mState.mPaint;
+        Style style = paint.getStyle();
+        PathHitShape shape = layer.getHitShape();
+        float scaleX = mHitScaleX;
+        float scaleY = mHitScaleY;
+        LayerGroup group = layer.mGroup;
+        if (group != null) {
+            // into the layer's coordinates
+            group.update();
+            float[] point = mGroupPoint;
+            point[0] = x;
+            point[1] = y;
+            group.mFullInverse.mapPoints(point);
+            x = point[0];
+            y = point[1];
+            scaleX *= group.mFullScale;
+            scaleY *= group.mFullScale;
+        }
+        if (style != Style.STROKE) {
+            if (shape.contains(x, y)
+                    || slop > 0 && shape.isNear(x, y, scaleX, scaleY, slop, true)) {
+                return true;
+            }
+        }
+        if (style != Style.FILL) {
+            // hairlines are one pixel wide
+            float radius = Math.max(paint.getStrokeWidth(), 1) / 2 + slop;
+            return shape.isNear(x, y, scaleX, scaleY, radius, false);
+        }
+        return false;
+    }
+
+    private boolean intersectsLayer(Layer layer, RectF rect) {
+        Paint paint = layer.mState.mPaint;
+        Style style = paint.getStyle();
+        PathHitShape shape = layer.getHitShape();
+        float scaleX = mHitScaleX;
+        float scaleY = mHitScaleY;
+        LayerGroup group = layer.mGroup;
+        if (group != null) {
+            // the bounding box of the rectangle in the layer's coordinates
+            group.update();
+            RectF local = mLayerBounds;
+            group.mFullInverse.mapRect(local, rect);
+            rect = local;
+            scaleX *= group.mFullScale;
+            scaleY *= group.mFullScale;
+        }
+        if (style != Style.STROKE) {
+            if (shape.intersects(rect, true) || shape.contains(rect.centerX(), rect.centerY())) {
+                return true;
+            }
+        }
+        if (style != Style.FILL) {
+            float radius = Math.max(paint.getStrokeWidth(), 1) / 2;
+            RectF outset = mTmpRectF;
+            outset.set(rect);
+            outset.inset(-radius / scaleX, -radius / scaleY);
+            return shape.intersects(outset, false);
+        }
+        return false;
+    }
+
     /**
      * A helper method to be invoked in {@link LayoutInflater.Factory#onCreateView(String, Context, AttributeSet)}
      * in order to automatically set PathDrawable defined by {@link R.attr#xml_drawable} in xml layout file
@@ -170,33 +1039,193 @@ public class PathDrawable extends Drawable {
         return v;
     }
 
-    private void init(float pathWidth, float pathHeight) {
-        if (pathWidth <= 0 || pathHeight <= 0) {
-            throw new RuntimeException("Both pathWidth and pathHeight must be >= 0");
+    private void init(Resources res) {
+        PathState state = mState;
+        mDensity = getDensity(res);
+        mIntrinsicSizeValid = false;
+        setBackground(state.mBackground != null ? state.mBackground.newDrawable(res) : null);
+        ArrayList<LayerState> layerStates = state.mLayers;
+        for (int i = 0; i < layerStates.size(); i++) {
+            Layer layer = new Layer(layerStates.get(i));
+            layer.mOwner = this;
+            mLayers.add(layer);
         }
-        mPathRect.set(0, 0, pathWidth, pathHeight);
     }
-    
+
+    /**
+     * @return the state shared with the new drawables, null while loading (see
+     * {@link #loadAsync}) or if the background has no ConstantState, since such a
+     * drawable cannot be reproduced
+     */
     @Override
-    protected void onBoundsChange(Rect bounds) {
-        if (mBackground != null) {
-            mBackground.setBounds(bounds);
+    public ConstantState getConstantState() {
+        PathTemplate template = mState.mTemplate;
+        if (mLoadTask != null || (template != null && !template.mCacheable)) {
+            return null;
         }
+        mState.mChangingConfigurations = getChangingConfigurations();
+        // copied before any change, see ensureOwnState()
+        mState.mShared = true;
+        return mState;
+    }
 
-        Rect tmpRect = new Rect();
-        tmpRect.set(bounds);
-        inset(tmpRect, mPadding);
-
-        Matrix matrix = new Matrix();
-        matrix.setRectToRect(mPathRect, new RectF(tmpRect), mScaleType);
+    /**
+     * Copy the state (and the layers' ones) before changing it if it is shared
+     * with other drawables by {@link #getConstantState()}. The geometry is still shared.
+     */
+    private void ensureOwnState() {
+        if (mState.mShared) {
+            copyState();
+        }
+    }
 
+    private void copyState() {
+        PathState state = new PathState(mState);
         for (Layer layer : mLayers) {
-            layer.mPath.transform(matrix, layer.mDrawPath);
+            layer.mState = new LayerState(layer.mState);
+            state.mLayers.add(layer.mState);
+        }
+        mState = state;
+        // the batches keep the old paints
+        mLayersPrepared = false;
+    }
+
+    /**
+     * Make this drawable mutable: the state and the background are not shared with
+     * other drawables created from the same {@link Drawable.ConstantState} anymore.
+     * The changes made by the Layer's setters, {@link #addLayer} and the like copy
+     * the shared state anyway. The geometry is still shared.
+     */
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            copyState();
+            if (mBackground != null) {
+                mBackground.mutate();
+            }
+            mMutated = true;
+        }
+        return this;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        PathMetrics.beginSection("PathDrawable#onBoundsChange");
+        try {
+            if (mBackground != null) {
+                mBackground.setBounds(bounds);
+            }
+            if (mPlaceholder != null) {
+                mPlaceholder.setBounds(bounds);
+            }
+
+            // the paths are transformed by the first draw() after the size changes
+            if (bounds.width() != mMatrixWidth || bounds.height() != mMatrixHeight) {
+                mMatrixValid = false;
+            }
+
+            if (mListener != null) {
+                mListener.onBoundsChange(this, bounds);
+            }
+        } finally {
+            PathMetrics.endSection();
+        }
+    }
+
+    /**
+     * Enable the intrinsic size: the drawable reports the size of its path bounds
+     * with one path unit per dp, so the views with wrap_content size can be measured
+     * from the artwork. Call it before the drawable is set to the view, the view is
+     * not measured again when it changes.
+     * @param enabled true to enable the intrinsic size, false by default (no
+     *                intrinsic size, -1, as the drawable always reported)
+     * @see #getIntrinsicWidth()
+     */
+    public void setIntrinsicSizeEnabled(boolean enabled) {
+        mIntrinsicSizeEnabled = enabled;
+    }
+
+    /**
+     * @return true if the intrinsic size is enabled
+     * @see #setIntrinsicSizeEnabled(boolean)
+     */
+    public boolean isIntrinsicSizeEnabled() {
+        return mIntrinsicSizeEnabled;
+    }
+
+    /**
+     * @return the width of the path bounds (or more if the layers, their strokes
+     * included, are drawn outside them) with one path unit per dp, plus the
+     * horizontal padding, so the view wrapping the content has the same size in
+     * dp on every density. While loading the placeholder's width (or -1). If the
+     * intrinsic size is not enabled by {@link #setIntrinsicSizeEnabled(boolean)}, -1.
+     */
+    @Override
+    public int getIntrinsicWidth() {
+        if (mLoadTask != null) {
+            return mPlaceholder != null ? mPlaceholder.getIntrinsicWidth() : -1;
+        }
+        if (!mIntrinsicSizeEnabled) {
+            return -1;
+        }
+        if (!mIntrinsicSizeValid) {
+            computeIntrinsicSize();
+        }
+        return mIntrinsicWidth;
+    }
+
+    /**
+     * @return the height of the path bounds (or more if the layers are drawn outside
+     * them) with one path unit per dp, plus the vertical padding
+     * @see #getIntrinsicWidth()
+     */
+    @Override
+    public int getIntrinsicHeight() {
+        if (mLoadTask != null) {
+            return mPlaceholder != null ? mPlaceholder.getIntrinsicHeight() : -1;
+        }
+        if (!mIntrinsicSizeEnabled) {
+            return -1;
+        }
+        if (!mIntrinsicSizeValid) {
+            computeIntrinsicSize();
         }
+        return mIntrinsicHeight;
+    }
+
+    /**
+     * Compute the intrinsic size from the current layers: their path bounds (cached,
+     * computed from the path data) are scaled to pixels, then the strokes (whose
+     * widths are in pixels) are added.
+     */
+    private void computeIntrinsicSize() {
+        PathState state = mState;
+        float density = mDensity;
+        RectF pathRect = state.mPathRect;
+        float left = pathRect.left * density;
+        float top = pathRect.top * density;
+        float right = pathRect.right * density;
+        float bottom = pathRect.bottom * density;
+        for (LayerState layer : state.mLayers) {
+            RectF bounds = layer.getPathBounds();
+            Paint paint = layer.mPaint;
+            float outset = paint.getStyle() == Style.FILL ? 0 : getStrokeOutset(paint);
+            left = Math.min(left, bounds.left * density - outset);
+            top = Math.min(top, bounds.top * density - outset);
+            right = Math.max(right, bounds.right * density + outset);
+            bottom = Math.max(bottom, bounds.bottom * density + outset);
+        }
+        Rect padding = state.mPadding;
+        mIntrinsicWidth = (int) Math.ceil(right - left) + padding.left + padding.right;
+        mIntrinsicHeight = (int) Math.ceil(bottom - top) + padding.top + padding.bottom;
+        mIntrinsicSizeValid = true;
+    }
 
-        if (mListener != null) {
-            mListener.onBoundsChange(this, bounds);
+    private static float getDensity(Resources res) {
+        if (res == null) {
+            res = Resources.getSystem();
         }
+        return res.getDisplayMetrics().density;
     }
 
     private void setBackground(Drawable background) {
@@ -205,155 +1234,1937 @@ public class PathDrawable extends Drawable {
 
     @Override
     public void draw(Canvas canvas) {
+        PathMetrics.beginSection("PathDrawable#draw");
+        try {
+            PathMetrics.Listener metrics = PathMetrics.sListener;
+            if (metrics == null) {
+                drawFrame(canvas);
+                return;
+            }
+            long start = System.nanoTime();
+            int count = mLayers.size();
+            if (mLayerNanos == null || mLayerNanos.length != count) {
+                mLayerNanos = new long[count];
+            } else {
+                Arrays.fill(mLayerNanos, 0);
+            }
+            mMeasureLayers = true;
+            try {
+                drawFrame(canvas);
+            } finally {
+                mMeasureLayers = false;
+            }
+            metrics.onDraw(this, System.nanoTime() - start, mLayerNanos);
+        } finally {
+            PathMetrics.endSection();
+        }
+    }
+
+    private void drawFrame(Canvas canvas) {
+        if (mLoadTask != null) {
+            if (mPlaceholder != null) {
+                mPlaceholder.draw(canvas);
+            }
+            return;
+        }
+        if (mTileRenderer != null) {
+            drawTiles(canvas);
+            return;
+        }
+        // alpha and color filter are applied when drawing the bitmap
+        if (mRasterCache && drawRasterCache(canvas)) {
+            return;
+        }
+        if (mAlpha == 255 && mColorFilter == null) {
+            drawContent(canvas, false);
+        } else if (mAlpha != 0) {
+            prepare();
+            if (canFoldAlpha()) {
+                drawContent(canvas, true);
+            } else {
+                int saveCount;
+                Rect bounds = getBounds();
+                if (mColorFilter == null) {
+                    saveCount = canvas.saveLayerAlpha(bounds.left, bounds.top, bounds.right, bounds.bottom,
+                            mAlpha, Canvas.ALL_SAVE_FLAG);
+                } else {
+                    mTmpRectF.set(bounds);
+                    saveCount = canvas.saveLayer(mTmpRectF, getAlphaPaint(), Canvas.ALL_SAVE_FLAG);
+                }
+                drawContent(canvas, false);
+                canvas.restoreToCount(saveCount);
+            }
+        }
+    }
+
+    /**
+     * Update the matrix and the layers if needed.
+     * @return whether the canvas matrix mode can be used
+     */
+    private boolean prepare() {
+        if (mMatrixValid && mLayersPrepared) {
+            return mCanvasMatrix && mUniformScale && mScale > 0;
+        }
+        PathMetrics.Listener metrics = PathMetrics.sListener;
+        long start = metrics != null ? System.nanoTime() : 0;
+        PathMetrics.beginSection("PathDrawable#transform");
+        try {
+            if (!mMatrixValid) {
+                updateMatrix(getBounds());
+            }
+            // the stroke widths can only be rescaled if the scale is the same in both directions
+            boolean canvasMatrix = mCanvasMatrix && mUniformScale && mScale > 0;
+            if (!mLayersPrepared) {
+                prepareLayers(canvasMatrix);
+            }
+            return canvasMatrix;
+        } finally {
+            PathMetrics.endSection();
+            if (metrics != null) {
+                metrics.onTransform(this, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @param fold whether to draw the layers with the drawable's alpha and color filter
+     *             set to their paints, see canFoldAlpha()
+     */
+    private void drawContent(Canvas canvas, boolean fold) {
         if (mBackground != null) {
             mBackground.draw(canvas);
         }
-        for (Layer layer : mLayers) {
-            layer.draw(canvas);
+        boolean canvasMatrix = prepare();
+        Rect bounds = getBounds();
+        int dx = bounds.left - mMatrixLeft;
+        int dy = bounds.top - mMatrixTop;
+        if (dx != 0 || dy != 0) {
+            canvas.translate(dx, dy);
+        }
+        Rect clip = mClipRect;
+        BitSet candidates = null;
+        if (!canvas.getClipBounds(clip)) {
+            clip.setEmpty();
+        } else if (mRowIndex != null) {
+            candidates = mCandidates;
+            mRowIndex.query(clip.top, clip.bottom, candidates);
+        }
+        int drawn = 0;
+        int saveCount = -1;
+        long[] layerNanos = mMeasureLayers ? mLayerNanos : null;
+        long layerStart = 0;
+        List<Layer> layers = mLayers;
+        int count = layers.size();
+        int i = candidates != null ? candidates.nextSetBit(0) : 0;
+        for (; i >= 0 && i < count; i = candidates != null ? candidates.nextSetBit(i + 1) : i + 1) {
+            Layer layer = layers.get(i);
+            if (!layer.isShown()) {
+                continue;
+            }
+            LayerBatch batch = layer.mBatch;
+            if (layer.mBoundsKnown && !intersects(layer.mBounds, clip)) {
+                if (batch != null) {
+                    i += batch.mCount - 1;
+                }
+                continue;
+            }
+            if (layerNanos != null) {
+                layerStart = System.nanoTime();
+            }
+            Paint paint = layer.mState.mPaint;
+            if (fold) {
+                beginFold(paint);
+            }
+            if (batch != null) {
+                drawn += batch.mCount;
+                if (batch.mCanvasMatrix) {
+                    if (saveCount == -1) {
+                        saveCount = canvas.save();
+                        canvas.concat(mMatrix);
+                    }
+                    layer.drawWithMatrix(canvas, batch.mPath, mScale);
+                } else {
+                    if (saveCount != -1) {
+                        canvas.restoreToCount(saveCount);
+                        saveCount = -1;
+                    }
+                    canvas.drawPath(batch.mPath, paint);
+                }
+                if (fold) {
+                    endFold(paint);
+                }
+                if (layerNanos != null) {
+                    layerNanos[i] += System.nanoTime() - layerStart;
+                }
+                i += batch.mCount - 1;
+                continue;
+            }
+            drawn++;
+            Path path = layer.mPath;
+            if (path == null) {
+                path = layer.mPath = layer.getPath(mScale, mLevelOfDetail);
+            }
+            if (layer.mState.isTrimmed()) {
+                path = layer.getTrimmedPath(path);
+            }
+            if (layer.mGroup != null) {
+                if (saveCount != -1) {
+                    canvas.restoreToCount(saveCount);
+                    saveCount = -1;
+                }
+                drawGrouped(canvas, layer, path);
+            } else if (canvasMatrix && layer.canDrawWithMatrix()) {
+                if (saveCount == -1) {
+                    saveCount = canvas.save();
+                    canvas.concat(mMatrix);
+                }
+                layer.drawWithMatrix(canvas, path, mScale);
+            } else {
+                if (saveCount != -1) {
+                    canvas.restoreToCount(saveCount);
+                    saveCount = -1;
+                }
+                if (!layer.mDrawPathValid) {
+                    if (layer.mDrawPath == null) {
+                        layer.mDrawPath = new Path();
+                    }
+                    path.transform(mMatrix, layer.mDrawPath);
+                    layer.mDrawPathValid = true;
+                }
+                layer.draw(canvas);
+            }
+            if (fold) {
+                endFold(paint);
+            }
+            if (layerNanos != null) {
+                layerNanos[i] += System.nanoTime() - layerStart;
+            }
         }
+        if (saveCount != -1) {
+            canvas.restoreToCount(saveCount);
+        }
+        if (dx != 0 || dy != 0) {
+            canvas.translate(-dx, -dy);
+        }
+        mDrawnLayerCount = drawn;
+        mCulledLayerCount = mVisibleLayerCount - drawn;
     }
 
-    @Override
-    public void setAlpha(int alpha) {
+    /**
+     * Draw the layer of a group: if possible the group's matrix is concatenated to
+     * the canvas, so changing it does not transform the path again.
+     */
+    private void drawGrouped(Canvas canvas, Layer layer, Path path) {
+        LayerGroup group = layer.mGroup;
+        group.update();
+        if (mUniformScale && mScale > 0 && group.mFullSimilar && layer.canDrawWithMatrix()) {
+            int saveCount = canvas.save();
+            canvas.concat(mMatrix);
+            canvas.concat(group.mFullMatrix);
+            layer.drawWithMatrix(canvas, path, mScale * group.mFullScale);
+            canvas.restoreToCount(saveCount);
+            return;
+        }
+        if (!layer.mDrawPathValid || layer.mGroupsVersion != mGroupsVersion) {
+            if (layer.mDrawPath == null) {
+                layer.mDrawPath = new Path();
+            }
+            Matrix matrix = mGroupMatrix;
+            matrix.set(mMatrix);
+            matrix.preConcat(group.mFullMatrix);
+            path.transform(matrix, layer.mDrawPath);
+            layer.mDrawPathValid = true;
+            layer.mGroupsVersion = mGroupsVersion;
+        }
+        layer.draw(canvas);
     }
 
-    @Override
-    public void setColorFilter(ColorFilter cf) {
+    private static boolean intersects(RectF r, Rect clip) {
+        return r.left < clip.right && clip.left < r.right && r.top < clip.bottom && clip.top < r.bottom;
     }
 
-    @Override
-    public int getOpacity() {
-        return PixelFormat.TRANSLUCENT;
+    /**
+     * @return the number of layers drawn by the last {@link #draw(Canvas)}
+     */
+    public int getDrawnLayerCount() {
+        return mDrawnLayerCount;
     }
 
-    private void inset(Rect what, Rect by) {
-        what.left += by.left;
-        what.top += by.top;
-        what.right -= by.right;
-        what.bottom -= by.bottom;
+    /**
+     * @return the number of visible layers not drawn by the last {@link #draw(Canvas)}
+     * since they were outside the canvas clip
+     */
+    public int getCulledLayerCount() {
+        return mCulledLayerCount;
     }
 
-    private void parse(XmlResourceParser parser, Resources res) throws XmlPullParserException, IOException {
-        AttributeSet attrset = Xml.asAttributeSet(parser);
-        int[] attrs = R.styleable.PathDrawable;
-        TypedArray a;
-        
-        int type;
-        while ((type=parser.next()) != XmlPullParser.START_TAG &&
-                type != XmlPullParser.END_DOCUMENT) {
-            // Empty loop
-        }
-        if (type != XmlPullParser.START_TAG) {
-            throw new XmlPullParserException("No start tag found");
-        }
-        String name = parser.getName();
-        if (!name.equals("layers")) {
-            throw new XmlPullParserException("No <layers> start tag found");
-        }
-        
-        a = res.obtainAttributes(attrset, attrs);
-        float pathWidth = a.getFloat(R.styleable.PathDrawable_path_width, 0);
-        float pathHeight = a.getFloat(R.styleable.PathDrawable_path_height, 0);
-        Drawable background = a.getDrawable(R.styleable.PathDrawable_android_background);
-        Rect padding = new Rect();
-        int pad;
-        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_padding, -1);
-        if (pad >= 0) padding.set(pad, pad, pad, pad);
-        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingLeft, -1);
-        if (pad >= 0) padding.left = pad;
-        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingTop, -1);
-        if (pad >= 0) padding.top = pad;
-        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingRight, -1);
-        if (pad >= 0) padding.right = pad;
-        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingBottom, -1);
-        if (pad >= 0) padding.bottom = pad;
-        mPadding.set(padding);
-        mScaleType = ScaleToFit.values()[a.getInt(R.styleable.PathDrawable_scale_type, 0)];
-        a.recycle();
+    /**
+     * Find the runs of consecutive layers that can be drawn with one drawPath():
+     * their paints are equal and their bounds do not intersect, so the order they
+     * are drawn in does not matter. Every run is merged into one path kept by
+     * its first layer. Then compute the bounds used for culling the layers.
+     */
+    private void prepareLayers(boolean canvasMatrix) {
+        mLayersPrepared = true;
+        updateBatches(canvasMatrix);
+        updateLayerBounds();
+    }
 
-        if (pathWidth <= 0 || pathHeight <= 0) {
-            String msg = parser.getPositionDescription() + ": Both path_width and path_height must be >= 0";
-            throw new XmlPullParserException(msg);
-        }
-        init(pathWidth, pathHeight);
-        setBackground(background);
-        
-        for (type = parser.next();
-                type != XmlPullParser.END_DOCUMENT;
-                type = parser.next()) {
-            if (type == XmlPullParser.START_TAG) {
-                if (parser.getName().equals("layer")) {
-                    a = res.obtainAttributes(attrset, attrs);
-                    String data = a.getString(R.styleable.PathDrawable_data);
-                    String tag = a.getString(R.styleable.PathDrawable_android_tag);
-                    int strokeColor = a.getColor(R.styleable.PathDrawable_stroke_color, 0xffffffff);
-                    float strokeWidth = a.getDimension(R.styleable.PathDrawable_stroke_width, 1);
-                    int strokeStyleFags = a.getInt(R.styleable.PathDrawable_stroke_style, 1);
-                    int capTypeInt = a.getInt(R.styleable.PathDrawable_cap_type, 2);
-                    a.recycle();
-
-                    Style style;
-                    if (strokeStyleFags == 1) {
-                        style = Style.STROKE;
-                    } else
-                    if (strokeStyleFags == 2) {
-                        style = Style.FILL;
-                    } else {
-                        style = Style.FILL_AND_STROKE;
+    private void updateBatches(boolean canvasMatrix) {
+        List<Layer> layers = mLayers;
+        int count = layers.size();
+        float[] bounds = new float[4 * count];
+        boolean[] joins = new boolean[count];
+        RectF rect = mLayerBounds;
+        Layer previous = null;
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.get(i);
+            layer.mBatch = null;
+            if (canBatch(layer) && getLayerBounds(layer, rect)) {
+                bounds[4 * i] = rect.left;
+                bounds[4 * i + 1] = rect.top;
+                bounds[4 * i + 2] = rect.right;
+                bounds[4 * i + 3] = rect.bottom;
+                joins[i] = previous != null && canBatch(previous, layer);
+                previous = layer;
+            } else {
+                bounds[4 * i] = Float.NaN;
+                previous = null;
+            }
+        }
+        int[] runs = new int[count];
+        findBatches(bounds, joins, count, runs);
+        for (int i = 0; i < count; i++) {
+            int end = i + runs[i];
+            if (end - i > 1) {
+                Layer first = layers.get(i);
+                LayerBatch batch = new LayerBatch();
+                batch.mCount = end - i;
+                batch.mCanvasMatrix = canvasMatrix && first.canDrawWithMatrix();
+                Path path = batch.mPath;
+                for (int j = i; j < end; j++) {
+                    Layer layer = layers.get(j);
+                    Path source = layer.getPath(mScale, mLevelOfDetail);
+                    if (j == i) {
+                        path.setFillType(source.getFillType());
                     }
-                    
-                    Cap capType = Cap.SQUARE;
-                    if (capTypeInt == 0) {
-                        capType = Cap.BUTT;
-                    } else
-                    if (capTypeInt == 1) {
-                        capType = Cap.ROUND;
+                    if (batch.mCanvasMatrix) {
+                        path.addPath(source);
+                    } else {
+                        path.addPath(source, mMatrix);
                     }
-                    Layer layer = addLayer(data, strokeColor, strokeWidth, style, capType);
-                    layer.mTag = tag;
+                    // not needed while batched
+                    layer.mDrawPath = null;
+                    layer.mDrawPathValid = false;
                 }
+                first.mBatch = batch;
             }
         }
     }
 
-    public static class Layer {
-        private Object mTag;
-        private Path mPath;
-        private Path mDrawPath;
-        private Paint mPaint;
+    /**
+     * Find the runs of consecutive layers to be batched: a layer joins the run of the
+     * layer before it if their paints are equal and its bounds do not intersect the
+     * union of the run so far.
+     * @param bounds The bounds of every layer (left, top, right, bottom), NaN left if
+     *               the layer cannot be batched
+     * @param joins Whether the paint of the layer equals the one of the layer before it
+     * @param count The number of layers
+     * @param runs Set to the number of layers in the run starting at every layer, 0 for
+     *             the other layers of the run
+     */
+    static void findBatches(float[] bounds, boolean[] joins, int count, int[] runs) {
+        int i = 0;
+        while (i < count) {
+            int end = i + 1;
+            if (!Float.isNaN(bounds[4 * i])) {
+                float left = bounds[4 * i];
+                float top = bounds[4 * i + 1];
+                float right = bounds[4 * i + 2];
+                float bottom = bounds[4 * i + 3];
+                while (end < count && joins[end] && !Float.isNaN(bounds[4 * end])) {
+                    float l = bounds[4 * end];
+                    float t = bounds[4 * end + 1];
+                    float r = bounds[4 * end + 2];
+                    float b = bounds[4 * end + 3];
+                    if (l < right && left < r && t < bottom && top < b) {
+                        break;
+                    }
+                    left = Math.min(left, l);
+                    top = Math.min(top, t);
+                    right = Math.max(right, r);
+                    bottom = Math.max(bottom, b);
+                    end++;
+                }
+            }
+            runs[i] = end - i;
+            for (int j = i + 1; j < end; j++) {
+                runs[j] = 0;
+            }
+            i = end;
+        }
+    }
 
-        public Layer(String data, int strokeColor, float strokeWidth, Style style, Cap capType) {
-            data = data.trim();
-            if (data.length() == 0) {
-                throw new RuntimeException("path data is empty");
+    /**
+     * Compute the bounds of every layer (or batch), the layers whose paint was returned
+     * by getPaint() are never culled since their stroke can change at any time.
+     * For many layers build the row index too.
+     */
+    private void updateLayerBounds() {
+        List<Layer> layers = mLayers;
+        int count = layers.size();
+        int visible = 0;
+        RectF union = mBatchBounds;
+        union.setEmpty();
+        boolean any = false;
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.get(i);
+            LayerState state = layer.mState;
+            if (layer.isShown()) {
+                visible++;
             }
-            mDrawPath = new Path();
-            mPath = PathParser.createPathFromPathData(data);
-            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mPaint.setColor(strokeColor);
-            if (style == Style.FILL) {
-                strokeWidth = 0;
+            if (layer.mBounds == null) {
+                layer.mBounds = new RectF();
             }
-            mPaint.setStrokeWidth(strokeWidth);
-            mPaint.setStyle(style);
-            mPaint.setStrokeCap(capType);
-            if (capType == Cap.BUTT || capType == Cap.SQUARE) {
-                mPaint.setStrokeJoin(Join.BEVEL);
+            LayerBatch batch = layer.mBatch;
+            if (batch != null) {
+                // the union of the members
+                RectF bounds = layer.mBounds;
+                layer.mBoundsKnown = getLayerBounds(layer, bounds);
+                for (int j = i + 1; j < i + batch.mCount; j++) {
+                    getLayerBounds(layers.get(j), mLayerBounds);
+                    bounds.union(mLayerBounds);
+                    layers.get(j).mBoundsKnown = false;
+                    visible++;
+                }
+                i += batch.mCount - 1;
             } else {
-                mPaint.setStrokeJoin(Join.ROUND);
+                layer.mBoundsKnown = !state.mPaintExposed && getLayerBounds(layer, layer.mBounds);
+            }
+            if (layer.mBoundsKnown) {
+                if (!any) {
+                    union.set(layer.mBounds);
+                    any = true;
+                } else {
+                    union.union(layer.mBounds);
+                }
             }
         }
-        
-        /**
-         * Get the Paint object used for Path drawing
-         * @return the path 
-         */
-        public Paint getPaint() {
-            return mPaint;
+        mVisibleLayerCount = visible;
+        mOverlapValid = false;
+
+        mRowIndex = null;
+        if (count < ROW_INDEX_THRESHOLD || !any) {
+            return;
+        }
+        PathRowIndex index = new PathRowIndex(union.top, union.bottom, ROW_INDEX_ROWS, count);
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.get(i);
+            if (!layer.mBoundsKnown) {
+                // the batch members are skipped by draw()
+                index.addUnbounded(i);
+            } else {
+                index.add(i, layer.mBounds.top, layer.mBounds.bottom);
+            }
+            if (layer.mBatch != null) {
+                i += layer.mBatch.mCount - 1;
+            }
+        }
+        mRowIndex = index;
+    }
+
+    private static boolean canBatch(Layer layer) {
+        LayerState state = layer.mState;
+        Paint paint = state.mPaint;
+        // the paint returned by getPaint() can change at any time
+        return layer.isShown() && !state.mPaintExposed && layer.mMorphTo == null && !state.isTrimmed()
+                && layer.mGroup == null
+                && paint.getXfermode() == null
+                && paint.getMaskFilter() == null && paint.getPathEffect() == null;
+    }
+
+    private static boolean canBatch(Layer first, Layer layer) {
+        Paint p0 = first.mState.mPaint;
+        Paint p1 = layer.mState.mPaint;
+        if (p0 != p1 && (p0.getColor() != p1.getColor()
+                || p0.getStrokeWidth() != p1.getStrokeWidth()
+                || p0.getStrokeMiter() != p1.getStrokeMiter()
+                || p0.getStyle() != p1.getStyle()
+                || p0.getStrokeCap() != p1.getStrokeCap()
+                || p0.getStrokeJoin() != p1.getStrokeJoin()
+                || p0.getFlags() != p1.getFlags()
+                || p0.getShader() != p1.getShader()
+                || p0.getColorFilter() != p1.getColorFilter())) {
+            return false;
+        }
+        return first.mState.mPath.getFillType() == layer.mState.mPath.getFillType();
+    }
+
+    /**
+     * @return false if the bitmap is being drawn by {@link PathPrefetcher}, the content
+     * should be drawn directly meanwhile
+     */
+    private boolean drawRasterCache(Canvas canvas) {
+        Rect bounds = getBounds();
+        int width = bounds.width();
+        int height = bounds.height();
+        if (width <= 0 || height <= 0) {
+            return true;
+        }
+        // unmodified drawables share the bitmap of their template
+        PathState state = mState;
+        Object source = mRasterSource;
+        if (state.mTemplate != null && !state.mModified && !isLayerModified()) {
+            source = state.mTemplate;
+        }
+        int flags = (mLevelOfDetail ? PathRasterCache.FLAG_LEVEL_OF_DETAIL : 0)
+                | (mCanvasMatrix ? PathRasterCache.FLAG_CANVAS_MATRIX : 0);
+        PathRasterCache.Entry entry = mRasterEntry;
+        if (entry == null || !entry.matches(source, flags, width, height)) {
+            releaseRasterCache();
+            entry = mRasterEntry = PathRasterCache.acquire(source, flags, width, height, this);
+        }
+        if (source == mRasterSource && updateLayerStamps()) {
+            entry.mValid = false;
+        }
+        boolean render = !entry.mValid && PathRasterCache.beginRender(entry);
+        if (!render && !entry.mValid) {
+            return false;
+        }
+        if (render) {
+            boolean done = false;
+            try {
+                entry.mBitmap.eraseColor(0);
+                Canvas bitmapCanvas = entry.getCanvas();
+                bitmapCanvas.save();
+                bitmapCanvas.translate(-bounds.left, -bounds.top);
+                drawContent(bitmapCanvas, false);
+                bitmapCanvas.restore();
+                done = true;
+            } finally {
+                PathRasterCache.endRender(entry, done);
+            }
+        } else if (!mRasterDirty.isEmpty()) {
+            // only the layers changed by the Layer's setters, redraw that part
+            Canvas bitmapCanvas = entry.getCanvas();
+            bitmapCanvas.save();
+            bitmapCanvas.translate(-bounds.left, -bounds.top);
+            bitmapCanvas.clipRect(mRasterDirty);
+            bitmapCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            drawContent(bitmapCanvas, false);
+            bitmapCanvas.restore();
+        }
+        mRasterDirty.setEmpty();
+        Paint paint = mAlpha == 255 && mColorFilter == null ? null : getAlphaPaint();
+        canvas.drawBitmap(entry.mBitmap, bounds.left, bounds.top, paint);
+        return true;
+    }
+
+    /**
+     * Draw an unmodified drawable created from the template, like it is drawn into
+     * its raster cache bitmap, used by {@link PathPrefetcher} on a background thread.
+     * @param flags The PathRasterCache.FLAG_* flags
+     */
+    static void drawTemplate(PathTemplate template, Resources res, int flags,
+            Canvas canvas, int width, int height) {
+        PathDrawable drawable = new PathDrawable(template, res);
+        drawable.mLevelOfDetail = (flags & PathRasterCache.FLAG_LEVEL_OF_DETAIL) != 0;
+        drawable.mCanvasMatrix = (flags & PathRasterCache.FLAG_CANVAS_MATRIX) != 0;
+        drawable.setBounds(0, 0, width, height);
+        drawable.drawContent(canvas, false);
+    }
+
+    private boolean isLayerModified() {
+        for (Layer layer : mLayers) {
+            if (layer.mState.mModified) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if any modified layer changed since the last call, e.g. its paint
+     * returned by {@link Layer#getPaint()} was changed.
+     */
+    private boolean updateLayerStamps() {
+        boolean changed = false;
+        for (Layer layer : mLayers) {
+            if (layer.mState.mModified) {
+                int stamp = getLayerStamp(layer.mState);
+                if (stamp != layer.mStamp) {
+                    layer.mStamp = stamp;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static int getLayerStamp(LayerState state) {
+        Paint paint = state.mPaint;
+        int result = state.mVisible ? 1 : 0;
+        result = 31 * result + Float.floatToIntBits(state.mTrimStart);
+        result = 31 * result + Float.floatToIntBits(state.mTrimEnd);
+        result = 31 * result + Float.floatToIntBits(state.mTrimOffset);
+        result = 31 * result + paint.getColor();
+        result = 31 * result + Float.floatToIntBits(paint.getStrokeWidth());
+        result = 31 * result + Float.floatToIntBits(paint.getStrokeMiter());
+        result = 31 * result + paint.getStyle().ordinal();
+        result = 31 * result + paint.getStrokeCap().ordinal();
+        result = 31 * result + paint.getStrokeJoin().ordinal();
+        result = 31 * result + paint.getFlags();
+        result = 31 * result + System.identityHashCode(paint.getShader());
+        result = 31 * result + System.identityHashCode(paint.getColorFilter());
+        result = 31 * result + System.identityHashCode(paint.getPathEffect());
+        result = 31 * result + System.identityHashCode(paint.getMaskFilter());
+        return 31 * result + System.identityHashCode(paint.getXfermode());
+    }
+
+    /**
+     * Compute the layer's bounds (the stroke included) in the drawable's coordinates
+     * when its bounds' origin was (mMatrixLeft, mMatrixTop).
+     * @return false if they are not known
+     */
+    private boolean getLayerBounds(Layer layer, RectF out) {
+        Paint paint = layer.mState.mPaint;
+        // the morphing layers change their bounds every frame
+        if (!mMatrixValid || paint.getPathEffect() != null || paint.getMaskFilter() != null
+                || layer.mMorphTo != null) {
+            return false;
+        }
+        out.set(layer.mState.getPathBounds());
+        if (layer.mGroup != null) {
+            layer.mGroup.update();
+            layer.mGroup.mFullMatrix.mapRect(out);
+        }
+        mMatrix.mapRect(out);
+        // the anti-aliasing may touch one more pixel
+        float outset = 1;
+        if (paint.getStyle() != Style.FILL) {
+            outset += getStrokeOutset(paint);
+        }
+        out.inset(-outset, -outset);
+        return true;
+    }
+
+    private static float getStrokeOutset(Paint paint) {
+        // hairlines are one pixel wide
+        float half = Math.max(paint.getStrokeWidth(), 1) / 2;
+        float outset = half;
+        if (paint.getStrokeJoin() == Join.MITER) {
+            outset = half * Math.max(paint.getStrokeMiter(), 1);
+        }
+        if (paint.getStrokeCap() == Cap.SQUARE) {
+            outset = Math.max(outset, half * (float) Math.sqrt(2));
+        }
+        return outset;
+    }
+
+    private void offsetToBounds(Rect rect) {
+        Rect bounds = getBounds();
+        rect.offset(bounds.left - mMatrixLeft, bounds.top - mMatrixTop);
+    }
+
+    /**
+     * Called by the Layer's setters before the change.
+     */
+    private void beginLayerChange(Layer layer) {
+        ensureOwnState();
+        mDirtyRect.setEmpty();
+        if (getLayerBounds(layer, mLayerBounds)) {
+            mLayerBounds.roundOut(mDirtyRect);
+            offsetToBounds(mDirtyRect);
+        } else {
+            mDirtyRect.set(getBounds());
+        }
+    }
+
+    /**
+     * Called by the Layer's setters after the change: invalidate the union of
+     * the layer's bounds before and after the change.
+     */
+    private void endLayerChange(Layer layer) {
+        LayerState state = layer.mState;
+        state.mModified = true;
+        // e.g. the stroke width changed
+        mIntrinsicSizeValid = false;
+        // the layer may not belong to its batch anymore
+        mLayersPrepared = false;
+        mHitIndex = null;
+        // the change is handled here, not by updateLayerStamps()
+        layer.mStamp = getLayerStamp(state);
+        if (getLayerBounds(layer, mLayerBounds)) {
+            Rect rect = mTmpRect;
+            mLayerBounds.roundOut(rect);
+            offsetToBounds(rect);
+            mDirtyRect.union(rect);
+        } else {
+            mDirtyRect.set(getBounds());
+        }
+        if (mLoadTask != null) {
+            return;
+        }
+        if (mRasterEntry != null) {
+            mRasterDirty.union(mDirtyRect);
+        }
+        if (mTileRenderer != null) {
+            mTileRenderer.invalidate();
+        }
+        // the callback (the view or a wrapping drawable) asks getDirtyBounds() for
+        // the part to redraw
+        mDirtyValid = true;
+        try {
+            invalidateSelf();
+        } finally {
+            mDirtyValid = false;
+        }
+    }
+
+    /**
+     * @return the part changed by the Layer's setter while it invalidates the drawable,
+     * otherwise the whole bounds
+     */
+    @Override
+    public Rect getDirtyBounds() {
+        return mDirtyValid ? mDirtyRect : getBounds();
+    }
+
+    private void invalidateRasterCache() {
+        if (mRasterEntry != null && mRasterEntry.mKey.mSource == mRasterSource) {
+            mRasterEntry.mValid = false;
+        }
+        if (mTileRenderer != null) {
+            mTileRenderer.invalidate();
+        }
+    }
+
+    private void drawTiles(Canvas canvas) {
+        Rect bounds = getBounds();
+        if (bounds.isEmpty()) {
+            return;
+        }
+        if (mAlpha == 0) {
+            return;
+        }
+        Paint paint = mAlpha == 255 && mColorFilter == null ? null : getAlphaPaint();
+        if (mBackground != null) {
+            // the tiles get the alpha and color filter from the paint, the background
+            // is faded the same way through an offscreen layer
+            if (paint == null) {
+                mBackground.draw(canvas);
+            } else {
+                mTmpRectF.set(bounds);
+                int saveCount = canvas.saveLayer(mTmpRectF, paint, Canvas.ALL_SAVE_FLAG);
+                mBackground.draw(canvas);
+                canvas.restoreToCount(saveCount);
+            }
+        }
+        PathTileRenderer renderer = mTileRenderer;
+        prepare();
+        if (updateLayerStamps()) {
+            renderer.invalidate();
+        }
+        renderer.draw(canvas, bounds, paint);
+    }
+
+    /**
+     * Take the snapshot of the visible layers for the tiles rendered on the background
+     * threads: the paints are copied and so are the paths that can change (morphing
+     * or trimmed ones). Called by the renderer's draw(), after prepare().
+     */
+    PathTileRenderer.Scene buildTileScene() {
+        List<Layer> layers = mLayers;
+        int count = 0;
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).isShown()) {
+                count++;
+            }
+        }
+        PathTileRenderer.Scene scene = new PathTileRenderer.Scene(mMatrixLeft, mMatrixTop,
+                mMatrixWidth, mMatrixHeight, count);
+        int n = 0;
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isShown()) {
+                continue;
+            }
+            LayerState state = layer.mState;
+            Path path = layer.getPath(0, false);
+            if (state.isTrimmed()) {
+                path = new Path(layer.getTrimmedPath(path));
+            } else if (layer.mMorphPath != null) {
+                path = new Path(path);
+            }
+            Paint paint = new Paint(state.mPaint);
+            Matrix matrix = new Matrix(mMatrix);
+            float scale = mScale;
+            boolean similar = mUniformScale && mScale > 0;
+            if (layer.mGroup != null) {
+                LayerGroup group = layer.mGroup;
+                group.update();
+                matrix.preConcat(group.mFullMatrix);
+                scale *= group.mFullScale;
+                similar &= group.mFullSimilar;
+            }
+            if (similar && layer.canDrawWithMatrix()) {
+                // like drawWithMatrix()
+                if (paint.getStrokeWidth() != 0) {
+                    paint.setStrokeWidth(paint.getStrokeWidth() / scale);
+                }
+                scene.mMatrices[n] = matrix;
+            } else {
+                Path transformed = new Path();
+                path.transform(matrix, transformed);
+                path = transformed;
+            }
+            scene.mPaths[n] = path;
+            scene.mPaints[n] = paint;
+            RectF bounds = new RectF();
+            if (getLayerBounds(layer, bounds)) {
+                scene.mBounds[n] = bounds;
+            }
+            n++;
+        }
+        return scene;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        if (!visible) {
+            // acquired again by the next draw()
+            releaseRasterCache();
+            if (mTileRenderer != null) {
+                mTileRenderer.release();
+            }
+        }
+        return super.setVisible(visible, restart);
+    }
+
+    /**
+     * Whether the alpha and color filter can be set to the layers' paints instead of
+     * drawing into an offscreen layer: there is no background (it would not be faded),
+     * the layers do not overlap and their paints have no xfermode (nor color filter
+     * if the drawable has one).
+     */
+    private boolean canFoldAlpha() {
+        if (mBackground != null) {
+            return false;
+        }
+        List<Layer> layers = mLayers;
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            LayerState state = layer.mState;
+            if (layer.isShown() && (state.mPaint.getXfermode() != null
+                    || mColorFilter != null && state.mPaint.getColorFilter() != null)) {
+                return false;
+            }
+        }
+        if (!mOverlapValid) {
+            mLayersOverlap = computeLayersOverlap();
+            mOverlapValid = true;
+        }
+        return !mLayersOverlap;
+    }
+
+    private boolean computeLayersOverlap() {
+        List<Layer> layers = mLayers;
+        int count = layers.size();
+        if (mVisibleLayerCount > MAX_OVERLAP_CHECK) {
+            // not worth checking
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isShown()) {
+                continue;
+            }
+            if (!layer.mBoundsKnown) {
+                return true;
+            }
+            int next = layer.mBatch != null ? i + layer.mBatch.mCount : i + 1;
+            for (int j = next; j < count; j++) {
+                Layer other = layers.get(j);
+                if (!other.isShown()) {
+                    continue;
+                }
+                if (!other.mBoundsKnown) {
+                    return true;
+                }
+                if (RectF.intersects(layer.mBounds, other.mBounds)) {
+                    return true;
+                }
+                if (other.mBatch != null) {
+                    j += other.mBatch.mCount - 1;
+                }
+            }
+            i = next - 1;
+        }
+        return false;
+    }
+
+    private void beginFold(Paint paint) {
+        mSavedAlpha = paint.getAlpha();
+        paint.setAlpha(mSavedAlpha * mAlpha / 255);
+        if (mColorFilter != null) {
+            paint.setColorFilter(mColorFilter);
+        }
+    }
+
+    private void endFold(Paint paint) {
+        paint.setAlpha(mSavedAlpha);
+        if (mColorFilter != null) {
+            paint.setColorFilter(null);
+        }
+    }
+
+    private Paint getAlphaPaint() {
+        if (mAlphaPaint == null) {
+            mAlphaPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        }
+        mAlphaPaint.setAlpha(mAlpha);
+        mAlphaPaint.setColorFilter(mColorFilter);
+        return mAlphaPaint;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (mAlpha != alpha) {
+            mAlpha = alpha;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        if (mColorFilter != cf) {
+            mColorFilter = cf;
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @return {@link PixelFormat#OPAQUE} if the background is opaque and neither the
+     * alpha, color filter nor any layer's xfermode can make it translucent,
+     * {@link PixelFormat#TRANSPARENT} if nothing is drawn
+     */
+    @Override
+    public int getOpacity() {
+        if (mAlpha == 0) {
+            return PixelFormat.TRANSPARENT;
+        }
+        boolean hasLayers = false;
+        boolean hasXfermode = false;
+        for (Layer layer : mLayers) {
+            LayerState state = layer.mState;
+            if (layer.isShown()) {
+                hasLayers = true;
+                if (state.mPaint.getXfermode() != null) {
+                    hasXfermode = true;
+                }
+            }
+        }
+        if (mBackground == null) {
+            return hasLayers ? PixelFormat.TRANSLUCENT : PixelFormat.TRANSPARENT;
+        }
+        int opacity = mBackground.getOpacity();
+        if (opacity == PixelFormat.OPAQUE && (mAlpha != 255 || mColorFilter != null || hasXfermode)) {
+            return PixelFormat.TRANSLUCENT;
+        }
+        if (opacity == PixelFormat.TRANSPARENT && hasLayers) {
+            return PixelFormat.TRANSLUCENT;
+        }
+        return opacity;
+    }
+
+    // the number of layers starting from which the row index is used for culling
+    private static final int ROW_INDEX_THRESHOLD = 64;
+    private static final int ROW_INDEX_ROWS = 32;
+    // the number of layers up to which their overlapping is checked, see canFoldAlpha()
+    private static final int MAX_OVERLAP_CHECK = 256;
+
+    private void updateMatrix(Rect bounds) {
+        PathState state = mState;
+        Rect tmpRect = mTmpRect;
+        tmpRect.set(bounds);
+        inset(tmpRect, state.mPadding);
+        mTmpRectF.set(tmpRect);
+        mMatrix.setRectToRect(state.mPathRect, mTmpRectF, state.mScaleType);
+
+        float[] values = mTmpValues;
+        mMatrix.getValues(values);
+        mScale = Math.max(Math.abs(values[Matrix.MSCALE_X]), Math.abs(values[Matrix.MSCALE_Y]));
+        mMatrixLeft = bounds.left;
+        mMatrixTop = bounds.top;
+        mMatrixWidth = bounds.width();
+        mMatrixHeight = bounds.height();
+        mMatrixValid = true;
+        mLayersPrepared = false;
+        mHitIndex = null;
+        if (mTileRenderer != null) {
+            mTileRenderer.invalidate();
+        }
+        mUniformScale = Math.abs(Math.abs(values[Matrix.MSCALE_X]) - Math.abs(values[Matrix.MSCALE_Y]))
+                <= mScale * 1e-5f;
+        for (Layer layer : mLayers) {
+            layer.invalidatePath();
+        }
+    }
+
+    /**
+     * Round the scale up to the power of two, so the paths built for the scale
+     * are not rebuilt every time the drawable is resized.
+     */
+    private static float getScaleBucket(float scale) {
+        float bucket = 1;
+        while (bucket < scale) {
+            bucket *= 2;
+        }
+        while (bucket / 2 >= scale) {
+            bucket /= 2;
+        }
+        return bucket;
+    }
+
+    private void inset(Rect what, Rect by) {
+        what.left += by.left;
+        what.top += by.top;
+        what.right -= by.right;
+        what.bottom -= by.bottom;
+    }
+
+    /**
+     * A group of layers created by {@link PathDrawable#createGroup(LayerGroup)}, with its
+     * own matrix and visibility applied to all its layers and subgroups, so the whole
+     * subtree can be moved or hidden at once. If the drawable's scale is uniform and
+     * the group's matrix is a similarity (translation, rotation and uniform scale) the
+     * matrix is concatenated to the canvas and changing it does not transform the
+     * layers' paths. The stroke widths are not scaled by the groups' matrices.
+     * The groups belong to one drawable, they are not shared through the
+     * {@link PathDrawable#getConstantState() ConstantState}.
+     */
+    public static final class LayerGroup {
+        private final PathDrawable mOwner;
+        private final LayerGroup mParent;
+        private final Matrix mMatrix = new Matrix();
+        private boolean mVisible = true;
+        // the matrix concatenated with the parents' ones, valid for mFullVersion
+        private final Matrix mFullMatrix = new Matrix();
+        private final Matrix mFullInverse = new Matrix();
+        private float mFullScale = 1;
+        private boolean mFullSimilar = true;
+        private int mFullVersion;
+
+        private LayerGroup(PathDrawable owner, LayerGroup parent) {
+            mOwner = owner;
+            mParent = parent;
+            // computed by the first update()
+            mFullVersion = owner.mGroupsVersion - 1;
+        }
+
+        /**
+         * @return the parent group or null for a top level group
+         */
+        public LayerGroup getParent() {
+            return mParent;
+        }
+
+        /**
+         * Set the matrix applied to the layers (in the path coordinates, before
+         * the parent's matrix) and invalidate the drawable.
+         * @param matrix The matrix, null for the identity
+         */
+        public void setMatrix(Matrix matrix) {
+            if (matrix == null) {
+                mMatrix.reset();
+            } else {
+                mMatrix.set(matrix);
+            }
+            mOwner.onGroupChanged(true);
+        }
+
+        /**
+         * @param out The matrix the group's matrix is copied to
+         */
+        public void getMatrix(Matrix out) {
+            out.set(mMatrix);
+        }
+
+        /**
+         * Show or hide all the layers and subgroups of the group.
+         * @param visible true to draw the group
+         */
+        public void setVisible(boolean visible) {
+            if (mVisible != visible) {
+                mVisible = visible;
+                mOwner.onGroupChanged(false);
+            }
+        }
+
+        /**
+         * @return true if the group is drawn (unless its parent is hidden)
+         */
+        public boolean isVisible() {
+            return mVisible;
+        }
+
+        private boolean isShown() {
+            LayerGroup group = this;
+            while (group != null) {
+                if (!group.mVisible) {
+                    return false;
+                }
+                group = group.mParent;
+            }
+            return true;
+        }
+
+        /**
+         * Recompute the full matrix if any group's matrix changed since the last call.
+         */
+        private void update() {
+            int version = mOwner.mGroupsVersion;
+            if (mFullVersion == version) {
+                return;
+            }
+            mFullVersion = version;
+            Matrix full = mFullMatrix;
+            if (mParent != null) {
+                mParent.update();
+                full.set(mParent.mFullMatrix);
+                full.preConcat(mMatrix);
+            } else {
+                full.set(mMatrix);
+            }
+            if (!full.invert(mFullInverse)) {
+                mFullInverse.reset();
+            }
+            float[] v = mOwner.mTmpValues;
+            full.getValues(v);
+            float a = v[Matrix.MSCALE_X];
+            float b = v[Matrix.MSKEW_X];
+            float c = v[Matrix.MSKEW_Y];
+            float d = v[Matrix.MSCALE_Y];
+            mFullScale = (float) Math.sqrt(Math.abs(a * d - b * c));
+            float eps = mFullScale * 1e-5f;
+            boolean rotation = Math.abs(a - d) <= eps && Math.abs(b + c) <= eps;
+            boolean reflection = Math.abs(a + d) <= eps && Math.abs(b - c) <= eps;
+            mFullSimilar = (rotation || reflection) && mFullScale > 0
+                    && v[Matrix.MPERSP_0] == 0 && v[Matrix.MPERSP_1] == 0 && v[Matrix.MPERSP_2] == 1;
+        }
+    }
+
+    private static final class LayerBatch {
+        final Path mPath = new Path();
+        // the number of layers merged
+        int mCount;
+        // whether mPath is untransformed, drawn under the canvas matrix
+        boolean mCanvasMatrix;
+    }
+
+    /**
+     * The state shared by all the PathDrawables created from the same
+     * {@link #getConstantState() ConstantState}.
+     */
+    static final class PathState extends ConstantState {
+        final RectF mPathRect = new RectF();
+        final Rect mPadding = new Rect();
+        ScaleToFit mScaleType = ScaleToFit.FILL;
+        ConstantState mBackground;
+        final ArrayList<LayerState> mLayers;
+        int mChangingConfigurations;
+        // the template the state was created from and whether the layers were added
+        // or removed since then, used by the raster cache mode
+        PathTemplate mTemplate;
+        boolean mModified;
+        // whether the state was returned by getConstantState(), so it must be copied
+        // before any change
+        boolean mShared;
+
+        PathState() {
+            mLayers = new ArrayList<>();
+        }
+
+        PathState(PathTemplate template) {
+            mPathRect.set(0, 0, template.mPathWidth, template.mPathHeight);
+            mPadding.set(template.mPadding);
+            mScaleType = template.mScaleType;
+            mBackground = template.mBackground;
+            mTemplate = template;
+            PathTemplate.LayerTemplate[] layers = template.mLayers;
+            mLayers = new ArrayList<>(layers.length);
+            for (PathTemplate.LayerTemplate lt : layers) {
+                mLayers.add(new LayerState(lt));
+            }
+        }
+
+        PathState(PathState orig) {
+            mPathRect.set(orig.mPathRect);
+            mPadding.set(orig.mPadding);
+            mScaleType = orig.mScaleType;
+            mBackground = orig.mBackground;
+            mChangingConfigurations = orig.mChangingConfigurations;
+            mTemplate = orig.mTemplate;
+            mModified = orig.mModified;
+            // the layers are copied by copyState()
+            mLayers = new ArrayList<>(orig.mLayers.size());
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new PathDrawable(this, null);
+        }
+
+        @Override
+        public Drawable newDrawable(Resources res) {
+            return new PathDrawable(this, res);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return mChangingConfigurations;
+        }
+    }
+
+    /**
+     * The part of a Layer shared by all the PathDrawables created from the same
+     * {@link #getConstantState() ConstantState}. The path is never modified,
+     * the paint is copied by ensureOwnState() before any change.
+     */
+    static final class LayerState {
+        /**
+         * The maximum distance (in pixels) between the path and its simplified version.
+         */
+        static final float LOD_TOLERANCE = 0.5f;
+
+        Object mTag;
+        final PathData mPathData;
+        final Path mPath;
+        final boolean mHasArcs;
+        final Paint mPaint;
+        // the simplified paths for the level of detail mode, null values if mPath is simple
+        // enough, null for the layers of the xml file, see LayerTemplate.getLodPath()
+        final HashMap<Float, Path> mLodPaths;
+        // whether the paint may have been changed by the user (see Layer.getPaint())
+        // or the layer was changed by the Layer's setters
+        boolean mModified;
+        // whether the paint was returned by Layer.getPaint()
+        boolean mPaintExposed;
+        boolean mVisible = true;
+        private PathHitShape mHitShape;
+        // the drawn part of the path, see Layer.setTrimStart()
+        float mTrimStart;
+        float mTrimEnd = 1;
+        float mTrimOffset;
+        private RectF mPathBounds;
+        // the layer of the xml file keeping the shared geometry caches, null for the
+        // layers added by addLayer()
+        private final PathTemplate.LayerTemplate mTemplate;
+
+        LayerState(PathData pathData, Path path, int strokeColor, float strokeWidth, Style style, Cap capType) {
+            this(pathData, path, new HashMap<Float, Path>(), null, strokeColor, strokeWidth, style, capType);
+        }
+
+        /**
+         * Create the state of a layer of the xml file, its LOD paths, hit shape and
+         * bounds are shared by all the drawables created from the template.
+         */
+        LayerState(PathTemplate.LayerTemplate template) {
+            this(template.mPathData, template.getPath(), null, template,
+                    template.mStrokeColor, template.mStrokeWidth, template.mStyle, template.mCapType);
+            mTag = template.mTag;
+            mTrimStart = template.mTrimStart;
+            mTrimEnd = template.mTrimEnd;
+            mTrimOffset = template.mTrimOffset;
+            mPathBounds = template.getBounds();
+        }
+
+        private LayerState(PathData pathData, Path path, HashMap<Float, Path> lodPaths,
+                PathTemplate.LayerTemplate template, int strokeColor, float strokeWidth, Style style,
+                Cap capType) {
+            mPathData = pathData;
+            mPath = path;
+            mHasArcs = pathData.hasArcs();
+            mLodPaths = lodPaths;
+            mTemplate = template;
+            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mPaint.setColor(strokeColor);
+            if (style == Style.FILL) {
+                strokeWidth = 0;
+            }
+            mPaint.setStrokeWidth(strokeWidth);
+            mPaint.setStyle(style);
+            mPaint.setStrokeCap(capType);
+            if (capType == Cap.BUTT || capType == Cap.SQUARE) {
+                mPaint.setStrokeJoin(Join.BEVEL);
+            } else {
+                mPaint.setStrokeJoin(Join.ROUND);
+            }
+        }
+
+        LayerState(LayerState orig) {
+            mTag = orig.mTag;
+            mPathData = orig.mPathData;
+            mPath = orig.mPath;
+            mHasArcs = orig.mHasArcs;
+            mLodPaths = orig.mLodPaths;
+            mModified = orig.mModified;
+            mPaintExposed = orig.mPaintExposed;
+            mVisible = orig.mVisible;
+            mTrimStart = orig.mTrimStart;
+            mTrimEnd = orig.mTrimEnd;
+            mTrimOffset = orig.mTrimOffset;
+            mPathBounds = orig.mPathBounds;
+            mHitShape = orig.mHitShape;
+            mTemplate = orig.mTemplate;
+            mPaint = new Paint(orig.mPaint);
+        }
+
+        /**
+         * @return whether only a part of the path is drawn
+         */
+        boolean isTrimmed() {
+            return mTrimStart != 0 || mTrimEnd != 1;
+        }
+
+        /**
+         * @return the tight bounds of the untransformed path (computed from the path
+         * data, see PathBounds), the stroke not included
+         */
+        RectF getPathBounds() {
+            if (mPathBounds == null) {
+                RectF bounds = new RectF();
+                mPathData.computeBounds(bounds, true);
+                mPathBounds = bounds;
+            }
+            return mPathBounds;
+        }
+
+        /**
+         * @return the hit test geometry of the path, built on the first use
+         */
+        synchronized PathHitShape getHitShape() {
+            if (mHitShape == null) {
+                mHitShape = mTemplate != null ? mTemplate.getHitShape() : new PathHitShape(mPath);
+            }
+            return mHitShape;
+        }
+
+        /**
+         * @param scale The scale bucket
+         * @return the path simplified for the scale or null if mPath should be used
+         */
+        Path getLodPath(float scale) {
+            if (mTemplate != null) {
+                // shared and accounted by the cache
+                return mTemplate.getLodPath(scale);
+            }
+            synchronized (mLodPaths) {
+                Float key = scale;
+                if (mLodPaths.containsKey(key)) {
+                    return mLodPaths.get(key);
+                }
+                // no use of the simplified path having more points than the original one
+                int maxPoints = mPathData.getParamCount() / 2;
+                Path path = new PathFlattener().flatten(mPathData, mPath, LOD_TOLERANCE / scale, maxPoints);
+                mLodPaths.put(key, path);
+                return path;
+            }
+        }
+    }
+
+    public static class Layer {
+        private LayerState mState;
+        // the untransformed path for the current scale, see getPath()
+        private Path mPath;
+        // the transformed path, not used in the canvas matrix mode
+        private Path mDrawPath;
+        private boolean mDrawPathValid;
+        // see updateLayerStamps()
+        private int mStamp;
+        // the drawable the layer belongs to, null if removed
+        private PathDrawable mOwner;
+        // the position in the owner's layers, see getLayerIndex()
+        private int mIndex;
+        // the batch this layer starts, see prepareLayers()
+        private LayerBatch mBatch;
+        // the bounds of the layer (or the batch it starts) used for culling
+        private RectF mBounds;
+        private boolean mBoundsKnown;
+        // morphing, see setMorphTarget()
+        private PathData mMorphTo;
+        private PathData mMorphData;
+        private Path mMorphPath;
+        private PathSink mMorphSink;
+        private float[] mMorphCurrent;
+        private float mMorphFraction;
+        // the arcs approximated for mArcScale, only used if the path data has any arcs
+        private Path mArcPath;
+        private float mArcScale;
+        // trimming, see getTrimmedPath(): the contours of mTrimSource measured once
+        // and the trim params mTrimPath was extracted with
+        private Path mTrimSource;
+        private PathMeasure mTrimMeasure;
+        private PathMeasure[] mTrimMeasures;
+        private Path[] mTrimContourPaths;
+        private boolean[] mTrimClosed;
+        // the length of the contours before each contour, the last one is the total length
+        private float[] mTrimLengths;
+        private int mTrimContours;
+        private Path mTrimPath;
+        private float mTrimPathStart;
+        private float mTrimPathEnd;
+        private float mTrimPathOffset;
+        // the hit test geometry of the morph path
+        private PathHitShape mMorphHitShape;
+        private LayerGroup mGroup;
+        // the owner's mGroupsVersion mDrawPath was transformed with
+        private int mGroupsVersion;
+
+        public Layer(String data, int strokeColor, float strokeWidth, Style style, Cap capType) {
+            PathData pathData = parse(data);
+            Path path = new Path();
+            pathData.toPath(path);
+            mState = new LayerState(pathData, path, strokeColor, strokeWidth, style, capType);
+        }
+
+        Layer(LayerState state) {
+            mState = state;
+        }
+
+        private static PathData parse(String data) {
+            data = data.trim();
+            if (data.length() == 0) {
+                throw new RuntimeException("path data is empty");
+            }
+            try {
+                return PathParser.createPathDataFromPathData(data);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Error in parsing " + data, e);
+            }
+        }
+
+        /**
+         * Get the Paint object used for Path drawing. If the layer's state is shared with
+         * other PathDrawables created from the same
+         * {@link PathDrawable#getConstantState() ConstantState} it is copied first, so
+         * the changes made to the Paint are never seen by them.
+         * @return the paint
+         */
+        public Paint getPaint() {
+            if (mOwner != null) {
+                mOwner.ensureOwnState();
+            }
+            mState.mModified = true;
+            if (!mState.mPaintExposed) {
+                mState.mPaintExposed = true;
+                if (mOwner != null) {
+                    mOwner.mLayersPrepared = false;
+                    mOwner.mHitIndex = null;
+                }
+            }
+            return mState.mPaint;
+        }
+
+        /**
+         * Set the color of the layer and invalidate the area it covers. Like the changes
+         * made to the Paint the change is not seen by other PathDrawables created from
+         * the same {@link PathDrawable#getConstantState() ConstantState}.
+         * @param color The new color
+         */
+        public void setColor(int color) {
+            if (mState.mPaint.getColor() != color) {
+                // the state may be copied first, see PathDrawable.ensureOwnState()
+                beginChange();
+                mState.mPaint.setColor(color);
+                endChange();
+            }
+        }
+
+        /**
+         * Set the stroke width of the layer and invalidate the area it covers.
+         * @param strokeWidth The new stroke width
+         * @see #setColor(int)
+         */
+        public void setStrokeWidth(float strokeWidth) {
+            if (mState.mPaint.getStrokeWidth() != strokeWidth) {
+                beginChange();
+                mState.mPaint.setStrokeWidth(strokeWidth);
+                endChange();
+            }
+        }
+
+        /**
+         * Set the style of the layer and invalidate the area it covers.
+         * @param style The new style
+         * @see #setColor(int)
+         */
+        public void setStyle(Style style) {
+            if (mState.mPaint.getStyle() != style) {
+                beginChange();
+                mState.mPaint.setStyle(style);
+                endChange();
+            }
+        }
+
+        /**
+         * Set the shader of the layer and invalidate the area it covers.
+         * @param shader The new shader, can be null
+         * @see #setColor(int)
+         */
+        public void setShader(Shader shader) {
+            if (mState.mPaint.getShader() != shader) {
+                beginChange();
+                mState.mPaint.setShader(shader);
+                endChange();
+            }
+        }
+
+        /**
+         * Show or hide the layer and invalidate the area it covers.
+         * @param visible true to draw the layer
+         * @see #setColor(int)
+         */
+        public void setVisible(boolean visible) {
+            if (mState.mVisible != visible) {
+                beginChange();
+                mState.mVisible = visible;
+                endChange();
+            }
+        }
+
+        /**
+         * @return true if the layer is drawn (unless its group is hidden)
+         */
+        public boolean isVisible() {
+            return mState.mVisible;
+        }
+
+        /**
+         * Move the layer into the group, it is drawn transformed by the group's matrix
+         * and only if all the groups up to the top level one are visible.
+         * @param group The group, null to remove the layer from its group
+         * @throws IllegalArgumentException if the group belongs to another drawable
+         *                                  than the layer
+         */
+        public void setGroup(LayerGroup group) {
+            if (group != null && group.mOwner != mOwner) {
+                throw new IllegalArgumentException("The group belongs to another drawable");
+            }
+            if (mGroup != group) {
+                beginChange();
+                mGroup = group;
+                mDrawPathValid = false;
+                endChange();
+            }
+        }
+
+        /**
+         * @return the group of the layer or null
+         */
+        public LayerGroup getGroup() {
+            return mGroup;
+        }
+
+        /**
+         * @return whether the layer and all its groups are visible
+         */
+        private boolean isShown() {
+            return mState.mVisible && (mGroup == null || mGroup.isShown());
+        }
+
+        /**
+         * Set the start of the drawn part of the layer's path and invalidate the area
+         * it covers. The path is measured once per drawable's size so changing the trim
+         * params (e.g. animating them by an ObjectAnimator using the "trimStart",
+         * "trimEnd" and "trimOffset" properties) only extracts the drawn part of it.
+         * @param trimStart The fraction of the path's length (of all its contours)
+         *                  where the drawn part starts, 0 by default
+         * @see #setColor(int)
+         */
+        public void setTrimStart(float trimStart) {
+            if (mState.mTrimStart != trimStart) {
+                beginChange();
+                mState.mTrimStart = trimStart;
+                endChange();
+            }
+        }
+
+        /**
+         * @return the start of the drawn part of the path
+         */
+        public float getTrimStart() {
+            return mState.mTrimStart;
+        }
+
+        /**
+         * Set the end of the drawn part of the layer's path and invalidate the area it covers.
+         * If the end is less than the start, the drawn part wraps around the path's end.
+         * @param trimEnd The fraction of the path's length where the drawn part ends,
+         *                1 by default
+         * @see #setTrimStart(float)
+         */
+        public void setTrimEnd(float trimEnd) {
+            if (mState.mTrimEnd != trimEnd) {
+                beginChange();
+                mState.mTrimEnd = trimEnd;
+                endChange();
+            }
+        }
+
+        /**
+         * @return the end of the drawn part of the path
+         */
+        public float getTrimEnd() {
+            return mState.mTrimEnd;
+        }
+
+        /**
+         * Set the offset added to both the start and the end of the drawn part of
+         * the path and invalidate the area it covers.
+         * @param trimOffset The fraction of the path's length, 0 by default
+         * @see #setTrimStart(float)
+         */
+        public void setTrimOffset(float trimOffset) {
+            if (mState.mTrimOffset != trimOffset) {
+                beginChange();
+                mState.mTrimOffset = trimOffset;
+                endChange();
+            }
+        }
+
+        /**
+         * @return the offset of the drawn part of the path
+         */
+        public float getTrimOffset() {
+            return mState.mTrimOffset;
+        }
+
+        /**
+         * @param data The target path data
+         * @return whether this layer can morph into the given path data, i.e. it has
+         * the same commands with the same number of params
+         */
+        public boolean canMorphTo(String data) {
+            return mState.mPathData.canMorph(parse(data));
+        }
+
+        /**
+         * Start morphing this layer into the given path data, the layer is drawn
+         * with the path data interpolated by {@link #setMorphFraction(float)}.
+         * All the buffers are allocated here so changing the fraction does not allocate,
+         * setting the next target while morphing reuses them.
+         * @param data The target path data, null to stop morphing and draw the original
+         *             path again
+         * @throws IllegalArgumentException if the layer cannot morph into the path data
+         * @see #canMorphTo(String)
+         */
+        public void setMorphTarget(String data) {
+            if (data == null) {
+                if (mMorphTo != null) {
+                    mMorphTo = null;
+                    mMorphData = null;
+                    mMorphPath = null;
+                    mMorphSink = null;
+                    mMorphCurrent = null;
+                    mMorphFraction = 0;
+                    onMorphChanged(true);
+                }
+                return;
+            }
+            PathData from = mState.mPathData;
+            PathData to = parse(data);
+            if (!from.canMorph(to)) {
+                throw new IllegalArgumentException("Cannot morph into " + data
+                        + ": the commands or their params do not match");
+            }
+            boolean started = mMorphTo == null;
+            mMorphTo = to;
+            if (mMorphData != null && mMorphData.canMorph(from)) {
+                // the next target of a running morphing, reuse the buffers
+                mMorphData.set(from);
+                mMorphPath.rewind();
+            } else {
+                mMorphData = new PathData(from);
+                mMorphPath = new Path();
+                mMorphSink = new AndroidPathSink(mMorphPath);
+                mMorphCurrent = new float[6];
+            }
+            mMorphFraction = 0;
+            mMorphData.toPath(mMorphSink, mMorphCurrent);
+            onMorphChanged(started);
+        }
+
+        /**
+         * Set the morph fraction, it can be animated by an ObjectAnimator using
+         * the "morphFraction" property.
+         * @param fraction 0 for the original path data, 1 for the target one
+         * @throws IllegalStateException if no target is set by {@link #setMorphTarget(String)}
+         */
+        public void setMorphFraction(float fraction) {
+            if (mMorphTo == null) {
+                throw new IllegalStateException("No morph target set");
+            }
+            if (mMorphFraction != fraction) {
+                mMorphFraction = fraction;
+                mMorphData.interpolate(mState.mPathData, mMorphTo, fraction);
+                mMorphPath.rewind();
+                mMorphData.toPath(mMorphSink, mMorphCurrent);
+                onMorphChanged(false);
+            }
+        }
+
+        /**
+         * @return the morph fraction
+         */
+        public float getMorphFraction() {
+            return mMorphFraction;
+        }
+
+        /**
+         * @param started whether the morphing was started or stopped, so the layer
+         *                needs to be batched and culled differently
+         */
+        private void onMorphChanged(boolean started) {
+            mPath = null;
+            mDrawPathValid = false;
+            // the morph path is changed in place
+            mTrimSource = null;
+            mMorphHitShape = null;
+            PathDrawable owner = mOwner;
+            if (owner != null) {
+                if (started) {
+                    owner.mLayersPrepared = false;
+                    owner.mHitIndex = null;
+                }
+                owner.ensureOwnState();
+                mState.mModified = true;
+                owner.invalidateRasterCache();
+                owner.invalidateSelf();
+            }
+        }
+
+        private void beginChange() {
+            if (mOwner != null) {
+                mOwner.beginLayerChange(this);
+            }
+        }
+
+        private void endChange() {
+            if (mOwner != null) {
+                mOwner.endLayerChange(this);
+            } else {
+                mState.mModified = true;
+            }
+        }
+
+        /**
+         * Get the untransformed path to be drawn with the given scale. The shared path
+         * approximates the arcs with the fixed 45 degrees per segment, so if there are
+         * any arcs the path is rebuilt with the number of segments needed for the scale.
+         * In the level of detail mode the (shared) simplified path is used instead.
+         */
+        private Path getPath(float scale, boolean levelOfDetail) {
+            if (mMorphPath != null) {
+                return mMorphPath;
+            }
+            if (scale <= 0) {
+                return mState.mPath;
+            }
+            float bucket = getScaleBucket(scale);
+            if (levelOfDetail) {
+                Path path = mState.getLodPath(bucket);
+                if (path != null) {
+                    return path;
+                }
+            }
+            if (!mState.mHasArcs) {
+                return mState.mPath;
+            }
+            if (mArcPath == null || mArcScale != bucket) {
+                if (mArcPath == null) {
+                    mArcPath = new Path();
+                } else {
+                    mArcPath.reset();
+                }
+                mState.mPathData.toPath(mArcPath, bucket);
+                mArcScale = bucket;
+            }
+            return mArcPath;
+        }
+
+        private PathHitShape getHitShape() {
+            if (mMorphPath != null) {
+                if (mMorphHitShape == null) {
+                    mMorphHitShape = new PathHitShape(mMorphPath);
+                }
+                return mMorphHitShape;
+            }
+            return mState.getHitShape();
+        }
+
+        private void invalidatePath() {
+            mPath = null;
+            mDrawPathValid = false;
+            mTrimSource = null;
+        }
+
+        /**
+         * Get the part of the source path selected by the trim params. The contours of
+         * the source are measured only when it changes, otherwise the drawn part is
+         * extracted again (into the same Path) only when the trim params change.
+         * @param source The untransformed path for the current scale
+         */
+        private Path getTrimmedPath(Path source) {
+            LayerState state = mState;
+            if (mTrimSource != source) {
+                measureContours(source);
+                mTrimSource = source;
+            } else if (mTrimPathStart == state.mTrimStart && mTrimPathEnd == state.mTrimEnd
+                    && mTrimPathOffset == state.mTrimOffset) {
+                return mTrimPath;
+            }
+            mTrimPathStart = state.mTrimStart;
+            mTrimPathEnd = state.mTrimEnd;
+            mTrimPathOffset = state.mTrimOffset;
+            mDrawPathValid = false;
+
+            Path path = mTrimPath;
+            path.rewind();
+            path.setFillType(source.getFillType());
+            float total = mTrimLengths[mTrimContours];
+            // the same semantics as the trimPath* attributes of VectorDrawable
+            float start = fraction(state.mTrimStart + state.mTrimOffset) * total;
+            float end = fraction(state.mTrimEnd + state.mTrimOffset) * total;
+            if (start > end) {
+                extractSegment(start, total, path);
+                extractSegment(0, end, path);
+            } else {
+                extractSegment(start, end, path);
+            }
+            // draw the caps of a zero length segment, but nothing if nothing is extracted
+            // (like VectorDrawable), rLineTo() would add moveTo(0, 0) to the empty path
+            if (!path.isEmpty()) {
+                path.rLineTo(0, 0);
+            }
+            return path;
+        }
+
+        private static float fraction(float value) {
+            float f = value % 1;
+            return f < 0 ? f + 1 : f;
+        }
+
+        private void extractSegment(float start, float end, Path path) {
+            float[] lengths = mTrimLengths;
+            for (int i = 0; i < mTrimContours; i++) {
+                float from = lengths[i];
+                float to = lengths[i + 1];
+                if (to <= start || from >= end) {
+                    continue;
+                }
+                float segmentStart = Math.max(start, from) - from;
+                float segmentEnd = Math.min(end, to) - from;
+                mTrimMeasures[i].getSegment(segmentStart, segmentEnd, path, true);
+                if (mTrimClosed[i] && segmentStart == 0 && segmentEnd == to - from) {
+                    path.close();
+                }
+            }
+        }
+
+        /**
+         * Measure every contour of the path, each one with its own PathMeasure since
+         * PathMeasure cannot go back to the previous contours. The PathMeasures and
+         * contour Paths are reused, so morphing a trimmed layer does not allocate.
+         */
+        private void measureContours(Path source) {
+            if (mTrimPath == null) {
+                mTrimPath = new Path();
+                mTrimMeasure = new PathMeasure();
+                mTrimMeasures = new PathMeasure[1];
+                mTrimContourPaths = new Path[1];
+                mTrimClosed = new boolean[1];
+                mTrimLengths = new float[2];
+            }
+            PathMeasure measure = mTrimMeasure;
+            measure.setPath(source, false);
+            int count = 0;
+            do {
+                count++;
+            } while (measure.nextContour());
+            if (mTrimMeasures.length < count) {
+                PathMeasure[] measures = new PathMeasure[count];
+                System.arraycopy(mTrimMeasures, 0, measures, 0, mTrimMeasures.length);
+                mTrimMeasures = measures;
+                Path[] contours = new Path[count];
+                System.arraycopy(mTrimContourPaths, 0, contours, 0, mTrimContourPaths.length);
+                mTrimContourPaths = contours;
+                mTrimClosed = new boolean[count];
+                mTrimLengths = new float[count + 1];
+            }
+            if (count == 1) {
+                PathMeasure contourMeasure = getTrimMeasure(0);
+                contourMeasure.setPath(source, false);
+                mTrimClosed[0] = contourMeasure.isClosed();
+                mTrimLengths[1] = contourMeasure.getLength();
+            } else {
+                measure.setPath(source, false);
+                for (int i = 0; i < count; i++) {
+                    Path contour = mTrimContourPaths[i];
+                    if (contour == null) {
+                        contour = mTrimContourPaths[i] = new Path();
+                    } else {
+                        contour.rewind();
+                    }
+                    float length = measure.getLength();
+                    measure.getSegment(0, length, contour, true);
+                    getTrimMeasure(i).setPath(contour, false);
+                    mTrimClosed[i] = measure.isClosed();
+                    mTrimLengths[i + 1] = mTrimLengths[i] + length;
+                    measure.nextContour();
+                }
+            }
+            mTrimContours = count;
+        }
+
+        private PathMeasure getTrimMeasure(int i) {
+            PathMeasure measure = mTrimMeasures[i];
+            if (measure == null) {
+                measure = mTrimMeasures[i] = new PathMeasure();
+            }
+            return measure;
+        }
+
+        private boolean canDrawWithMatrix() {
+            Paint paint = mState.mPaint;
+            return paint.getShader() == null && paint.getPathEffect() == null
+                    && paint.getMaskFilter() == null;
+        }
+
+        /**
+         * Draw the untransformed path, the canvas matrix scales it so the stroke width
+         * is divided by the scale to keep it in pixels.
+         */
+        private void drawWithMatrix(Canvas canvas, Path path, float scale) {
+            Paint paint = mState.mPaint;
+            float strokeWidth = paint.getStrokeWidth();
+            if (strokeWidth == 0) {
+                // hairlines are not scaled
+                canvas.drawPath(path, paint);
+            } else {
+                paint.setStrokeWidth(strokeWidth / scale);
+                canvas.drawPath(path, paint);
+                paint.setStrokeWidth(strokeWidth);
+            }
         }
 
         private void draw(Canvas canvas) {
-            canvas.drawPath(mDrawPath, mPaint);
+            canvas.drawPath(mDrawPath, mState.mPaint);
         }
     }
 }
@@ -0,0 +1,283 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Process wide LRU cache of parsed PathDrawable xml files (and compiled assets).
+ * <p>
+ * The entries are keyed by the xml resource id and the current {@link Configuration}
+ * so creating a new {@link PathDrawable} from the same xml file does not parse it
+ * again. The size of the cache is bounded by the estimated number of bytes used by
+ * the parsed templates (and the geometry they build on demand when drawn), see
+ * {@link #setMaxSize(int)}.
+ */
+public final class PathDrawableCache {
+    private static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    // the Key objects, anything with equals() and hashCode() in the tests
+    private static final LinkedHashMap<Object, PathTemplate> sTemplates = new LinkedHashMap<>(16, 0.75f, true);
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sSize;
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private PathDrawableCache() {
+    }
+
+    private static final class Key {
+        // xml resource id or compiled asset name
+        final Object mSource;
+        final Configuration mConfiguration;
+
+        Key(Object source, Configuration configuration) {
+            mSource = source;
+            mConfiguration = configuration;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mSource.equals(other.mSource) && mConfiguration.equals(other.mConfiguration);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mSource.hashCode() + mConfiguration.hashCode();
+        }
+
+        /**
+         * @return the key to store in the cache, the Configuration of Resources
+         * is updated in place so it is copied
+         */
+        Key copy() {
+            return new Key(mSource, new Configuration(mConfiguration));
+        }
+    }
+
+    /**
+     * Get the parsed template of the given xml file, parsing it if needed.
+     * @param res Resources to use
+     * @param resId Xml file resource id
+     * @param executor Executor used for parsing the path data, null for the shared pool
+     * @return the parsed template
+     */
+    static PathTemplate get(Resources res, int resId, Executor executor)
+            throws XmlPullParserException, IOException {
+        Key key = new Key(resId, res.getConfiguration());
+        PathTemplate template = lookup(key);
+        if (template == null) {
+            // parse outside the lock, two threads may parse the same file at the same time
+            // but the result is the same
+            PathMetrics.Listener metrics = PathMetrics.sListener;
+            long start = metrics != null ? System.nanoTime() : 0;
+            PathMetrics.beginSection("PathDrawable#parse");
+            try {
+                template = PathTemplate.inflate(res, resId, executor);
+            } finally {
+                PathMetrics.endSection();
+            }
+            if (metrics != null) {
+                metrics.onParse(resId, System.nanoTime() - start, PathMetrics.getGeometry(template));
+            }
+            if (template.mCacheable) {
+                put(key.copy(), template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Get the parsed template of the given xml file if it is already cached.
+     * @param res Resources to use
+     * @param resId Xml file resource id
+     * @return the parsed template or null
+     */
+    static PathTemplate getCached(Resources res, int resId) {
+        Key key = new Key(resId, res.getConfiguration());
+        synchronized (sTemplates) {
+            PathTemplate template = sTemplates.get(key);
+            if (template != null) {
+                sHitCount++;
+            }
+            return template;
+        }
+    }
+
+    /**
+     * Get the template of the given compiled asset, reading it if needed.
+     * @param res Resources to use
+     * @param packageName The package used to resolve the references
+     * @param assetName The compiled asset name
+     * @return the template
+     */
+    static PathTemplate getAsset(Resources res, String packageName, String assetName) throws IOException {
+        Key key = new Key(assetName, res.getConfiguration());
+        PathTemplate template = lookup(key);
+        if (template == null) {
+            PathMetrics.Listener metrics = PathMetrics.sListener;
+            long start = metrics != null ? System.nanoTime() : 0;
+            PathMetrics.beginSection("PathDrawable#parse");
+            try {
+                InputStream in = res.getAssets().open(assetName, AssetManager.ACCESS_STREAMING);
+                try {
+                    template = PathTemplate.read(res, packageName, in);
+                } finally {
+                    in.close();
+                }
+            } finally {
+                PathMetrics.endSection();
+            }
+            if (metrics != null) {
+                metrics.onParse(assetName, System.nanoTime() - start, PathMetrics.getGeometry(template));
+            }
+            if (template.mCacheable) {
+                put(key.copy(), template);
+            }
+        }
+        return template;
+    }
+
+    static PathTemplate lookup(Object key) {
+        synchronized (sTemplates) {
+            PathTemplate template = sTemplates.get(key);
+            if (template != null) {
+                sHitCount++;
+            } else {
+                sMissCount++;
+            }
+            return template;
+        }
+    }
+
+    /**
+     * @param key The key, not changed after this call
+     * @param template The cacheable template
+     */
+    static void put(Object key, PathTemplate template) {
+        synchronized (sTemplates) {
+            PathTemplate previous = sTemplates.put(key, template);
+            if (previous != null) {
+                sSize -= previous.getByteSize();
+                previous.mCached = false;
+            }
+            sSize += template.getByteSize();
+            template.mCached = true;
+            trimToSize(sMaxSize);
+        }
+    }
+
+    private static void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Object, PathTemplate>> it = sTemplates.entrySet().iterator();
+        while (sSize > maxSize && it.hasNext()) {
+            PathTemplate template = it.next().getValue();
+            it.remove();
+            sSize -= template.getByteSize();
+            template.mCached = false;
+            sEvictionCount++;
+        }
+    }
+
+    /**
+     * Account the geometry built on demand by the template's layers (the native
+     * paths, the simplified paths and the hit shapes), so the cached templates
+     * stay within the maximum size as they grow.
+     * @param template The template
+     * @param size The estimated size of the new geometry in bytes
+     */
+    static void addGeometrySize(PathTemplate template, int size) {
+        synchronized (sTemplates) {
+            template.mGeometrySize += size;
+            if (template.mCached) {
+                sSize += size;
+                trimToSize(sMaxSize);
+            }
+        }
+    }
+
+    /**
+     * Set the maximum estimated size of the cache in bytes.
+     * @param maxSize the maximum size, 0 disables the cache
+     */
+    public static void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0");
+        }
+        synchronized (sTemplates) {
+            sMaxSize = maxSize;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * @return the maximum estimated size of the cache in bytes
+     */
+    public static int getMaxSize() {
+        synchronized (sTemplates) {
+            return sMaxSize;
+        }
+    }
+
+    /**
+     * @return the estimated size of the cached templates in bytes
+     */
+    public static int getSize() {
+        synchronized (sTemplates) {
+            return sSize;
+        }
+    }
+
+    /**
+     * @return the number of times a requested xml file was found in the cache
+     */
+    public static int getHitCount() {
+        synchronized (sTemplates) {
+            return sHitCount;
+        }
+    }
+
+    /**
+     * @return the number of times a requested xml file had to be parsed
+     */
+    public static int getMissCount() {
+        synchronized (sTemplates) {
+            return sMissCount;
+        }
+    }
+
+    /**
+     * @return the number of templates removed to keep the cache within its size
+     */
+    public static int getEvictionCount() {
+        synchronized (sTemplates) {
+            return sEvictionCount;
+        }
+    }
+
+    /**
+     * Remove all the cached templates, e.g. in {@link android.content.ComponentCallbacks#onLowMemory()}.
+     */
+    public static void clear() {
+        synchronized (sTemplates) {
+            for (PathTemplate template : sTemplates.values()) {
+                template.mCached = false;
+            }
+            sTemplates.clear();
+            sSize = 0;
+        }
+    }
+}
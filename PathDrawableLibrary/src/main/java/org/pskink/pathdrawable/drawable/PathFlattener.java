@@ -0,0 +1,202 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Path;
+import android.graphics.PathMeasure;
+
+/**
+ * Builds a simplified (polyline) version of a Path for the level of detail mode,
+ * see {@link PathDrawable#setLevelOfDetailEnabled(boolean)}.
+ * <p>
+ * Every contour is flattened by sampling it with the step equal to the tolerance
+ * (so no point of the contour is more than tolerance / 2 away from the polyline)
+ * and then the points are reduced with the Douglas-Peucker algorithm using the
+ * other half of the tolerance. The zero length contours (the dots drawn by the caps)
+ * are kept as a moveTo/lineTo pair, see {@link ZeroLengthContours}.
+ */
+final class PathFlattener {
+    private final PathMeasure mMeasure = new PathMeasure();
+    private final float[] mPos = new float[2];
+    private float[] mPoints = new float[64];
+    private boolean[] mKeep = new boolean[32];
+    private int[] mStack = new int[64];
+    // the number of points of the last path built by flatten()
+    private int mPointCount;
+
+    /**
+     * @param data The path data of the source
+     * @param source The path to simplify
+     * @param tolerance The maximum distance between the source and the simplified path
+     * @param maxPoints The maximum number of points of the simplified path
+     * @return the simplified path or null if it would need more than maxPoints points,
+     * in that case the source path should be used as is
+     */
+    Path flatten(PathData data, Path source, float tolerance, int maxPoints) {
+        // the zero length contours are measured without and kept as they are
+        ZeroLengthContours dots = new ZeroLengthContours(null);
+        data.toPath(dots, new float[6]);
+        dots.end();
+        Path.FillType fillType = source.getFillType();
+        if (dots.getCount() > 0) {
+            Path measured = new Path();
+            ZeroLengthContours filter = new ZeroLengthContours(new AndroidPathSink(measured));
+            data.toPath(filter, new float[6]);
+            filter.end();
+            source = measured;
+        }
+        PathMeasure measure = mMeasure;
+        measure.setPath(source, false);
+
+        // check the sample count first so nothing is allocated for large scales
+        int total = 2 * dots.getCount();
+        do {
+            total += (int) Math.ceil(measure.getLength() / tolerance) + 1;
+            if (total > maxPoints) {
+                return null;
+            }
+        } while (measure.nextContour());
+
+        final Path path = new Path();
+        path.setFillType(fillType);
+        mPointCount = 2 * dots.getCount();
+        flatten(source, tolerance, new ContourSink() {
+            @Override
+            public void addContour(float[] points, boolean[] keep, int count, boolean closed) {
+                path.moveTo(points[0], points[1]);
+                mPointCount++;
+                for (int i = 1; i < count; i++) {
+                    if (keep[i]) {
+                        path.lineTo(points[2 * i], points[2 * i + 1]);
+                        mPointCount++;
+                    }
+                }
+                if (closed) {
+                    path.close();
+                }
+            }
+        });
+        float[] points = dots.getPoints();
+        for (int i = 0; i < dots.getCount(); i++) {
+            path.moveTo(points[2 * i], points[2 * i + 1]);
+            path.lineTo(points[2 * i], points[2 * i + 1]);
+        }
+        return path;
+    }
+
+    /**
+     * @return the number of points of the path returned by the last
+     * {@link #flatten(PathData, Path, float, int)}
+     */
+    int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Receives the simplified contours from {@link #flatten(Path, float, ContourSink)}.
+     */
+    interface ContourSink {
+        /**
+         * @param points The sampled points (x, y pairs), only valid during this call
+         * @param keep Whether every point is kept by the simplification, the first
+         *             and the last one always are
+         * @param count The number of the sampled points
+         * @param closed Whether the contour is closed
+         */
+        void addContour(float[] points, boolean[] keep, int count, boolean closed);
+    }
+
+    /**
+     * Simplify every (not empty) contour of the path and pass it to the sink.
+     * @param source The path to simplify
+     * @param tolerance The maximum distance between the source and the simplified path
+     * @param sink The receiver of the contours
+     */
+    void flatten(Path source, float tolerance, ContourSink sink) {
+        PathMeasure measure = mMeasure;
+        float step = tolerance;
+        float epsilon = tolerance / 2;
+        measure.setPath(source, false);
+        do {
+            float length = measure.getLength();
+            if (length == 0) {
+                continue;
+            }
+            int count = (int) Math.ceil(length / step) + 1;
+            float[] points = ensurePoints(count);
+            for (int i = 0; i < count; i++) {
+                measure.getPosTan(Math.min(i * step, length), mPos, null);
+                points[2 * i] = mPos[0];
+                points[2 * i + 1] = mPos[1];
+            }
+            boolean[] keep = mKeep;
+            simplify(points, count, epsilon, keep, mStack);
+            sink.addContour(points, keep, count, measure.isClosed());
+        } while (measure.nextContour());
+    }
+
+    private float[] ensurePoints(int count) {
+        if (mPoints.length < 2 * count) {
+            mPoints = new float[2 * count];
+            mKeep = new boolean[count];
+            mStack = new int[2 * count];
+        }
+        return mPoints;
+    }
+
+    /**
+     * Douglas-Peucker, iterative so long contours do not overflow the stack.
+     * @param points The points (x, y pairs) of the polyline
+     * @param count The number of the points
+     * @param epsilon The maximum distance of the left out points from the result
+     * @param keep Receives whether every point is kept, at least count entries
+     * @param stack The scratch array of at least 2 * count entries
+     */
+    static void simplify(float[] points, int count, float epsilon, boolean[] keep, int[] stack) {
+        for (int i = 0; i < count; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+        float epsilonSq = epsilon * epsilon;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            float x0 = points[2 * first];
+            float y0 = points[2 * first + 1];
+            float dx = points[2 * last] - x0;
+            float dy = points[2 * last + 1] - y0;
+            float lengthSq = dx * dx + dy * dy;
+
+            int index = -1;
+            float maxDistanceSq = epsilonSq;
+            for (int i = first + 1; i < last; i++) {
+                float px = points[2 * i] - x0;
+                float py = points[2 * i + 1] - y0;
+                // the distance from the segment (not the line), the contour can turn back
+                float t = lengthSq == 0 ? 0 : (px * dx + py * dy) / lengthSq;
+                if (t < 0) {
+                    t = 0;
+                } else if (t > 1) {
+                    t = 1;
+                }
+                px -= t * dx;
+                py -= t * dy;
+                float distanceSq = px * px + py * py;
+                if (distanceSq > maxDistanceSq) {
+                    maxDistanceSq = distanceSq;
+                    index = i;
+                }
+            }
+            if (index != -1) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.pskink.pathdrawable.drawable;
+
+import java.util.BitSet;
+
+/**
+ * Uniform grid over the layers' bounds (in the path coordinates) used to find the
+ * layers that may be hit, see {@link PathDrawable#findLayerAt(float, float)}.
+ * Every cell keeps the indices of the layers whose bounds intersect it, the layers
+ * with unknown bounds (e.g. morphing ones) are candidates everywhere.
+ */
+final class PathHitIndex {
+    private static final int MAX_CELLS = 64;
+
+    private final int mLayerCount;
+    private final int mColumns;
+    private final int mRows;
+    private final float mLeft;
+    private final float mTop;
+    private final float mCellWidth;
+    private final float mCellHeight;
+    // the ascending layer indices of every cell, row by row
+    private final int[][] mCells;
+    // the layers with unknown bounds
+    private final int[] mUnbounded;
+
+    /**
+     * @param bounds The bounds of every layer (left, top, right, bottom), NaN left if
+     *               not known
+     * @param count The number of layers
+     */
+    PathHitIndex(float[] bounds, int count) {
+        mLayerCount = count;
+        float unionLeft = 0;
+        float unionTop = 0;
+        float unionRight = 0;
+        float unionBottom = 0;
+        boolean any = false;
+        int unbounded = 0;
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(bounds[4 * i])) {
+                unbounded++;
+            } else if (!any) {
+                unionLeft = bounds[4 * i];
+                unionTop = bounds[4 * i + 1];
+                unionRight = bounds[4 * i + 2];
+                unionBottom = bounds[4 * i + 3];
+                any = true;
+            } else {
+                unionLeft = Math.min(unionLeft, bounds[4 * i]);
+                unionTop = Math.min(unionTop, bounds[4 * i + 1]);
+                unionRight = Math.max(unionRight, bounds[4 * i + 2]);
+                unionBottom = Math.max(unionBottom, bounds[4 * i + 3]);
+            }
+        }
+        int side = Math.max(1, Math.min((int) Math.ceil(Math.sqrt(count)), MAX_CELLS));
+        mColumns = side;
+        mRows = side;
+        mLeft = unionLeft;
+        mTop = unionTop;
+        float width = unionRight - unionLeft;
+        float height = unionBottom - unionTop;
+        mCellWidth = width > 0 ? width / side : 1;
+        mCellHeight = height > 0 ? height / side : 1;
+
+        mUnbounded = new int[unbounded];
+        unbounded = 0;
+        int[] sizes = new int[side * side];
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(bounds[4 * i])) {
+                mUnbounded[unbounded++] = i;
+                continue;
+            }
+            int left = getColumn(bounds[4 * i]);
+            int right = getColumn(bounds[4 * i + 2]);
+            for (int row = getRow(bounds[4 * i + 1]); row <= getRow(bounds[4 * i + 3]); row++) {
+                for (int column = left; column <= right; column++) {
+                    sizes[row * side + column]++;
+                }
+            }
+        }
+        mCells = new int[side * side][];
+        for (int c = 0; c < mCells.length; c++) {
+            mCells[c] = new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(bounds[4 * i])) {
+                continue;
+            }
+            int left = getColumn(bounds[4 * i]);
+            int right = getColumn(bounds[4 * i + 2]);
+            for (int row = getRow(bounds[4 * i + 1]); row <= getRow(bounds[4 * i + 3]); row++) {
+                for (int column = left; column <= right; column++) {
+                    int c = row * side + column;
+                    mCells[c][sizes[c]++] = i;
+                }
+            }
+        }
+    }
+
+    private int getColumn(float x) {
+        int column = (int) ((x - mLeft) / mCellWidth);
+        return Math.max(0, Math.min(column, mColumns - 1));
+    }
+
+    private int getRow(float y) {
+        int row = (int) ((y - mTop) / mCellHeight);
+        return Math.max(0, Math.min(row, mRows - 1));
+    }
+
+    /**
+     * @return the number of layers the index was built for
+     */
+    int getLayerCount() {
+        return mLayerCount;
+    }
+
+    /**
+     * Set the bits of the layers that may intersect the rectangle, the cells at the
+     * grid's edges cover everything outside the grid too, the bounds are checked by
+     * the caller.
+     * @param out The candidate layers, cleared first
+     */
+    void query(float left, float top, float right, float bottom, BitSet out) {
+        out.clear();
+        int firstColumn = getColumn(left);
+        int lastColumn = getColumn(right);
+        for (int row = getRow(top); row <= getRow(bottom); row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int i : mCells[row * mColumns + column]) {
+                    out.set(i);
+                }
+            }
+        }
+        for (int i : mUnbounded) {
+            out.set(i);
+        }
+    }
+}
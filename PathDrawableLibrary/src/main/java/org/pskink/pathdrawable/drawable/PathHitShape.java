@@ -0,0 +1,259 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Path;
+import android.graphics.Path.FillType;
+import android.graphics.RectF;
+
+/**
+ * The geometry of one layer used for hit testing, see {@link PathDrawable#findLayerAt(float, float)}.
+ * <p>
+ * The path is flattened (in the path coordinates) into line edges which are sorted
+ * into horizontal bands, so the fill rule test (the winding number of a horizontal
+ * ray) and the distance test (for strokes) only check the edges of the bands the
+ * point is in. The open contours get an implicit closing edge used only for the fill.
+ */
+final class PathHitShape {
+    // the tolerance of flattening relative to the larger side of the path bounds
+    private static final float TOLERANCE_FRACTION = 1 / 1024f;
+    private static final int EDGES_PER_BAND = 8;
+    private static final int MAX_BANDS = 64;
+
+    final RectF mBounds = new RectF();
+    final boolean mEvenOdd;
+    final boolean mInverse;
+    // x0, y0, x1, y1 of every edge
+    private float[] mEdges = new float[64];
+    // whether the edge closes an open contour, so it is not stroked
+    private boolean[] mImplicit = new boolean[16];
+    private int mEdgeCount;
+    private int[][] mBands;
+    private float mBandTop;
+    private float mBandHeight;
+
+    PathHitShape(Path path) {
+        path.computeBounds(mBounds, false);
+        FillType fillType = path.getFillType();
+        mEvenOdd = fillType == FillType.EVEN_ODD || fillType == FillType.INVERSE_EVEN_ODD;
+        mInverse = fillType == FillType.INVERSE_WINDING || fillType == FillType.INVERSE_EVEN_ODD;
+        float size = Math.max(mBounds.width(), mBounds.height());
+        float tolerance = size > 0 ? size * TOLERANCE_FRACTION : TOLERANCE_FRACTION;
+        new PathFlattener().flatten(path, tolerance, new PathFlattener.ContourSink() {
+            @Override
+            public void addContour(float[] points, boolean[] keep, int count, boolean closed) {
+                int last = 0;
+                for (int i = 1; i < count; i++) {
+                    if (keep[i]) {
+                        addEdge(points[2 * last], points[2 * last + 1], points[2 * i], points[2 * i + 1], false);
+                        last = i;
+                    }
+                }
+                addEdge(points[2 * last], points[2 * last + 1], points[0], points[1], !closed);
+            }
+        });
+        buildBands();
+    }
+
+    /**
+     * @return the estimated number of bytes used by the edges and bands
+     */
+    int getByteSize() {
+        int size = 4 * mEdges.length + mImplicit.length + 4 * mBands.length;
+        for (int[] band : mBands) {
+            size += 16 + 4 * band.length;
+        }
+        return 64 + size;
+    }
+
+    private void addEdge(float x0, float y0, float x1, float y1, boolean implicit) {
+        if (x0 == x1 && y0 == y1) {
+            return;
+        }
+        int n = mEdgeCount;
+        if (4 * n + 4 > mEdges.length) {
+            mEdges = PathParser.copyOfRange(mEdges, 0, 2 * mEdges.length);
+            boolean[] flags = new boolean[2 * mImplicit.length];
+            System.arraycopy(mImplicit, 0, flags, 0, n);
+            mImplicit = flags;
+        }
+        float[] edges = mEdges;
+        edges[4 * n] = x0;
+        edges[4 * n + 1] = y0;
+        edges[4 * n + 2] = x1;
+        edges[4 * n + 3] = y1;
+        mImplicit[n] = implicit;
+        mEdgeCount = n + 1;
+    }
+
+    private void buildBands() {
+        int bandCount = Math.max(1, Math.min(mEdgeCount / EDGES_PER_BAND, MAX_BANDS));
+        mBandTop = mBounds.top;
+        mBandHeight = mBounds.height() > 0 ? mBounds.height() / bandCount : 1;
+        int[] sizes = new int[bandCount];
+        float[] edges = mEdges;
+        for (int i = 0; i < mEdgeCount; i++) {
+            int first = getBand(Math.min(edges[4 * i + 1], edges[4 * i + 3]), bandCount);
+            int last = getBand(Math.max(edges[4 * i + 1], edges[4 * i + 3]), bandCount);
+            for (int b = first; b <= last; b++) {
+                sizes[b]++;
+            }
+        }
+        int[][] bands = new int[bandCount][];
+        for (int b = 0; b < bandCount; b++) {
+            bands[b] = new int[sizes[b]];
+            sizes[b] = 0;
+        }
+        for (int i = 0; i < mEdgeCount; i++) {
+            int first = getBand(Math.min(edges[4 * i + 1], edges[4 * i + 3]), bandCount);
+            int last = getBand(Math.max(edges[4 * i + 1], edges[4 * i + 3]), bandCount);
+            for (int b = first; b <= last; b++) {
+                bands[b][sizes[b]++] = i;
+            }
+        }
+        mBands = bands;
+    }
+
+    private int getBand(float y, int bandCount) {
+        int band = (int) ((y - mBandTop) / mBandHeight);
+        return Math.max(0, Math.min(band, bandCount - 1));
+    }
+
+    /**
+     * @return the number of edges, the implicit ones included
+     */
+    int getEdgeCount() {
+        return mEdgeCount;
+    }
+
+    /**
+     * @return whether the point is inside the filled area according to the fill type
+     */
+    boolean contains(float x, float y) {
+        if (x < mBounds.left || x > mBounds.right || y < mBounds.top || y > mBounds.bottom) {
+            return mInverse;
+        }
+        float[] edges = mEdges;
+        int winding = 0;
+        for (int i : mBands[getBand(y, mBands.length)]) {
+            winding += crossing(edges[4 * i], edges[4 * i + 1], edges[4 * i + 2], edges[4 * i + 3], x, y);
+        }
+        boolean inside = mEvenOdd ? (winding & 1) != 0 : winding != 0;
+        return inside != mInverse;
+    }
+
+    /**
+     * Check if the point is within the radius from any edge, the distance is measured
+     * in pixels after scaling the path coordinates by (scaleX, scaleY).
+     * @param implicit Whether to check the implicit closing edges (not stroked) too
+     */
+    boolean isNear(float x, float y, float scaleX, float scaleY, float radius, boolean implicit) {
+        float rx = radius / scaleX;
+        float ry = radius / scaleY;
+        if (x < mBounds.left - rx || x > mBounds.right + rx
+                || y < mBounds.top - ry || y > mBounds.bottom + ry) {
+            return false;
+        }
+        float[] edges = mEdges;
+        float radiusSq = radius * radius;
+        int first = getBand(y - ry, mBands.length);
+        int last = getBand(y + ry, mBands.length);
+        for (int b = first; b <= last; b++) {
+            for (int i : mBands[b]) {
+                if (mImplicit[i] && !implicit) {
+                    continue;
+                }
+                if (distanceSq(edges[4 * i], edges[4 * i + 1], edges[4 * i + 2], edges[4 * i + 3],
+                        x, y, scaleX, scaleY) <= radiusSq) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param implicit Whether to check the implicit closing edges (not stroked) too
+     * @return whether any edge intersects the rectangle
+     */
+    boolean intersects(RectF rect, boolean implicit) {
+        RectF bounds = mBounds;
+        if (bounds.left > rect.right || bounds.right < rect.left
+                || bounds.top > rect.bottom || bounds.bottom < rect.top) {
+            return false;
+        }
+        float[] edges = mEdges;
+        int first = getBand(rect.top, mBands.length);
+        int last = getBand(rect.bottom, mBands.length);
+        for (int b = first; b <= last; b++) {
+            for (int i : mBands[b]) {
+                if (mImplicit[i] && !implicit) {
+                    continue;
+                }
+                if (intersects(edges[4 * i], edges[4 * i + 1], edges[4 * i + 2], edges[4 * i + 3],
+                        rect.left, rect.top, rect.right, rect.bottom)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the winding number change of the horizontal ray going right from (x, y):
+     * 1 if the edge going to the larger y crosses it, -1 if the edge going to the
+     * smaller y does, otherwise 0. The lower y end of the edge is included and
+     * the other one is not, so a ray through a vertex is counted once.
+     */
+    static int crossing(float x0, float y0, float x1, float y1, float x, float y) {
+        float side = (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0);
+        if (y0 <= y) {
+            if (y1 > y && side > 0) {
+                return 1;
+            }
+        } else if (y1 <= y && side < 0) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the squared distance between the point and the edge after scaling
+     * both by (scaleX, scaleY)
+     */
+    static float distanceSq(float x0, float y0, float x1, float y1, float x, float y,
+            float scaleX, float scaleY) {
+        float dx = (x1 - x0) * scaleX;
+        float dy = (y1 - y0) * scaleY;
+        float px = (x - x0) * scaleX;
+        float py = (y - y0) * scaleY;
+        float lengthSq = dx * dx + dy * dy;
+        float t = lengthSq == 0 ? 0 : (px * dx + py * dy) / lengthSq;
+        if (t < 0) {
+            t = 0;
+        } else if (t > 1) {
+            t = 1;
+        }
+        px -= t * dx;
+        py -= t * dy;
+        return px * px + py * py;
+    }
+
+    /**
+     * @return whether the edge intersects the rectangle (its border included)
+     */
+    static boolean intersects(float x0, float y0, float x1, float y1,
+            float left, float top, float right, float bottom) {
+        if (Math.max(x0, x1) < left || Math.min(x0, x1) > right
+                || Math.max(y0, y1) < top || Math.min(y0, y1) > bottom) {
+            return false;
+        }
+        // the boxes overlap, so the segment misses the rectangle only if all its
+        // corners are on the same side of the line
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float s0 = dx * (top - y0) - (left - x0) * dy;
+        float s1 = dx * (top - y0) - (right - x0) * dy;
+        float s2 = dx * (bottom - y0) - (left - x0) * dy;
+        float s3 = dx * (bottom - y0) - (right - x0) * dy;
+        return !(s0 > 0 && s1 > 0 && s2 > 0 && s3 > 0) && !(s0 < 0 && s1 < 0 && s2 < 0 && s3 < 0);
+    }
+}
@@ -0,0 +1,240 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Opt-in timing and geometry metrics of the PathDrawables, e.g. to find out whether
+ * the jank comes from parsing, transforming the paths or drawing them.
+ * <p>
+ * Nothing is measured (not even System.nanoTime() is called) while no listener is set.
+ * Independently of the listener the parsing, bounds change, transform and draw are
+ * marked by the "PathDrawable#..." sections of the system traces (systrace) on API 18+.
+ */
+public final class PathMetrics {
+    // the rough native size of an empty Path (SkPath and its SkPathRef)
+    private static final int PATH_OVERHEAD = 96;
+
+    static final boolean TRACE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    static volatile Listener sListener;
+
+    private PathMetrics() {
+    }
+
+    /**
+     * Interface definition for the callbacks invoked with the metrics, see
+     * {@link #setListener(Listener)}. They are called on the thread doing the work,
+     * so they should be fast and thread safe.
+     */
+    public interface Listener {
+        /**
+         * Called after an xml file or compiled asset is parsed (not when it is found
+         * in the {@link PathDrawableCache}).
+         * @param source The xml resource id (Integer) or the compiled asset name (String)
+         * @param nanos The time of parsing in nanoseconds
+         * @param geometry The geometry of the parsed layers
+         */
+        public void onParse(Object source, long nanos, Geometry geometry);
+
+        /**
+         * Called after a PathDrawable is created from the parsed xml file or asset
+         * (for {@link PathDrawable#loadAsync} when it is loaded), the time includes
+         * building the source paths of the layers.
+         * @param drawable
+         * @param nanos The time of inflating in nanoseconds
+         */
+        public void onInflate(PathDrawable drawable, long nanos);
+
+        /**
+         * Called by the first draw() after the bounds or the layers change, when the
+         * matrix, batches and culling bounds are updated.
+         * @param drawable
+         * @param nanos The time of the update in nanoseconds
+         */
+        public void onTransform(PathDrawable drawable, long nanos);
+
+        /**
+         * Called after every {@link PathDrawable#draw(Canvas)}.
+         * @param drawable
+         * @param nanos The time of draw() in nanoseconds, onTransform() time included
+         * @param layerNanos The time spent on every layer (in the order of the layers),
+         *                   transforming its path included, 0 for the culled layers and
+         *                   for all of them when the layers are not drawn by this call
+         *                   (the raster cache bitmap is drawn or the tiled rendering is
+         *                   enabled). The time of a batch of layers is counted for its
+         *                   first layer. The array is reused by the next draw() so it
+         *                   must not be kept.
+         */
+        public void onDraw(PathDrawable drawable, long nanos, long[] layerNanos);
+    }
+
+    /**
+     * The verbs, points and the estimated native memory of the paths of the layers.
+     */
+    public static final class Geometry {
+        private final int mLayerCount;
+        private final int mVerbCount;
+        private final int mPointCount;
+        private final long mNativeBytes;
+
+        Geometry(int layerCount, int verbCount, int pointCount, long nativeBytes) {
+            mLayerCount = layerCount;
+            mVerbCount = verbCount;
+            mPointCount = pointCount;
+            mNativeBytes = nativeBytes;
+        }
+
+        public int getLayerCount() {
+            return mLayerCount;
+        }
+
+        /**
+         * @return the number of the path verbs (move, line, quad, cubic, close),
+         * the arcs are converted to cubics
+         */
+        public int getVerbCount() {
+            return mVerbCount;
+        }
+
+        /**
+         * @return the number of the points, the control points included
+         */
+        public int getPointCount() {
+            return mPointCount;
+        }
+
+        /**
+         * @return the estimated native memory of one copy of the paths in bytes,
+         * every drawable keeps its transformed copy too
+         */
+        public long getNativePathBytes() {
+            return mNativeBytes;
+        }
+    }
+
+    /**
+     * Set the listener receiving the metrics of all the PathDrawables.
+     * @param listener The listener, null to stop collecting the metrics
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * @return the listener set by {@link #setListener(Listener)}
+     */
+    public static Listener getListener() {
+        return sListener;
+    }
+
+    static Geometry getGeometry(PathTemplate template) {
+        Counter counter = new Counter();
+        float[] current = new float[6];
+        long bytes = 0;
+        for (PathTemplate.LayerTemplate layer : template.mLayers) {
+            int points = counter.mPoints;
+            int verbs = counter.mVerbs;
+            layer.mPathData.toPath(counter, current);
+            bytes += getPathByteSize(counter.mPoints - points, counter.mVerbs - verbs);
+        }
+        return new Geometry(template.mLayers.length, counter.mVerbs, counter.mPoints, bytes);
+    }
+
+    /**
+     * @return the estimated native size of the Path built from the path data
+     */
+    static int getPathByteSize(PathData data) {
+        Counter counter = new Counter();
+        data.toPath(counter, new float[6]);
+        return getPathByteSize(counter.mPoints, counter.mVerbs);
+    }
+
+    /**
+     * @return the estimated native size of a Path with the given number of points and verbs
+     */
+    static int getPathByteSize(int points, int verbs) {
+        return PATH_OVERHEAD + 8 * points + verbs;
+    }
+
+    static void beginSection(String name) {
+        if (TRACE) {
+            TraceApi18.beginSection(name);
+        }
+    }
+
+    static void endSection() {
+        if (TRACE) {
+            TraceApi18.endSection();
+        }
+    }
+
+    // android.os.Trace is referenced only here, so the older platforms never load it
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static final class TraceApi18 {
+        static void beginSection(String name) {
+            Trace.beginSection(name);
+        }
+
+        static void endSection() {
+            Trace.endSection();
+        }
+    }
+
+    // counts the verbs and points added to a Path by the same calls
+    private static final class Counter implements PathSink {
+        int mVerbs;
+        int mPoints;
+
+        private void add(int points) {
+            mVerbs++;
+            mPoints += points;
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            add(1);
+        }
+
+        @Override
+        public void rMoveTo(float dx, float dy) {
+            add(1);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            add(1);
+        }
+
+        @Override
+        public void rLineTo(float dx, float dy) {
+            add(1);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            add(2);
+        }
+
+        @Override
+        public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+            add(2);
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            add(3);
+        }
+
+        @Override
+        public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            add(3);
+        }
+
+        @Override
+        public void close() {
+            add(0);
+        }
+    }
+}
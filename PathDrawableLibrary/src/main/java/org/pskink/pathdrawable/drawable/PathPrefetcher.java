@@ -0,0 +1,152 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws PathDrawables into the {@link PathRasterCache} bitmaps on background threads
+ * before they are needed, e.g. for the next rows of a list.
+ * <p>
+ * A prefetched bitmap is used by every unmodified PathDrawable created from the same
+ * xml file (or compiled asset) with the raster cache mode enabled
+ * ({@link PathDrawable#setRasterCacheEnabled(boolean)}) and drawn with the same size
+ * and flags, so its first draw() is only a bitmap blit. If such a drawable is drawn
+ * while its bitmap is still being prefetched it is drawn directly meanwhile.
+ * The bitmaps are kept (and reused) according to the raster cache's size, so
+ * prefetching more than fits there is useless.
+ */
+public final class PathPrefetcher {
+    /**
+     * The drawable uses {@link PathDrawable#setLevelOfDetailEnabled(boolean)}.
+     */
+    public static final int FLAG_LEVEL_OF_DETAIL = PathRasterCache.FLAG_LEVEL_OF_DETAIL;
+    /**
+     * The drawable uses {@link PathDrawable#setCanvasMatrixEnabled(boolean)}.
+     */
+    public static final int FLAG_CANVAS_MATRIX = PathRasterCache.FLAG_CANVAS_MATRIX;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static Executor sExecutor;
+
+    private PathPrefetcher() {
+    }
+
+    private interface TemplateSource {
+        PathTemplate get() throws Exception;
+    }
+
+    /**
+     * Prefetch the bitmap of the drawable created by {@link PathDrawable#PathDrawable(Context, int)}.
+     * @param ctx Context to use
+     * @param resId Xml file resource id
+     * @param width The drawable's width
+     * @param height The drawable's height
+     * @param flags {@link #FLAG_LEVEL_OF_DETAIL} and {@link #FLAG_CANVAS_MATRIX} matching
+     *              the modes of the drawable
+     * @param executor The executor to draw on, null for the default one
+     * @return the future done when the bitmap is ready, its get() throws the
+     * ExecutionException if the xml file cannot be parsed
+     */
+    public static Future<Void> prefetch(Context ctx, final int resId, int width, int height,
+            int flags, Executor executor) {
+        final Resources res = ctx.getResources();
+        return submit(res, new TemplateSource() {
+            @Override
+            public PathTemplate get() throws Exception {
+                return PathDrawableCache.get(res, resId, null);
+            }
+        }, width, height, flags, executor);
+    }
+
+    /**
+     * Prefetch the bitmap of the drawable created by {@link PathDrawable#fromAsset(Context, String)}.
+     * @param ctx Context to use
+     * @param assetName Compiled asset name
+     * @see #prefetch(Context, int, int, int, int, Executor)
+     */
+    public static Future<Void> prefetchAsset(Context ctx, final String assetName, int width, int height,
+            int flags, Executor executor) {
+        final Resources res = ctx.getResources();
+        final String packageName = ctx.getPackageName();
+        return submit(res, new TemplateSource() {
+            @Override
+            public PathTemplate get() throws IOException {
+                return PathDrawableCache.getAsset(res, packageName, assetName);
+            }
+        }, width, height, flags, executor);
+    }
+
+    private static Future<Void> submit(final Resources res, final TemplateSource source,
+            final int width, final int height, final int flags, Executor executor) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Both width and height must be > 0");
+        }
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                draw(res, source.get(), width, height, flags);
+                return null;
+            }
+        });
+        if (executor == null) {
+            executor = getExecutor();
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    private static void draw(Resources res, PathTemplate template, int width, int height, int flags) {
+        if (!template.mCacheable) {
+            // not cached, so no drawable would find the bitmap
+            return;
+        }
+        // this call is the owner while drawing, so the entry is not evicted meanwhile
+        Object owner = new Object();
+        PathRasterCache.Entry entry = PathRasterCache.acquire(template, flags, width, height, owner);
+        try {
+            if (PathRasterCache.beginRender(entry)) {
+                boolean done = false;
+                try {
+                    entry.mBitmap.eraseColor(0);
+                    PathDrawable.drawTemplate(template, res, flags, entry.getCanvas(), width, height);
+                    done = true;
+                } finally {
+                    PathRasterCache.endRender(entry, done);
+                }
+            }
+        } finally {
+            PathRasterCache.release(entry, owner);
+        }
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            ThreadFactory factory = new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PathPrefetcher #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            };
+            int threads = Math.max(CPU_COUNT - 1, 1);
+            sExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), factory);
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,302 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide store of the bitmaps used by the raster cache mode of
+ * {@link PathDrawable#setRasterCacheEnabled(boolean)}.
+ * <p>
+ * The entries are keyed by their source (the template the drawables were created
+ * from, or the drawable once it was modified) and the bitmap size, so all
+ * the unmodified PathDrawables created from the same xml file and drawn with the
+ * same size share one bitmap. An entry is referenced by the drawables using it,
+ * the referenced entries are never evicted. The unreferenced ones are kept (in the
+ * LRU order) while the total size is within {@link #setMaxSize(int)}, and their
+ * bitmaps are reused for the new entries of the same size.
+ */
+public final class PathRasterCache {
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    // the properties the content depends on, the flags of the keys
+    static final int FLAG_LEVEL_OF_DETAIL = 1;
+    static final int FLAG_CANVAS_MATRIX = 2;
+
+    private static final LinkedHashMap<Key, Entry> sEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sSize;
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private PathRasterCache() {
+    }
+
+    static final class Key {
+        final Object mSource;
+        final int mFlags;
+        final int mWidth;
+        final int mHeight;
+
+        Key(Object source, int flags, int width, int height) {
+            mSource = source;
+            mFlags = flags;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mSource == other.mSource && mFlags == other.mFlags
+                    && mWidth == other.mWidth && mHeight == other.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(mSource);
+            result = 31 * result + mFlags;
+            result = 31 * result + mWidth;
+            return 31 * result + mHeight;
+        }
+    }
+
+    static final class Entry {
+        final Key mKey;
+        final Bitmap mBitmap;
+        private Canvas mCanvas;
+        // the drawables using this entry, weak so the drawables that are just
+        // dropped do not keep it referenced forever
+        private final ArrayList<WeakReference<Object>> mOwners = new ArrayList<>(1);
+        /**
+         * Whether the bitmap holds the current content, set by the owner after drawing it.
+         */
+        volatile boolean mValid;
+        // whether the bitmap is being drawn, see beginRender()
+        private boolean mRendering;
+
+        Entry(Key key, Bitmap bitmap) {
+            mKey = key;
+            mBitmap = bitmap;
+        }
+
+        boolean matches(Object source, int flags, int width, int height) {
+            Key key = mKey;
+            return key.mSource == source && key.mFlags == flags
+                    && key.mWidth == width && key.mHeight == height;
+        }
+
+        Canvas getCanvas() {
+            if (mCanvas == null) {
+                mCanvas = new Canvas(mBitmap);
+            }
+            return mCanvas;
+        }
+
+        int getByteSize() {
+            return mBitmap.getRowBytes() * mBitmap.getHeight();
+        }
+
+        private boolean isReferenced() {
+            for (int i = mOwners.size() - 1; i >= 0; i--) {
+                if (mOwners.get(i).get() == null) {
+                    mOwners.remove(i);
+                }
+            }
+            return !mOwners.isEmpty();
+        }
+    }
+
+    /**
+     * Get the entry for the given source and size, creating it if needed.
+     * Every acquired entry must be released by {@link #release(Entry, Object)}.
+     * @param source The source of the content
+     * @param flags Other properties the content depends on
+     * @param width The bitmap width
+     * @param height The bitmap height
+     * @param owner The drawable using the entry
+     * @return the entry, if {@link Entry#mValid} is false the bitmap must be drawn
+     */
+    static Entry acquire(Object source, int flags, int width, int height, Object owner) {
+        Key key = new Key(source, flags, width, height);
+        synchronized (sEntries) {
+            Entry entry = sEntries.get(key);
+            if (entry != null) {
+                sHitCount++;
+            } else {
+                sMissCount++;
+                Bitmap bitmap = null;
+                if (sSize + width * height * 4 > sMaxSize) {
+                    bitmap = reuseBitmap(width, height);
+                }
+                if (bitmap == null) {
+                    bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                } else {
+                    bitmap.eraseColor(0);
+                }
+                entry = new Entry(key, bitmap);
+                sEntries.put(key, entry);
+                sSize += entry.getByteSize();
+            }
+            entry.mOwners.add(new WeakReference<>(owner));
+            trimToSize(sMaxSize);
+            return entry;
+        }
+    }
+
+    /**
+     * Start drawing the entry's bitmap, so it is not drawn by two threads at once
+     * (e.g. by {@link PathPrefetcher} and the drawable using the entry).
+     * @return false if the entry is valid or being drawn by another thread,
+     * otherwise {@link #endRender(Entry, boolean)} must be called when done (in
+     * a finally block, or the entry would never be drawn again)
+     */
+    static boolean beginRender(Entry entry) {
+        synchronized (sEntries) {
+            if (entry.mValid || entry.mRendering) {
+                return false;
+            }
+            entry.mRendering = true;
+            return true;
+        }
+    }
+
+    /**
+     * Finish drawing started by {@link #beginRender(Entry)}.
+     * @param done Whether the bitmap was drawn, so the entry becomes valid, false if
+     *             drawing failed and the entry stays invalid
+     */
+    static void endRender(Entry entry, boolean done) {
+        synchronized (sEntries) {
+            entry.mRendering = false;
+            if (done) {
+                entry.mValid = true;
+            }
+        }
+    }
+
+    /**
+     * Release the entry acquired by {@link #acquire}.
+     * @param entry The entry
+     * @param owner The drawable that acquired it
+     */
+    static void release(Entry entry, Object owner) {
+        synchronized (sEntries) {
+            ArrayList<WeakReference<Object>> owners = entry.mOwners;
+            for (int i = 0; i < owners.size(); i++) {
+                if (owners.get(i).get() == owner) {
+                    owners.remove(i);
+                    break;
+                }
+            }
+            trimToSize(sMaxSize);
+        }
+    }
+
+    // take the bitmap of the least recently used unreferenced entry of the same size
+    private static Bitmap reuseBitmap(int width, int height) {
+        Iterator<Entry> it = sEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.mKey.mWidth == width && entry.mKey.mHeight == height && !entry.isReferenced()) {
+                it.remove();
+                sSize -= entry.getByteSize();
+                sEvictionCount++;
+                return entry.mBitmap;
+            }
+        }
+        return null;
+    }
+
+    private static void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Key, Entry>> it = sEntries.entrySet().iterator();
+        while (sSize > maxSize && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (!entry.isReferenced()) {
+                it.remove();
+                sSize -= entry.getByteSize();
+                sEvictionCount++;
+                entry.mBitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * Set the maximum size of the cached bitmaps in bytes. The bitmaps used by the
+     * drawables are not evicted so the size can be temporarily exceeded.
+     * @param maxSize the maximum size, 0 keeps only the bitmaps in use
+     */
+    public static void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0");
+        }
+        synchronized (sEntries) {
+            sMaxSize = maxSize;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * @return the maximum size of the cached bitmaps in bytes
+     */
+    public static int getMaxSize() {
+        synchronized (sEntries) {
+            return sMaxSize;
+        }
+    }
+
+    /**
+     * @return the size of the cached bitmaps in bytes
+     */
+    public static int getSize() {
+        synchronized (sEntries) {
+            return sSize;
+        }
+    }
+
+    /**
+     * @return the number of times a drawable found its bitmap in the cache
+     */
+    public static int getHitCount() {
+        synchronized (sEntries) {
+            return sHitCount;
+        }
+    }
+
+    /**
+     * @return the number of times a new bitmap had to be drawn
+     */
+    public static int getMissCount() {
+        synchronized (sEntries) {
+            return sMissCount;
+        }
+    }
+
+    /**
+     * @return the number of bitmaps removed (or reused) to keep the cache within its size
+     */
+    public static int getEvictionCount() {
+        synchronized (sEntries) {
+            return sEvictionCount;
+        }
+    }
+
+    /**
+     * Remove all the bitmaps not used by any drawable, e.g. in
+     * {@link android.content.ComponentCallbacks#onLowMemory()}.
+     */
+    public static void clear() {
+        synchronized (sEntries) {
+            trimToSize(0);
+        }
+    }
+}
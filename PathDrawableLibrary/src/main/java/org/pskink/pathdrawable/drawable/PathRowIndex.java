@@ -0,0 +1,65 @@
+package org.pskink.pathdrawable.drawable;
+
+import java.util.BitSet;
+
+/**
+ * Horizontal bands over the layers' device bounds used to cull the layers outside
+ * the canvas clip. Every row keeps the indices of the layers crossing it, so the
+ * rows under the clip give the candidate layers in their drawing order.
+ */
+final class PathRowIndex {
+    private final BitSet[] mRows;
+    private final float mTop;
+    private final float mRowHeight;
+
+    /**
+     * @param top The top of the union of the layers' bounds
+     * @param bottom The bottom of the union of the layers' bounds
+     * @param rows The number of rows
+     * @param count The number of layers
+     */
+    PathRowIndex(float top, float bottom, int rows, int count) {
+        mRows = new BitSet[rows];
+        for (int r = 0; r < rows; r++) {
+            mRows[r] = new BitSet(count);
+        }
+        mTop = top;
+        mRowHeight = Math.max((bottom - top) / rows, 1);
+    }
+
+    private int getRow(float y) {
+        int row = (int) ((y - mTop) / mRowHeight);
+        return Math.max(0, Math.min(row, mRows.length - 1));
+    }
+
+    /**
+     * Add the layer to the rows its bounds cross, the rows at the edges cover
+     * everything above and below the index too.
+     */
+    void add(int index, float top, float bottom) {
+        int last = getRow(bottom);
+        for (int r = getRow(top); r <= last; r++) {
+            mRows[r].set(index);
+        }
+    }
+
+    /**
+     * Add the layer with unknown bounds to every row.
+     */
+    void addUnbounded(int index) {
+        for (BitSet row : mRows) {
+            row.set(index);
+        }
+    }
+
+    /**
+     * @param out The layers in the rows intersecting the range, cleared first
+     */
+    void query(float top, float bottom, BitSet out) {
+        out.clear();
+        int last = getRow(bottom);
+        for (int r = getRow(top); r <= last; r++) {
+            out.or(mRows[r]);
+        }
+    }
+}
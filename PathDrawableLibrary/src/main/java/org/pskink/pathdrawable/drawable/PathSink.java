@@ -0,0 +1,31 @@
+package org.pskink.pathdrawable.drawable;
+
+/**
+ * The consumer of the parsed path data: the same calls (with the same meaning) as
+ * the ones of {@link android.graphics.Path}, the arcs are already converted to
+ * cubic Bezier segments.
+ * <p>
+ * The parser feeds an {@link android.graphics.Path} through it, other implementations
+ * passed to {@link PathCommands#parse(CharSequence, PathSink)} can e.g. compute
+ * the bounds, count the segments or export the geometry without creating any native
+ * Path (and without the Android framework at all).
+ */
+public interface PathSink {
+    void moveTo(float x, float y);
+
+    void rMoveTo(float dx, float dy);
+
+    void lineTo(float x, float y);
+
+    void rLineTo(float dx, float dy);
+
+    void quadTo(float x1, float y1, float x2, float y2);
+
+    void rQuadTo(float dx1, float dy1, float dx2, float dy2);
+
+    void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3);
+
+    void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3);
+
+    void close();
+}
@@ -0,0 +1,537 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.graphics.Matrix.ScaleToFit;
+import android.graphics.Paint.Cap;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Drawable.ConstantState;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.util.Xml;
+
+import org.pskink.pathdrawable.lib.R;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable result of parsing a &lt;layers&gt; xml file: everything needed to
+ * create a new {@link PathDrawable} without touching the xml again.
+ */
+final class PathTemplate {
+    // rough per object overhead used when estimating the template size
+    private static final int OBJECT_OVERHEAD = 16;
+    // a HashMap entry with its Float key
+    private static final int MAP_ENTRY_SIZE = 48;
+
+    // see read() and PathDrawableCompiler
+    private static final int MAGIC = 0x50445257;
+    private static final int VERSION = 2;
+    private static final int VALUE_LITERAL = 1;
+    private static final int VALUE_REFERENCE = 2;
+    static final int READ_BUFFER_SIZE = 4096;
+
+    // the resolved references of the compiled templates, "package reference" -> id,
+    // Resources.getIdentifier() is slow and the ids never change in a process
+    private static final HashMap<String, Integer> sIdentifiers = new HashMap<>();
+
+    final float mPathWidth;
+    final float mPathHeight;
+    final Rect mPadding;
+    final ScaleToFit mScaleType;
+    final ConstantState mBackground;
+    final LayerTemplate[] mLayers;
+    final boolean mCacheable;
+    private final Drawable mUncacheableBackground;
+    // the size of the geometry built on demand by the layers, guarded by
+    // PathDrawableCache, see addGeometrySize()
+    int mGeometrySize;
+    // whether the template is in PathDrawableCache, guarded by it
+    boolean mCached;
+
+    static final class LayerTemplate {
+        final String mTag;
+        final PathData mPathData;
+        final int mStrokeColor;
+        final float mStrokeWidth;
+        final Style mStyle;
+        final Cap mCapType;
+        final float mTrimStart;
+        final float mTrimEnd;
+        final float mTrimOffset;
+        private Path mPath;
+        private RectF mBounds;
+        // the geometry caches shared by the layers of all the drawables created from
+        // this template, see PathDrawable.LayerState
+        private final HashMap<Float, Path> mLodPaths = new HashMap<>();
+        private PathHitShape mHitShape;
+        private PathTemplate mOwner;
+
+        LayerTemplate(String tag, PathData pathData, int strokeColor, float strokeWidth, Style style, Cap capType,
+                float trimStart, float trimEnd, float trimOffset) {
+            mTag = tag;
+            mPathData = pathData;
+            mStrokeColor = strokeColor;
+            mStrokeWidth = strokeWidth;
+            mStyle = style;
+            mCapType = capType;
+            mTrimStart = trimStart;
+            mTrimEnd = trimEnd;
+            mTrimOffset = trimOffset;
+        }
+
+        /**
+         * @return the Path built from the path data, shared by all the drawables
+         * created from this template so it must not be modified
+         */
+        Path getPath() {
+            Path path;
+            synchronized (this) {
+                if (mPath != null) {
+                    return mPath;
+                }
+                path = new Path();
+                mPathData.toPath(path);
+                mPath = path;
+            }
+            addGeometrySize(PathMetrics.getPathByteSize(mPathData));
+            return path;
+        }
+
+        /**
+         * @return the hit test geometry of the path, built on the first use
+         */
+        PathHitShape getHitShape() {
+            PathHitShape shape;
+            synchronized (this) {
+                if (mHitShape != null) {
+                    return mHitShape;
+                }
+                shape = new PathHitShape(getPath());
+                mHitShape = shape;
+            }
+            addGeometrySize(shape.getByteSize());
+            return shape;
+        }
+
+        /**
+         * @param scale The scale bucket
+         * @return the path simplified for the scale or null if the path should be used,
+         * see PathDrawable.LayerState
+         */
+        Path getLodPath(float scale) {
+            Path path;
+            int size = MAP_ENTRY_SIZE;
+            synchronized (mLodPaths) {
+                Float key = scale;
+                if (mLodPaths.containsKey(key)) {
+                    return mLodPaths.get(key);
+                }
+                // no use of the simplified path having more points than the original one
+                int maxPoints = mPathData.getParamCount() / 2;
+                PathFlattener flattener = new PathFlattener();
+                path = flattener.flatten(mPathData, getPath(),
+                        PathDrawable.LayerState.LOD_TOLERANCE / scale, maxPoints);
+                mLodPaths.put(key, path);
+                if (path != null) {
+                    int points = flattener.getPointCount();
+                    size += PathMetrics.getPathByteSize(points, points);
+                }
+            }
+            addGeometrySize(size);
+            return path;
+        }
+
+        private void addGeometrySize(int size) {
+            if (mOwner != null) {
+                PathDrawableCache.addGeometrySize(mOwner, size);
+            }
+        }
+
+        /**
+         * @return the tight bounds of the path computed from the path data, shared by
+         * all the drawables created from this template so they must not be modified
+         */
+        synchronized RectF getBounds() {
+            if (mBounds == null) {
+                RectF bounds = new RectF();
+                mPathData.computeBounds(bounds, true);
+                mBounds = bounds;
+            }
+            return mBounds;
+        }
+
+        int getByteSize() {
+            PathData data = mPathData;
+            return 4 * OBJECT_OVERHEAD + (mTag != null ? 2 * mTag.length() : 0)
+                    + data.mCommands.length + 4 * data.mOffsets.length + 4 * data.mParams.length;
+        }
+    }
+
+    PathTemplate(float pathWidth, float pathHeight, Rect padding, ScaleToFit scaleType,
+            Drawable background, LayerTemplate[] layers) {
+        mPathWidth = pathWidth;
+        mPathHeight = pathHeight;
+        mPadding = padding;
+        mScaleType = scaleType;
+        mLayers = layers;
+        for (LayerTemplate layer : layers) {
+            layer.mOwner = this;
+        }
+        ConstantState state = background != null ? background.getConstantState() : null;
+        mBackground = state;
+        // a background without ConstantState cannot be shared, so such a template is
+        // used just once
+        mCacheable = background == null || state != null;
+        mUncacheableBackground = state == null ? background : null;
+    }
+
+    /**
+     * @param res Resources used to create the background
+     * @return a new background Drawable or null if there is no background
+     */
+    Drawable newBackground(Resources res) {
+        return mBackground != null ? mBackground.newDrawable(res) : mUncacheableBackground;
+    }
+
+    /**
+     * @return the estimated number of bytes used by this template, the geometry built
+     * by the layers so far included, must be called with PathDrawableCache's lock held
+     */
+    int getByteSize() {
+        int size = 2 * OBJECT_OVERHEAD + mGeometrySize;
+        for (LayerTemplate layer : mLayers) {
+            size += layer.getByteSize();
+        }
+        return size;
+    }
+
+    /**
+     * Parse the &lt;layers&gt; xml file.
+     * @param res Resources to use
+     * @param resId Xml file resource id
+     * @param executor Executor used for parsing the path data in parallel, null for
+     *                 the shared pool of {@link BatchPathParser}
+     * @return the parsed template
+     */
+    static PathTemplate inflate(Resources res, int resId, Executor executor)
+            throws XmlPullParserException, IOException {
+        XmlResourceParser parser = res.getXml(resId);
+        try {
+            return parse(parser, res, executor);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static PathTemplate parse(XmlResourceParser parser, Resources res, Executor executor)
+            throws XmlPullParserException, IOException {
+        AttributeSet attrset = Xml.asAttributeSet(parser);
+        int[] attrs = R.styleable.PathDrawable;
+        TypedArray a;
+
+        int type;
+        while ((type=parser.next()) != XmlPullParser.START_TAG &&
+                type != XmlPullParser.END_DOCUMENT) {
+            // Empty loop
+        }
+        if (type != XmlPullParser.START_TAG) {
+            throw new XmlPullParserException("No start tag found");
+        }
+        String name = parser.getName();
+        if (!name.equals("layers")) {
+            throw new XmlPullParserException("No <layers> start tag found");
+        }
+
+        a = res.obtainAttributes(attrset, attrs);
+        float pathWidth = a.getFloat(R.styleable.PathDrawable_path_width, 0);
+        float pathHeight = a.getFloat(R.styleable.PathDrawable_path_height, 0);
+        Drawable background = a.getDrawable(R.styleable.PathDrawable_android_background);
+        Rect padding = new Rect();
+        int pad;
+        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_padding, -1);
+        if (pad >= 0) padding.set(pad, pad, pad, pad);
+        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingLeft, -1);
+        if (pad >= 0) padding.left = pad;
+        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingTop, -1);
+        if (pad >= 0) padding.top = pad;
+        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingRight, -1);
+        if (pad >= 0) padding.right = pad;
+        pad = a.getDimensionPixelSize(R.styleable.PathDrawable_android_paddingBottom, -1);
+        if (pad >= 0) padding.bottom = pad;
+        ScaleToFit scaleType = ScaleToFit.values()[a.getInt(R.styleable.PathDrawable_scale_type, 0)];
+        a.recycle();
+
+        if (pathWidth <= 0 || pathHeight <= 0) {
+            String msg = parser.getPositionDescription() + ": Both path_width and path_height must be >= 0";
+            throw new XmlPullParserException(msg);
+        }
+
+        // the path data is parsed at once when all the layers are read
+        ArrayList<String> datas = new ArrayList<>();
+        ArrayList<LayerAttributes> attributes = new ArrayList<>();
+        for (type = parser.next();
+                type != XmlPullParser.END_DOCUMENT;
+                type = parser.next()) {
+            if (type == XmlPullParser.START_TAG) {
+                if (parser.getName().equals("layer")) {
+                    a = res.obtainAttributes(attrset, attrs);
+                    String data = a.getString(R.styleable.PathDrawable_data);
+                    String tag = a.getString(R.styleable.PathDrawable_android_tag);
+                    int strokeColor = a.getColor(R.styleable.PathDrawable_stroke_color, 0xffffffff);
+                    float strokeWidth = a.getDimension(R.styleable.PathDrawable_stroke_width, 1);
+                    int strokeStyleFags = a.getInt(R.styleable.PathDrawable_stroke_style, 1);
+                    int capTypeInt = a.getInt(R.styleable.PathDrawable_cap_type, 2);
+                    float trimStart = a.getFloat(R.styleable.PathDrawable_trim_start, 0);
+                    float trimEnd = a.getFloat(R.styleable.PathDrawable_trim_end, 1);
+                    float trimOffset = a.getFloat(R.styleable.PathDrawable_trim_offset, 0);
+                    a.recycle();
+
+                    if (data == null || data.trim().length() == 0) {
+                        String msg = parser.getPositionDescription() + ": path data is empty";
+                        throw new XmlPullParserException(msg);
+                    }
+                    datas.add(data);
+                    attributes.add(new LayerAttributes(tag, strokeColor, strokeWidth, toStyle(strokeStyleFags),
+                            toCap(capTypeInt), trimStart, trimEnd, trimOffset));
+                }
+            }
+        }
+
+        PathData[] pathData;
+        try {
+            pathData = BatchPathParser.createPathData(datas, executor);
+        } catch (BatchPathParser.BatchParseException e) {
+            throw new RuntimeException("Error in parsing " + datas.get(e.getIndex()), e.getCause());
+        }
+        LayerTemplate[] layers = new LayerTemplate[pathData.length];
+        for (int i = 0; i < layers.length; i++) {
+            LayerAttributes la = attributes.get(i);
+            layers[i] = new LayerTemplate(la.mTag, pathData[i], la.mStrokeColor, la.mStrokeWidth,
+                    la.mStyle, la.mCapType, la.mTrimStart, la.mTrimEnd, la.mTrimOffset);
+        }
+        return new PathTemplate(pathWidth, pathHeight, padding, scaleType, background, layers);
+    }
+
+    // the attributes of a <layer> read before its path data is parsed
+    private static final class LayerAttributes {
+        final String mTag;
+        final int mStrokeColor;
+        final float mStrokeWidth;
+        final Style mStyle;
+        final Cap mCapType;
+        final float mTrimStart;
+        final float mTrimEnd;
+        final float mTrimOffset;
+
+        LayerAttributes(String tag, int strokeColor, float strokeWidth, Style style, Cap capType,
+                float trimStart, float trimEnd, float trimOffset) {
+            mTag = tag;
+            mStrokeColor = strokeColor;
+            mStrokeWidth = strokeWidth;
+            mStyle = style;
+            mCapType = capType;
+            mTrimStart = trimStart;
+            mTrimEnd = trimEnd;
+            mTrimOffset = trimOffset;
+        }
+    }
+
+    private static Style toStyle(int strokeStyleFags) {
+        if (strokeStyleFags == 1) {
+            return Style.STROKE;
+        } else
+        if (strokeStyleFags == 2) {
+            return Style.FILL;
+        }
+        return Style.FILL_AND_STROKE;
+    }
+
+    private static Cap toCap(int capTypeInt) {
+        if (capTypeInt == 0) {
+            return Cap.BUTT;
+        } else
+        if (capTypeInt == 1) {
+            return Cap.ROUND;
+        }
+        return Cap.SQUARE;
+    }
+
+    /**
+     * Read the binary template created at build time by PathDrawableCompiler.
+     * <p>
+     * The format (big endian, as written by DataOutputStream) is:
+     * <pre>
+     * int     magic "PDRW"
+     * short   version
+     * float   path_width, path_height
+     * dim     paddingLeft, paddingTop, paddingRight, paddingBottom
+     * byte    scale_type
+     * color   background
+     * int     number of layers, followed by each layer:
+     *   bool    has tag, followed by utf tag if true
+     *   color   stroke_color
+     *   dim     stroke_width
+     *   byte    stroke_style flags
+     *   byte    cap_type
+     *   float   trim_start, trim_end, trim_offset (version 2)
+     *   int     command count (n)
+     *   byte[n] commands
+     *   int[n + 1] param offsets
+     *   int     param count (m)
+     *   float[m] params
+     * </pre>
+     * where color and dim start with a byte: 0 - not set, 1 - literal value
+     * (int argb for color, float value and byte TypedValue.COMPLEX_UNIT_* for dim),
+     * 2 - utf resource reference like "@color/name".
+     *
+     * @param res Resources used to resolve the dimensions and references
+     * @param packageName The package used to resolve the references without package
+     * @param in The stream to read from
+     * @return the template
+     */
+    static PathTemplate read(Resources res, String packageName, InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in, 8192));
+        int version = readVersion(dis);
+        float pathWidth = dis.readFloat();
+        float pathHeight = dis.readFloat();
+        Rect padding = new Rect();
+        padding.left = readPixelSize(dis, res, packageName);
+        padding.top = readPixelSize(dis, res, packageName);
+        padding.right = readPixelSize(dis, res, packageName);
+        padding.bottom = readPixelSize(dis, res, packageName);
+        ScaleToFit scaleType = ScaleToFit.values()[dis.readByte()];
+        Drawable background = null;
+        int kind = dis.readByte();
+        if (kind == VALUE_LITERAL) {
+            background = new ColorDrawable(dis.readInt());
+        } else if (kind == VALUE_REFERENCE) {
+            background = res.getDrawable(getIdentifier(res, packageName, dis.readUTF()));
+        }
+
+        LayerTemplate[] layers = new LayerTemplate[dis.readInt()];
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        for (int i = 0; i < layers.length; i++) {
+            String tag = dis.readBoolean() ? dis.readUTF() : null;
+            int strokeColor = 0xffffffff;
+            kind = dis.readByte();
+            if (kind == VALUE_LITERAL) {
+                strokeColor = dis.readInt();
+            } else if (kind == VALUE_REFERENCE) {
+                strokeColor = res.getColor(getIdentifier(res, packageName, dis.readUTF()));
+            }
+            float strokeWidth = readDimension(dis, res, packageName, 1);
+            Style style = toStyle(dis.readByte());
+            Cap capType = toCap(dis.readByte());
+            float trimStart = 0;
+            float trimEnd = 1;
+            float trimOffset = 0;
+            if (version >= 2) {
+                trimStart = dis.readFloat();
+                trimEnd = dis.readFloat();
+                trimOffset = dis.readFloat();
+            }
+
+            PathData pathData = readPathData(dis, buffer);
+            layers[i] = new LayerTemplate(tag, pathData, strokeColor, strokeWidth, style, capType,
+                    trimStart, trimEnd, trimOffset);
+        }
+        return new PathTemplate(pathWidth, pathHeight, padding, scaleType, background, layers);
+    }
+
+    /**
+     * Read the header of the binary template.
+     * @return the format version
+     */
+    static int readVersion(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a compiled PathDrawable");
+        }
+        int version = dis.readShort();
+        // version 1 is the same except the trim params
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported compiled PathDrawable version: " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Read the path data of a layer, from its command count to its last param.
+     * @param buffer The scratch buffer of {@link #READ_BUFFER_SIZE} bytes
+     */
+    static PathData readPathData(DataInputStream dis, byte[] buffer) throws IOException {
+        byte[] commands = new byte[dis.readInt()];
+        dis.readFully(commands);
+        // bulk read the offsets and params straight into the path data arrays
+        int[] offsets = new int[commands.length + 1];
+        for (int i = 0; i < offsets.length; ) {
+            int n = Math.min(offsets.length - i, buffer.length / 4);
+            dis.readFully(buffer, 0, 4 * n);
+            ByteBuffer.wrap(buffer, 0, 4 * n).asIntBuffer().get(offsets, i, n);
+            i += n;
+        }
+        float[] params = new float[dis.readInt()];
+        for (int i = 0; i < params.length; ) {
+            int n = Math.min(params.length - i, buffer.length / 4);
+            dis.readFully(buffer, 0, 4 * n);
+            ByteBuffer.wrap(buffer, 0, 4 * n).asFloatBuffer().get(params, i, n);
+            i += n;
+        }
+        return new PathData(commands, offsets, params);
+    }
+
+    private static float readDimension(DataInputStream dis, Resources res, String packageName, float def) throws IOException {
+        int kind = dis.readByte();
+        if (kind == VALUE_LITERAL) {
+            float value = dis.readFloat();
+            return TypedValue.applyDimension(dis.readByte(), value, res.getDisplayMetrics());
+        } else if (kind == VALUE_REFERENCE) {
+            return res.getDimension(getIdentifier(res, packageName, dis.readUTF()));
+        }
+        return def;
+    }
+
+    // the same rounding as TypedArray.getDimensionPixelSize()
+    private static int readPixelSize(DataInputStream dis, Resources res, String packageName) throws IOException {
+        float f = readDimension(dis, res, packageName, 0);
+        int size = (int) (f >= 0 ? f + 0.5f : f - 0.5f);
+        if (size != 0 || f == 0) {
+            return size;
+        }
+        return f > 0 ? 1 : -1;
+    }
+
+    // "@[package:]type/name"
+    private static int getIdentifier(Resources res, String packageName, String reference) {
+        String key = packageName + ' ' + reference;
+        synchronized (sIdentifiers) {
+            Integer id = sIdentifiers.get(key);
+            if (id != null) {
+                return id;
+            }
+        }
+        int id = res.getIdentifier(reference.substring(1), null, packageName);
+        if (id == 0) {
+            throw new Resources.NotFoundException("Unknown resource: " + reference);
+        }
+        synchronized (sIdentifiers) {
+            sIdentifiers.put(key, id);
+        }
+        return id;
+    }
+}
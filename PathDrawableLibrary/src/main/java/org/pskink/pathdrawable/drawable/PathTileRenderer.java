@@ -0,0 +1,463 @@
+package org.pskink.pathdrawable.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tiled mode of {@link PathDrawable#setTiledRenderingEnabled(boolean)}.
+ * <p>
+ * The drawable's bounds are split into tiles of {@link #TILE_SIZE} pixels at the
+ * discrete zoom levels (level n is drawn with the scale 2^n) and the tiles are
+ * rasterized on background threads from an immutable snapshot of the layers
+ * ({@link Scene}). draw() picks the level from the canvas matrix and draws the tiles
+ * intersecting the clip, the missing ones are requested (the most recently requested
+ * are rendered first) and meanwhile the best available tile of a lower level (or
+ * the tiles from before the last change) is drawn scaled up.
+ * All the methods except the rendering itself are called on the main thread.
+ */
+final class PathTileRenderer {
+    static final int TILE_SIZE = 256;
+    private static final int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    static final int MIN_LEVEL = -8;
+    static final int MAX_LEVEL = 8;
+    // the number of the unused bitmaps kept for the next tiles
+    private static final int MAX_POOL_SIZE = 4;
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static Executor sExecutor;
+    private static Handler sMainHandler;
+    private static final AtomicInteger sSequence = new AtomicInteger();
+
+    private final PathDrawable mDrawable;
+    private final LinkedHashMap<Long, Tile> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    // the tiles drawn before the last invalidate(), used until the new ones are ready
+    private final LinkedHashMap<Long, Tile> mStaleTiles = new LinkedHashMap<>();
+    private final ArrayList<Bitmap> mPool = new ArrayList<>(MAX_POOL_SIZE);
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private int mSize;
+    private Scene mScene;
+    private volatile int mGeneration;
+    private volatile int mFrame;
+
+    private final Matrix mCanvasMatrix = new Matrix();
+    private final float[] mValues = new float[9];
+    private final Rect mClip = new Rect();
+    private final Rect mSrc = new Rect();
+    private final RectF mDst = new RectF();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Immutable snapshot of the visible layers, safe to draw on any thread.
+     * The paths are either in the drawable's coordinates (null matrix) or drawn
+     * with their matrix concatenated and the stroke width already divided by its scale.
+     */
+    static final class Scene {
+        final int mOriginX;
+        final int mOriginY;
+        final int mWidth;
+        final int mHeight;
+        final Path[] mPaths;
+        final Matrix[] mMatrices;
+        final Paint[] mPaints;
+        // in the drawable's coordinates, null if not known
+        final RectF[] mBounds;
+
+        Scene(int originX, int originY, int width, int height, int count) {
+            mOriginX = originX;
+            mOriginY = originY;
+            mWidth = width;
+            mHeight = height;
+            mPaths = new Path[count];
+            mMatrices = new Matrix[count];
+            mPaints = new Paint[count];
+            mBounds = new RectF[count];
+        }
+    }
+
+    private static final class Tile implements Runnable, Comparable<Tile> {
+        final PathTileRenderer mRenderer;
+        final Scene mScene;
+        final long mKey;
+        final int mLevel;
+        final int mColumn;
+        final int mRow;
+        final int mGeneration;
+        final int mSequence = sSequence.incrementAndGet();
+        // the last frame the tile was needed in
+        volatile int mFrame;
+        Bitmap mBitmap;
+
+        Tile(PathTileRenderer renderer, Scene scene, long key, int level, int column, int row) {
+            mRenderer = renderer;
+            mScene = scene;
+            mKey = key;
+            mLevel = level;
+            mColumn = column;
+            mRow = row;
+            mGeneration = renderer.mGeneration;
+        }
+
+        @Override
+        public int compareTo(Tile other) {
+            // the most recently requested first
+            return other.mSequence < mSequence ? -1 : other.mSequence == mSequence ? 0 : 1;
+        }
+
+        @Override
+        public void run() {
+            final PathTileRenderer renderer = mRenderer;
+            // not needed anymore: changed or scrolled away while waiting
+            final Bitmap bitmap = renderer.isStale(this) ? null : renderer.render(this);
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    renderer.onRendered(Tile.this, bitmap);
+                }
+            });
+        }
+    }
+
+    PathTileRenderer(PathDrawable drawable) {
+        mDrawable = drawable;
+        synchronized (PathTileRenderer.class) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Drop the scene, it is built again by the next draw() and the tiles are rendered
+     * again. Until then the current ones are drawn as the fallback.
+     */
+    void invalidate() {
+        mGeneration++;
+        mScene = null;
+        for (Tile tile : mStaleTiles.values()) {
+            recycle(tile);
+        }
+        LinkedHashMap<Long, Tile> stale = mStaleTiles;
+        stale.clear();
+        for (Tile tile : mTiles.values()) {
+            if (tile.mBitmap != null) {
+                stale.put(tile.mKey, tile);
+            }
+        }
+        mTiles.clear();
+    }
+
+    /**
+     * Drop everything, e.g. when the drawable is hidden.
+     */
+    void release() {
+        mGeneration++;
+        mScene = null;
+        for (Tile tile : mTiles.values()) {
+            recycle(tile);
+        }
+        mTiles.clear();
+        for (Tile tile : mStaleTiles.values()) {
+            recycle(tile);
+        }
+        mStaleTiles.clear();
+        synchronized (mPool) {
+            for (Bitmap bitmap : mPool) {
+                bitmap.recycle();
+            }
+            mPool.clear();
+        }
+    }
+
+    /**
+     * Draw the tiles intersecting the canvas clip.
+     * @param bounds The drawable's bounds
+     * @param paint The paint with the drawable's alpha and color filter or null
+     */
+    void draw(Canvas canvas, Rect bounds, Paint paint) {
+        Scene scene = mScene;
+        if (scene == null) {
+            // dropped by invalidate() or release(), the drawable is prepared by now
+            scene = mScene = mDrawable.buildTileScene();
+        }
+        int frame = ++mFrame;
+        canvas.getMatrix(mCanvasMatrix);
+        float[] v = mValues;
+        mCanvasMatrix.getValues(v);
+        float scale = (float) Math.sqrt(v[Matrix.MSCALE_X] * v[Matrix.MSCALE_X]
+                + v[Matrix.MSKEW_Y] * v[Matrix.MSKEW_Y]);
+        int level = getLevel(scale);
+        int baseLevel = getBaseLevel(scene);
+        level = Math.max(level, baseLevel);
+
+        Rect clip = mClip;
+        if (!canvas.getClipBounds(clip) || !clip.intersect(bounds)) {
+            return;
+        }
+        if (paint == null) {
+            paint = mPaint;
+        }
+        // the tile coordinates are relative to the bounds' origin
+        float span = TILE_SIZE / levelScale(level);
+        int left = (int) ((clip.left - bounds.left) / span);
+        int top = (int) ((clip.top - bounds.top) / span);
+        int right = (int) Math.ceil((clip.right - bounds.left) / span);
+        int bottom = (int) Math.ceil((clip.bottom - bounds.top) / span);
+        for (int row = top; row < bottom; row++) {
+            for (int column = left; column < right; column++) {
+                drawTile(canvas, bounds, scene, level, baseLevel, column, row, paint);
+            }
+        }
+        // the lowest level is always requested last, so it is rendered first
+        request(scene, baseLevel, 0, 0).mFrame = frame;
+        trimToSize(mMaxSize);
+    }
+
+    private void drawTile(Canvas canvas, Rect bounds, Scene scene, int level, int baseLevel,
+            int column, int row, Paint paint) {
+        Tile tile = request(scene, level, column, row);
+        tile.mFrame = mFrame;
+        if (tile.mBitmap != null) {
+            drawBitmap(canvas, bounds, tile, level, column, row, paint);
+            return;
+        }
+        // the best lower level tile covering this one, first the current ones
+        for (int pass = 0; pass < 2; pass++) {
+            LinkedHashMap<Long, Tile> tiles = pass == 0 ? mTiles : mStaleTiles;
+            int lowest = pass == 0 ? baseLevel : MIN_LEVEL;
+            for (int l = pass == 0 ? level - 1 : level; l >= lowest && level - l <= 8; l--) {
+                int shift = level - l;
+                Tile parent = tiles.get(getKey(l, column >> shift, row >> shift));
+                if (parent != null && parent.mBitmap != null) {
+                    parent.mFrame = mFrame;
+                    drawBitmap(canvas, bounds, parent, level, column, row, paint);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the part of the tile's bitmap covering the tile (level, column, row).
+     */
+    private void drawBitmap(Canvas canvas, Rect bounds, Tile tile, int level, int column, int row, Paint paint) {
+        int shift = level - tile.mLevel;
+        int size = TILE_SIZE >> shift;
+        Rect src = mSrc;
+        src.left = (column - (tile.mColumn << shift)) * size;
+        src.top = (row - (tile.mRow << shift)) * size;
+        src.right = src.left + size;
+        src.bottom = src.top + size;
+        float span = TILE_SIZE / levelScale(level);
+        RectF dst = mDst;
+        dst.left = bounds.left + column * span;
+        dst.top = bounds.top + row * span;
+        dst.right = dst.left + span;
+        dst.bottom = dst.top + span;
+        canvas.drawBitmap(tile.mBitmap, src, dst, paint);
+    }
+
+    private Tile request(Scene scene, int level, int column, int row) {
+        long key = getKey(level, column, row);
+        Tile tile = mTiles.get(key);
+        if (tile == null) {
+            tile = new Tile(this, scene, key, level, column, row);
+            mTiles.put(key, tile);
+            getExecutor().execute(tile);
+        }
+        return tile;
+    }
+
+    private boolean isStale(Tile tile) {
+        return tile.mGeneration != mGeneration || tile.mFrame < mFrame - 1;
+    }
+
+    /**
+     * Called on a background thread.
+     */
+    private Bitmap render(Tile tile) {
+        Scene scene = tile.mScene;
+        Bitmap bitmap = null;
+        synchronized (mPool) {
+            if (!mPool.isEmpty()) {
+                bitmap = mPool.remove(mPool.size() - 1);
+            }
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        } else {
+            bitmap.eraseColor(0);
+        }
+        float scale = levelScale(tile.mLevel);
+        float span = TILE_SIZE / scale;
+        // the tile in the drawable's coordinates
+        RectF rect = new RectF();
+        rect.left = scene.mOriginX + tile.mColumn * span;
+        rect.top = scene.mOriginY + tile.mRow * span;
+        rect.right = rect.left + span;
+        rect.bottom = rect.top + span;
+
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(scale, scale);
+        canvas.translate(-rect.left, -rect.top);
+        for (int i = 0; i < scene.mPaths.length; i++) {
+            RectF bounds = scene.mBounds[i];
+            if (bounds != null && !RectF.intersects(bounds, rect)) {
+                continue;
+            }
+            Matrix matrix = scene.mMatrices[i];
+            if (matrix != null) {
+                int saveCount = canvas.save();
+                canvas.concat(matrix);
+                canvas.drawPath(scene.mPaths[i], scene.mPaints[i]);
+                canvas.restoreToCount(saveCount);
+            } else {
+                canvas.drawPath(scene.mPaths[i], scene.mPaints[i]);
+            }
+        }
+        return bitmap;
+    }
+
+    private void onRendered(Tile tile, Bitmap bitmap) {
+        if (mTiles.get(tile.mKey) != tile) {
+            // invalidated meanwhile
+            recycle(bitmap);
+            return;
+        }
+        if (bitmap == null) {
+            // skipped, requested again if still needed
+            mTiles.remove(tile.mKey);
+            return;
+        }
+        tile.mBitmap = bitmap;
+        mSize += getByteSize(bitmap);
+        // the tiles replaced by the current ones are not needed anymore
+        Iterator<Tile> it = mStaleTiles.values().iterator();
+        while (it.hasNext() && mSize > mMaxSize) {
+            recycle(it.next());
+            it.remove();
+        }
+        mDrawable.invalidateSelf();
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Tile> it = mStaleTiles.values().iterator();
+        while (it.hasNext() && mSize > maxSize) {
+            recycle(it.next());
+            it.remove();
+        }
+        // the least recently used first, never the ones drawn by the current frame
+        it = mTiles.values().iterator();
+        while (it.hasNext() && mSize > maxSize) {
+            Tile tile = it.next();
+            if (tile.mBitmap != null && tile.mFrame != mFrame) {
+                recycle(tile);
+                it.remove();
+            }
+        }
+    }
+
+    private void recycle(Tile tile) {
+        if (tile.mBitmap != null) {
+            mSize -= getByteSize(tile.mBitmap);
+            recycle(tile.mBitmap);
+            tile.mBitmap = null;
+        }
+    }
+
+    private void recycle(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mPool) {
+            if (mPool.size() < MAX_POOL_SIZE) {
+                mPool.add(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private static int getByteSize(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static long getKey(int level, int column, int row) {
+        return ((long) (level - MIN_LEVEL) << 48) | ((long) (column & 0xffffff) << 24) | (row & 0xffffff);
+    }
+
+    static float levelScale(int level) {
+        return level >= 0 ? 1 << level : 1f / (1 << -level);
+    }
+
+    /**
+     * @return the lowest level with the scale not less than the given one
+     */
+    static int getLevel(float scale) {
+        int level = 0;
+        while (level < MAX_LEVEL && levelScale(level) < scale) {
+            level++;
+        }
+        while (level > MIN_LEVEL && levelScale(level - 1) >= scale) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * @return the level whose one tile covers the whole drawable
+     */
+    static int getBaseLevel(Scene scene) {
+        int size = Math.max(scene.mWidth, scene.mHeight);
+        int level = 0;
+        while (level > MIN_LEVEL && size * levelScale(level) > TILE_SIZE) {
+            level--;
+        }
+        return level;
+    }
+
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            ThreadFactory factory = new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PathTileRenderer #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            };
+            int threads = Math.max(1, Math.min(CPU_COUNT - 1, 3));
+            sExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(), factory);
+        }
+        return sExecutor;
+    }
+}
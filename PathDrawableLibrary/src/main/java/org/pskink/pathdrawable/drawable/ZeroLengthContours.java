@@ -0,0 +1,151 @@
+package org.pskink.pathdrawable.drawable;
+
+/**
+ * The {@link PathSink} finding the zero length contours of the path data, e.g. the
+ * "M x y z" dots drawn by the round or square caps.
+ * <p>
+ * PathMeasure skips such contours (the older versions even stop at them), so
+ * {@link PathFlattener} measures the path without them, passed to the optional
+ * target, and adds them back as a moveTo/lineTo pair. The zero length segments of
+ * the other contours are left out of the target as well.
+ */
+final class ZeroLengthContours implements PathSink {
+    private final PathSink mTarget;
+    // x, y of the start points of the found contours
+    private float[] mPoints = new float[8];
+    private int mCount;
+    private float mX;
+    private float mY;
+    private float mStartX;
+    private float mStartY;
+    // whether the current contour has any segment, and any not zero length one
+    private boolean mHasSegments;
+    private boolean mHasLength;
+
+    /**
+     * @param target The receiver of the path without the zero length contours or null
+     */
+    ZeroLengthContours(PathSink target) {
+        mTarget = target;
+    }
+
+    /**
+     * Finish the last contour, call it after the path data is played.
+     */
+    void end() {
+        if (mHasSegments && !mHasLength) {
+            if (mPoints.length < 2 * mCount + 2) {
+                float[] points = new float[mPoints.length * 2];
+                System.arraycopy(mPoints, 0, points, 0, 2 * mCount);
+                mPoints = points;
+            }
+            mPoints[2 * mCount] = mStartX;
+            mPoints[2 * mCount + 1] = mStartY;
+            mCount++;
+        }
+        mHasSegments = false;
+        mHasLength = false;
+    }
+
+    /**
+     * @return the number of the found contours
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the points (x, y pairs) of the found contours, see {@link #getCount()}
+     */
+    float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * @return whether the segment ending at (x, y) has any length, if so it is
+     * started in the target
+     */
+    private boolean addSegment(float x, float y, boolean degenerate) {
+        mHasSegments = true;
+        mX = x;
+        mY = y;
+        if (degenerate) {
+            return false;
+        }
+        if (!mHasLength) {
+            mHasLength = true;
+            if (mTarget != null) {
+                // the segments before were of zero length, so they started here too
+                mTarget.moveTo(mStartX, mStartY);
+            }
+        }
+        return mTarget != null;
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+        end();
+        mX = mStartX = x;
+        mY = mStartY = y;
+    }
+
+    @Override
+    public void rMoveTo(float dx, float dy) {
+        moveTo(mX + dx, mY + dy);
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+        float x0 = mX;
+        float y0 = mY;
+        if (addSegment(x, y, x == x0 && y == y0)) {
+            mTarget.lineTo(x, y);
+        }
+    }
+
+    @Override
+    public void rLineTo(float dx, float dy) {
+        lineTo(mX + dx, mY + dy);
+    }
+
+    @Override
+    public void quadTo(float x1, float y1, float x2, float y2) {
+        float x0 = mX;
+        float y0 = mY;
+        if (addSegment(x2, y2, x1 == x0 && y1 == y0 && x2 == x0 && y2 == y0)) {
+            mTarget.quadTo(x1, y1, x2, y2);
+        }
+    }
+
+    @Override
+    public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+        quadTo(mX + dx1, mY + dy1, mX + dx2, mY + dy2);
+    }
+
+    @Override
+    public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        float x0 = mX;
+        float y0 = mY;
+        if (addSegment(x3, y3, x1 == x0 && y1 == y0 && x2 == x0 && y2 == y0 && x3 == x0 && y3 == y0)) {
+            mTarget.cubicTo(x1, y1, x2, y2, x3, y3);
+        }
+    }
+
+    @Override
+    public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        cubicTo(mX + x1, mY + y1, mX + x2, mY + y2, mX + x3, mY + y3);
+    }
+
+    @Override
+    public void close() {
+        // a closed contour draws the caps too
+        mHasSegments = true;
+        if (mHasLength && mTarget != null) {
+            mTarget.close();
+        }
+        end();
+        // the next segment starts a new contour at the same point
+        mX = mStartX;
+        mY = mStartY;
+    }
+}
@@ -0,0 +1,146 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArcFlatteningTest {
+    private static final int SAMPLES = 64;
+
+    // measures the distance of the cubics from the circle centered at (0, 0)
+    private static final class CircleError implements PathSink {
+        final float mRadius;
+        float mX;
+        float mY;
+        int mCubics;
+        double mMaxError;
+        // the length of the first control handle
+        double mHandle;
+
+        CircleError(float radius) {
+            mRadius = radius;
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            mX = x;
+            mY = y;
+        }
+
+        @Override
+        public void rMoveTo(float dx, float dy) {
+            moveTo(mX + dx, mY + dy);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            throw new AssertionError("unexpected line");
+        }
+
+        @Override
+        public void rLineTo(float dx, float dy) {
+            lineTo(mX + dx, mY + dy);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            throw new AssertionError("unexpected quad");
+        }
+
+        @Override
+        public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+            quadTo(mX + dx1, mY + dy1, mX + dx2, mY + dy2);
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            for (int i = 0; i <= SAMPLES; i++) {
+                double t = (double) i / SAMPLES;
+                double mt = 1 - t;
+                double x = mt * mt * mt * mX + 3 * mt * mt * t * x1 + 3 * mt * t * t * x2 + t * t * t * x3;
+                double y = mt * mt * mt * mY + 3 * mt * mt * t * y1 + 3 * mt * t * t * y2 + t * t * t * y3;
+                mMaxError = Math.max(mMaxError, Math.abs(Math.hypot(x, y) - mRadius));
+            }
+            if (mCubics == 0) {
+                mHandle = Math.hypot(x1 - mX, y1 - mY);
+            }
+            mCubics++;
+            mX = x3;
+            mY = y3;
+        }
+
+        @Override
+        public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            cubicTo(mX + x1, mY + y1, mX + x2, mY + y2, mX + x3, mY + y3);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // the full circle drawn as two half circle arcs
+    private static CircleError flatten(float radius, float scale) {
+        String data = "M" + radius + ",0 A" + radius + "," + radius + " 0 0,1 " + -radius + ",0 A"
+                + radius + "," + radius + " 0 0,1 " + radius + ",0";
+        CircleError error = new CircleError(radius);
+        PathCommands.parse(data, scale, error);
+        return error;
+    }
+
+    @Test
+    public void errorWithinTolerance() {
+        float[] radii = {0.5f, 10, 100, 1000, 10000};
+        float[] scales = {0.25f, 1, 3, 16};
+        for (float radius : radii) {
+            for (float scale : scales) {
+                CircleError error = flatten(radius, scale);
+                // the float rounding of the coordinates is not part of the bound
+                double slack = Math.ulp(radius) * 4;
+                assertTrue("radius " + radius + " scale " + scale + ": error " + error.mMaxError * scale + " px",
+                        error.mMaxError <= PathCommands.ARC_TOLERANCE / scale + slack);
+            }
+        }
+    }
+
+    @Test
+    public void smallArcsUseFewerSegments() {
+        // the fixed split needs 8 cubics for the full circle, a small one drawn
+        // at its size needs just the 90 degrees ones, a huge zoomed one needs more
+        assertEquals(4, flatten(10, 1).mCubics);
+        assertTrue(flatten(10000, 1).mCubics < 8);
+        assertTrue(flatten(10000, 16).mCubics > 8);
+    }
+
+    @Test
+    public void unknownScaleUsesTheFixedSplit() {
+        assertEquals(8, flatten(10, 0).mCubics);
+        assertEquals(8, flatten(10000, 0).mCubics);
+    }
+
+    @Test
+    public void handleLengths() {
+        // the framework's handles for the fixed split
+        double phi = Math.PI / 4;
+        double tan = Math.tan(phi / 2);
+        double fixed = Math.sin(phi) * (Math.sqrt(4 + 3 * tan * tan) - 1) / 3;
+        assertEquals(100 * fixed, flatten(100, 0).mHandle, 1e-4);
+        // the handles of the error bound with the tolerance, 90 degrees per segment
+        assertEquals(10 * 4.0 / 3 * Math.tan(Math.PI / 8), flatten(10, 1).mHandle, 1e-5);
+    }
+
+    @Test
+    public void segmentCountMeetsTheBound() {
+        for (double radius = 1; radius <= 1e6; radius *= 10) {
+            for (double sweep = 0.1; sweep <= 2 * Math.PI; sweep += 0.3) {
+                int count = PathCommands.getArcSegmentCount(radius, sweep, PathCommands.ARC_TOLERANCE);
+                double quarter = sweep / count / 4;
+                double sin3 = Math.pow(Math.sin(quarter), 3);
+                double bound = radius * 2 / 27 * sin3 * sin3 / Math.pow(Math.cos(quarter), 2);
+                assertTrue("radius " + radius + " sweep " + sweep, bound <= PathCommands.ARC_TOLERANCE);
+                assertTrue(count >= Math.ceil(sweep * 2 / Math.PI));
+            }
+        }
+    }
+}
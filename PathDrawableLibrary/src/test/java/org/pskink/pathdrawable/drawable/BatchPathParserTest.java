@@ -0,0 +1,98 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchPathParserTest {
+    // the path with the given number of line segments, all of them ending at x = index
+    private static String path(int index, int segments) {
+        StringBuilder data = new StringBuilder("M0 0");
+        for (int i = 0; i < segments; i++) {
+            data.append(" L").append(index).append(' ').append(i);
+        }
+        return data.toString();
+    }
+
+    // the strings long enough together to be parsed in parallel
+    private static List<String> longBatch() {
+        List<String> datas = new ArrayList<>();
+        int length = 0;
+        for (int i = 0; length < 4 * BatchPathParser.MIN_PARALLEL_LENGTH; i++) {
+            String data = path(i, 1 + (i * 37) % 200);
+            datas.add(data);
+            length += data.length();
+        }
+        return datas;
+    }
+
+    private static void assertParsed(List<String> datas, PathData[] result) {
+        assertEquals(datas.size(), result.length);
+        for (int i = 0; i < result.length; i++) {
+            PathData data = result[i];
+            // M plus the segments
+            assertEquals(1 + (i * 37) % 200 + 1, data.mCommands.length);
+            assertEquals(i, data.mParams[data.mParams.length - 2], 0);
+        }
+    }
+
+    @Test
+    public void shortBatchKeepsOrder() {
+        List<String> datas = Arrays.asList(path(0, 1), path(1, 38), path(2, 75));
+        assertParsed(datas, BatchPathParser.createPathData(datas, null));
+    }
+
+    @Test
+    public void parallelBatchKeepsOrder() {
+        List<String> datas = longBatch();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertParsed(datas, BatchPathParser.createPathData(datas, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedPool() {
+        List<String> datas = longBatch();
+        assertParsed(datas, BatchPathParser.createPathData(datas, null));
+    }
+
+    @Test
+    public void nullEntries() {
+        List<String> datas = Arrays.asList(null, "M1 1 L2 2", null);
+        PathData[] result = BatchPathParser.createPathData(datas, null);
+        assertNull(result[0]);
+        assertEquals(2, result[1].mCommands.length);
+        assertNull(result[2]);
+        assertEquals(0, BatchPathParser.createPathData(new ArrayList<String>(), null).length);
+    }
+
+    @Test
+    public void lowestFailingIndexIsReported() {
+        List<String> datas = longBatch();
+        // the short strings are parsed last, so the higher index fails first
+        datas.set(datas.size() - 1, "M0 0 L1 e");
+        datas.set(3, "M0 0 L1 e");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BatchPathParser.createPathData(datas, executor);
+            fail("the invalid path data was parsed");
+        } catch (BatchPathParser.BatchParseException e) {
+            assertEquals(3, e.getIndex());
+            assertTrue(e.getCause() instanceof RuntimeException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
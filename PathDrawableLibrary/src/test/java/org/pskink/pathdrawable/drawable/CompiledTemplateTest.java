@@ -0,0 +1,210 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compiles &lt;layers&gt; files with PathDrawableCompiler and reads them back the
+ * way PathTemplate.read() does, the parts needing Resources are checked as raw values.
+ */
+public class CompiledTemplateTest {
+    private static final String HEADER = "<layers xmlns:android=\"http://schemas.android.com/apk/res/android\""
+            + " xmlns:app=\"http://schemas.android.com/apk/res-auto\"";
+
+    private File mResDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mResDir = File.createTempFile("res", "");
+        assertTrue(mResDir.delete() && mResDir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(mResDir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(mResDir, path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private DataInputStream compile(String xml) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PathDrawableCompiler.compile(write("xml/test.xml", xml), out);
+        return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static PathData parse(String data) {
+        PathDataTokenizer tokenizer = new PathDataTokenizer();
+        tokenizer.tokenize(data);
+        return new PathData(tokenizer);
+    }
+
+    private static void assertPathData(PathData expected, PathData actual) {
+        assertArrayEquals(expected.mCommands, actual.mCommands);
+        assertArrayEquals(expected.mOffsets, actual.mOffsets);
+        assertEquals(expected.mParams.length, actual.mParams.length);
+        for (int i = 0; i < expected.mParams.length; i++) {
+            assertEquals(Float.floatToIntBits(expected.mParams[i]), Float.floatToIntBits(actual.mParams[i]));
+        }
+    }
+
+    // a literal color or dimension as "value[unit]", a reference or "-" if not set
+    private static String readValue(DataInputStream dis, boolean dimension) throws IOException {
+        int kind = dis.readByte();
+        if (kind == PathDrawableCompiler.VALUE_NONE) {
+            return "-";
+        } else if (kind == PathDrawableCompiler.VALUE_REFERENCE) {
+            return dis.readUTF();
+        }
+        assertEquals(PathDrawableCompiler.VALUE_LITERAL, kind);
+        if (dimension) {
+            float value = dis.readFloat();
+            return value + "[" + dis.readByte() + "]";
+        }
+        return Integer.toHexString(dis.readInt());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        String longData = "M0 0" + new String(new char[3000]).replace("\0", " l1.5 -2.25");
+        DataInputStream dis = compile(HEADER
+                + " app:path_width=\"24\" app:path_height=\"12.5\" android:padding=\"2dp\""
+                + " android:paddingTop=\"@dimen/top\" app:scale_type=\"center\" android:background=\"#f80\">\n"
+                + "  <layer android:tag=\"first\" app:data=\"M1 2 L3 4z\" app:stroke_color=\"#80ff0000\""
+                + "    app:stroke_width=\"1.5dip\" app:stroke_style=\"stroke|fill\" app:cap_type=\"round\""
+                + "    app:trim_start=\".25\" app:trim_end=\".75\" app:trim_offset=\".5\"/>\n"
+                + "  <layer app:data=\"" + longData + "\" app:stroke_color=\"@color/accent\"/>\n"
+                + "</layers>\n");
+
+        assertEquals(PathDrawableCompiler.VERSION, PathTemplate.readVersion(dis));
+        assertEquals(24, dis.readFloat(), 0);
+        assertEquals(12.5f, dis.readFloat(), 0);
+        assertEquals("2.0[1]", readValue(dis, true));
+        assertEquals("@dimen/top", readValue(dis, true));
+        assertEquals("2.0[1]", readValue(dis, true));
+        assertEquals("2.0[1]", readValue(dis, true));
+        assertEquals(2, dis.readByte());
+        assertEquals("ffff8800", readValue(dis, false));
+        assertEquals(2, dis.readInt());
+        byte[] buffer = new byte[PathTemplate.READ_BUFFER_SIZE];
+
+        assertTrue(dis.readBoolean());
+        assertEquals("first", dis.readUTF());
+        assertEquals("80ff0000", readValue(dis, false));
+        assertEquals("1.5[1]", readValue(dis, true));
+        assertEquals(3, dis.readByte());
+        assertEquals(1, dis.readByte());
+        assertEquals(.25f, dis.readFloat(), 0);
+        assertEquals(.75f, dis.readFloat(), 0);
+        assertEquals(.5f, dis.readFloat(), 0);
+        assertPathData(parse("M1 2 L3 4z"), PathTemplate.readPathData(dis, buffer));
+
+        assertFalse(dis.readBoolean());
+        assertEquals("@color/accent", readValue(dis, false));
+        assertEquals("-", readValue(dis, true));
+        assertEquals(1, dis.readByte());
+        assertEquals(2, dis.readByte());
+        assertEquals(0, dis.readFloat(), 0);
+        assertEquals(1, dis.readFloat(), 0);
+        assertEquals(0, dis.readFloat(), 0);
+        // more params than fit into the buffer at once
+        PathData data = PathTemplate.readPathData(dis, buffer);
+        assertTrue(4 * data.mParams.length > buffer.length);
+        assertPathData(parse(longData), data);
+        assertEquals(-1, dis.read());
+    }
+
+    @Test
+    public void stringReferencesAreResolved() throws IOException {
+        write("values/strings.xml", "<resources>\n"
+                + "  <string name=\"data\">@string/real_data</string>\n"
+                + "  <string name=\"real_data\">\"M5 5 h10\"</string>\n"
+                + "  <string name=\"tag\">star</string>\n"
+                + "</resources>\n");
+        DataInputStream dis = compile(HEADER + " app:path_width=\"1\" app:path_height=\"1\">\n"
+                + "  <layer android:tag=\"@string/tag\" app:data=\"@string/data\"/>\n"
+                + "</layers>\n");
+        PathTemplate.readVersion(dis);
+        dis.skipBytes(8);
+        for (int i = 0; i < 4; i++) {
+            readValue(dis, true);
+        }
+        dis.readByte();
+        readValue(dis, false);
+        assertEquals(1, dis.readInt());
+        assertTrue(dis.readBoolean());
+        assertEquals("star", dis.readUTF());
+        readValue(dis, false);
+        readValue(dis, true);
+        dis.skipBytes(2 + 12);
+        assertPathData(parse("M5 5 h10"), PathTemplate.readPathData(dis, new byte[PathTemplate.READ_BUFFER_SIZE]));
+    }
+
+    @Test
+    public void invalidPathDataFailsTheBuild() throws IOException {
+        try {
+            compile(HEADER + " app:path_width=\"1\" app:path_height=\"1\">\n"
+                    + "  <layer app:data=\"M1 1 L2 e\"/>\n"
+                    + "</layers>\n");
+            fail("invalid path data was compiled");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Error in parsing M1 1 L2 e"));
+        }
+    }
+
+    @Test
+    public void headerIsChecked() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(PathDrawableCompiler.MAGIC);
+        dos.writeShort(PathDrawableCompiler.VERSION + 1);
+        try {
+            PathTemplate.readVersion(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+            fail("newer version was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported"));
+        }
+        try {
+            PathTemplate.readVersion(new DataInputStream(new ByteArrayInputStream(new byte[6])));
+            fail("no magic");
+        } catch (IOException e) {
+            assertEquals("Not a compiled PathDrawable", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class PathBatchingTest {
+    private static final float NaN = Float.NaN;
+
+    // the runs of the layers, every one joining the layer before it
+    private static String runs(float... bounds) {
+        int count = bounds.length / 4;
+        boolean[] joins = new boolean[count];
+        if (count > 1) {
+            Arrays.fill(joins, 1, count, true);
+        }
+        return runs(bounds, joins);
+    }
+
+    private static String runs(float[] bounds, boolean[] joins) {
+        int count = joins.length;
+        int[] runs = new int[count];
+        // the runs of the previous layers are overwritten
+        Arrays.fill(runs, 7);
+        PathDrawable.findBatches(bounds, joins, count, runs);
+        return Arrays.toString(runs);
+    }
+
+    @Test
+    public void disjointLayersAreBatched() {
+        assertEquals("[3, 0, 0]", runs(
+                0, 0, 10, 10,
+                20, 0, 30, 10,
+                0, 20, 10, 30));
+        // touching bounds do not intersect
+        assertEquals("[2, 0]", runs(
+                0, 0, 10, 10,
+                10, 0, 20, 10));
+    }
+
+    @Test
+    public void overlappingLayerStartsNewRun() {
+        assertEquals("[2, 0, 1]", runs(
+                0, 0, 10, 10,
+                20, 0, 30, 10,
+                5, 5, 15, 15));
+        assertEquals("[1, 2, 0]", runs(
+                0, 0, 10, 10,
+                5, 5, 15, 15,
+                20, 20, 30, 30));
+    }
+
+    @Test
+    public void layerIsCheckedAgainstTheWholeRun() {
+        // the third layer misses the second one but not the first one
+        assertEquals("[2, 0, 1]", runs(
+                0, 0, 10, 10,
+                20, 20, 30, 30,
+                0, 5, 5, 8));
+        // it misses both, but not the union of them
+        assertEquals("[2, 0, 1]", runs(
+                0, 0, 10, 10,
+                20, 20, 30, 30,
+                0, 20, 10, 30));
+    }
+
+    @Test
+    public void differentPaintsAreNotBatched() {
+        float[] bounds = {
+                0, 0, 10, 10,
+                20, 0, 30, 10,
+                40, 0, 50, 10,
+                60, 0, 70, 10,
+        };
+        assertEquals("[1, 3, 0, 0]", runs(bounds, new boolean[] {false, false, true, true}));
+        assertEquals("[2, 0, 2, 0]", runs(bounds, new boolean[] {false, true, false, true}));
+        assertEquals("[1, 1, 1, 1]", runs(bounds, new boolean[4]));
+    }
+
+    @Test
+    public void layersThatCannotBeBatchedBreakTheRun() {
+        assertEquals("[2, 0, 1, 2, 0]", runs(
+                0, 0, 10, 10,
+                20, 0, 30, 10,
+                NaN, 0, 0, 0,
+                40, 0, 50, 10,
+                60, 0, 70, 10));
+        assertEquals("[1, 1]", runs(
+                NaN, 0, 0, 0,
+                NaN, 0, 0, 0));
+        assertEquals("[]", runs());
+    }
+}
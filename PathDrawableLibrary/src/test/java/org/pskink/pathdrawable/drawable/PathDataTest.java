@@ -0,0 +1,151 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class PathDataTest {
+    // records the segments passed to the sink
+    private static final class Recorder implements PathSink {
+        final StringBuilder mOut = new StringBuilder();
+
+        private void add(String command, float... params) {
+            mOut.append(command);
+            for (float param : params) {
+                mOut.append(' ').append(param);
+            }
+            mOut.append(' ');
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            add("M", x, y);
+        }
+
+        @Override
+        public void rMoveTo(float dx, float dy) {
+            add("m", dx, dy);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            add("L", x, y);
+        }
+
+        @Override
+        public void rLineTo(float dx, float dy) {
+            add("l", dx, dy);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            add("Q", x1, y1, x2, y2);
+        }
+
+        @Override
+        public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+            add("q", dx1, dy1, dx2, dy2);
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            add("C", x1, y1, x2, y2, x3, y3);
+        }
+
+        @Override
+        public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            add("c", x1, y1, x2, y2, x3, y3);
+        }
+
+        @Override
+        public void close() {
+            add("Z");
+        }
+    }
+
+    private static PathData parse(String data) {
+        return PathParser.createPathDataFromPathData(data);
+    }
+
+    @Test
+    public void tokensAreCopied() {
+        PathDataTokenizer tokenizer = new PathDataTokenizer();
+        tokenizer.tokenize("M1 2 L3 4 5 6z");
+        PathData data = new PathData(tokenizer);
+        // the tokenizer's buffers can be reused
+        tokenizer.tokenize("m9 9");
+        assertEquals(3, data.getCommandCount());
+        assertEquals(6, data.getParamCount());
+        assertArrayEquals(new int[] {0, 2, 6, 6}, data.mOffsets);
+        assertArrayEquals(new float[] {1, 2, 3, 4, 5, 6}, data.mParams, 0);
+        assertEquals('L', data.mCommands[1]);
+    }
+
+    @Test
+    public void copyIsDeep() {
+        PathData data = parse("M1 2 L3 4");
+        PathData copy = new PathData(data);
+        assertNotSame(data.mParams, copy.mParams);
+        copy.mParams[0] = 10;
+        assertEquals(1, data.mParams[0], 0);
+        assertTrue(data.canMorph(copy));
+    }
+
+    @Test
+    public void canMorph() {
+        PathData data = parse("M0 0 L10 10 C1 2 3 4 5 6z");
+        assertTrue(data.canMorph(parse("M5 5 L0 0 C6 5 4 3 2 1 z")));
+        assertFalse(data.canMorph(null));
+        // different command
+        assertFalse(data.canMorph(parse("M0 0 l10 10 C1 2 3 4 5 6z")));
+        // same commands, params moved between them
+        assertFalse(data.canMorph(parse("M0 0 L10 10 10 10 C1 2 3 4z")));
+        // extra command
+        assertFalse(data.canMorph(parse("M0 0 L10 10 C1 2 3 4 5 6zz")));
+    }
+
+    @Test
+    public void interpolateAndSet() {
+        PathData from = parse("M0 0 L10 -10");
+        PathData to = parse("M10 20 L0 10");
+        PathData data = new PathData(from);
+        data.interpolate(from, to, .25f);
+        assertArrayEquals(new float[] {2.5f, 5, 7.5f, -5}, data.mParams, 0);
+        data.interpolate(from, to, 1);
+        assertArrayEquals(to.mParams, data.mParams, 0);
+        data.set(from);
+        assertArrayEquals(from.mParams, data.mParams, 0);
+    }
+
+    @Test
+    public void hasArcs() {
+        assertFalse(parse("M0 0 L1 1 C1 2 3 4 5 6").hasArcs());
+        assertTrue(parse("M0 0 a1 1 0 0 0 2 0").hasArcs());
+        assertTrue(parse("M0 0 A1 1 0 0 0 2 0").hasArcs());
+    }
+
+    @Test
+    public void playsIntoTheSink() {
+        Recorder recorder = new Recorder();
+        parse("M1 2 l3 4 H0 v1 z").toPath(recorder, new float[6]);
+        // like the framework's parser the close moves back to the contour's start
+        assertEquals("M 1.0 2.0 l 3.0 4.0 L 0.0 6.0 l 0.0 1.0 Z M 1.0 2.0 ", recorder.mOut.toString());
+    }
+
+    @Test
+    public void bounds() {
+        PathBounds bounds = new PathBounds();
+        // the control point is above the curve's top
+        parse("M0 0 Q5 10 10 0").toPath(bounds, new float[6]);
+        assertArrayEquals(new float[] {0, 0, 10, 10}, bounds.mControl, 0);
+        assertArrayEquals(new float[] {0, 0, 10, 5}, bounds.mTight, 1e-5f);
+
+        bounds.reset();
+        parse("").toPath(bounds, new float[6]);
+        assertTrue(bounds.isEmpty());
+    }
+}
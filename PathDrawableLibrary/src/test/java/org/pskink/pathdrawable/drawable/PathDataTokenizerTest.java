@@ -0,0 +1,172 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PathDataTokenizerTest {
+    private static void assertTokens(String data, String commands, float[] params, int[] offsets) {
+        PathDataTokenizer tokenizer = new PathDataTokenizer();
+        tokenizer.tokenize(data);
+        assertTokens(tokenizer, commands, params, offsets);
+    }
+
+    private static void assertTokens(PathDataTokenizer tokenizer, String commands, float[] params, int[] offsets) {
+        assertEquals(commands, new String(tokenizer.mCommands, 0, tokenizer.mCommandCount));
+        assertEquals(params.length, tokenizer.mParamCount);
+        for (int i = 0; i < params.length; i++) {
+            assertEquals(Float.floatToIntBits(params[i]), Float.floatToIntBits(tokenizer.mParams[i]));
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            assertEquals(offsets[i], tokenizer.mOffsets[i]);
+        }
+    }
+
+    @Test
+    public void commandsAndOffsets() {
+        assertTokens("M 10,20 L30-40z",
+                "MLz", new float[] {10, 20, 30, -40}, new int[] {0, 2, 4, 4});
+    }
+
+    @Test
+    public void separatorsAreOptional() {
+        assertTokens("M.5.5l-1-2e1,3E-1 4e+1",
+                "Ml", new float[] {.5f, .5f, -1, -20, .3f, 40}, new int[] {0, 2, 6});
+    }
+
+    @Test
+    public void leadingGarbageIsIgnored() {
+        assertTokens("  \n 1 2 M1 2", "M", new float[] {1, 2}, new int[] {0, 2});
+    }
+
+    @Test
+    public void arcFlagsNeedNoSeparator() {
+        assertTokens("a1 1 0 00.5.5 2 2 30 1110 10",
+                "a", new float[] {1, 1, 0, 0, 0, .5f, .5f, 2, 2, 30, 1, 1, 10, 10}, new int[] {0, 14});
+    }
+
+    @Test
+    public void numbersMatchParseFloat() {
+        String[] numbers = {
+                "0", "-0", "1", "0.1", "3.14159265358979", "123456789", "1e-45", "3.4028235e38",
+                "0.30000001192092896", "16777217", "-7.006492321624085e-46", "1.00000017881393432617187499",
+        };
+        StringBuilder data = new StringBuilder("M");
+        float[] params = new float[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            data.append(' ').append(numbers[i]);
+            params[i] = Float.parseFloat(numbers[i]);
+        }
+        assertTokens(data.toString(), "M", params, new int[] {0, numbers.length});
+    }
+
+    @Test
+    public void buffersGrowAndAreReused() {
+        PathDataTokenizer tokenizer = new PathDataTokenizer(1, 1);
+        StringBuilder data = new StringBuilder();
+        StringBuilder commands = new StringBuilder();
+        float[] params = new float[200];
+        int[] offsets = new int[101];
+        for (int i = 0; i < 100; i++) {
+            data.append(i == 0 ? "M" : "L").append(i).append(',').append(-i);
+            commands.append(i == 0 ? 'M' : 'L');
+            params[2 * i] = i;
+            params[2 * i + 1] = -i;
+            offsets[i + 1] = 2 * i + 2;
+        }
+        tokenizer.tokenize(data);
+        assertTokens(tokenizer, commands.toString(), params, offsets);
+
+        tokenizer.tokenize("m1 2z");
+        assertTokens(tokenizer, "mz", new float[] {1, 2}, new int[] {0, 2, 2});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void invalidNumber() {
+        new PathDataTokenizer().tokenize("M 1e, 2");
+    }
+
+    @Test
+    public void errorTellsThePosition() {
+        try {
+            new PathDataTokenizer().tokenize("M 1 2 L 3 -.");
+        } catch (RuntimeException e) {
+            assertEquals("error in parsing \"-.\" at position 10", e.getMessage());
+            return;
+        }
+        throw new AssertionError("no exception");
+    }
+
+    @Test
+    public void emptyData() {
+        assertTokens("", "", new float[0], new int[] {0});
+        assertTokens(" \t\n, 1 2", "", new float[0], new int[] {0});
+    }
+
+    @Test
+    public void commandsWithoutParams() {
+        assertTokens("Mz z\nZ,L", "MzzZL", new float[0], new int[] {0, 0, 0, 0, 0, 0});
+        // anything after close is skipped up to the next command
+        assertTokens("M1 2 z 3 4 L5 6", "MzL", new float[] {1, 2, 5, 6}, new int[] {0, 2, 2, 4});
+    }
+
+    @Test
+    public void signsAndLeadingZeros() {
+        assertTokens("M+1-2 000.0010 -0.0 +.5e+0", "M",
+                new float[] {1, -2, .001f, -0f, .5f}, new int[] {0, 5});
+    }
+
+    @Test
+    public void arcFlagsAreOnlySplitAtTheirPositions() {
+        // "10" at the rx position is a number, the flags take one digit each
+        assertTokens("A10 10 90 1011 1", "A", new float[] {10, 10, 90, 1, 0, 11, 1}, new int[] {0, 7});
+        // the second arc of the same command starts a new set of params
+        assertTokens("a1 1 0 01 2 2 1 1 0 10 3 3", "a",
+                new float[] {1, 1, 0, 0, 1, 2, 2, 1, 1, 0, 1, 0, 3, 3}, new int[] {0, 14});
+    }
+
+    @Test
+    public void slowPathMatchesParseFloat() {
+        String[] numbers = {
+                // subnormal, overflowing and underflowing values
+                "1.1754942e-38", "1.4e-45", "7e-46", "1e39", "-1e39", "1e-50", "1e100000", "1e-100000",
+                // more significant digits than the fast path keeps
+                "1234567890123456789012", "0.000000000000000000000000123456789012345678901",
+                "9007199254740993", "3.40282356779733661637539395458142568448e38",
+                // halfway between two floats
+                "1.00000005960464477539062500", "16777217.0", "33554434e-1",
+                // exponents out of the exact powers of ten
+                "1e23", "123e-30", "4.5e-23",
+        };
+        StringBuilder data = new StringBuilder("L");
+        float[] params = new float[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            data.append(' ').append(numbers[i]);
+            params[i] = Float.parseFloat(numbers[i]);
+        }
+        assertTokens(data.toString(), "L", params, new int[] {0, numbers.length});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void lonelySign() {
+        new PathDataTokenizer().tokenize("M 1 - 2");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void exponentWithoutDigits() {
+        new PathDataTokenizer().tokenize("M 1e+ 2");
+    }
+
+    @Test
+    public void tokenizerIsReusableAfterAnError() {
+        PathDataTokenizer tokenizer = new PathDataTokenizer();
+        try {
+            tokenizer.tokenize("M 1 2 L .");
+            throw new AssertionError("no exception");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        tokenizer.tokenize("M3 4");
+        assertTokens(tokenizer, "M", new float[] {3, 4}, new int[] {0, 2});
+    }
+}
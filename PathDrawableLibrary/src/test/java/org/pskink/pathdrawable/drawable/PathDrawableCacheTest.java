@@ -0,0 +1,151 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PathDrawableCacheTest {
+    private int mMaxSize;
+
+    @Before
+    public void setUp() {
+        mMaxSize = PathDrawableCache.getMaxSize();
+        PathDrawableCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        PathDrawableCache.clear();
+        PathDrawableCache.setMaxSize(mMaxSize);
+    }
+
+    // the template of one layer with the given number of params
+    private static PathTemplate template(int params) {
+        PathData data = new PathData(new byte[] {'M'}, new int[] {0, params}, new float[params]);
+        PathTemplate.LayerTemplate layer = new PathTemplate.LayerTemplate(null, data, 0, 1, null, null, 0, 1, 0);
+        return new PathTemplate(1, 1, null, null, null, new PathTemplate.LayerTemplate[] {layer});
+    }
+
+    private static int size(PathTemplate template) {
+        return template.getByteSize();
+    }
+
+    @Test
+    public void sizeIsTheSumOfTheTemplates() {
+        PathTemplate a = template(10);
+        PathTemplate b = template(1000);
+        PathDrawableCache.put("a", a);
+        PathDrawableCache.put("b", b);
+        assertEquals(size(a) + size(b), PathDrawableCache.getSize());
+        assertTrue(a.mCached && b.mCached);
+
+        PathDrawableCache.clear();
+        assertEquals(0, PathDrawableCache.getSize());
+        assertFalse(a.mCached || b.mCached);
+        assertNull(PathDrawableCache.lookup("a"));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        int hits = PathDrawableCache.getHitCount();
+        int misses = PathDrawableCache.getMissCount();
+        PathTemplate a = template(10);
+        assertNull(PathDrawableCache.lookup("a"));
+        PathDrawableCache.put("a", a);
+        assertSame(a, PathDrawableCache.lookup("a"));
+        assertSame(a, PathDrawableCache.lookup("a"));
+        assertEquals(hits + 2, PathDrawableCache.getHitCount());
+        assertEquals(misses + 1, PathDrawableCache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        PathTemplate a = template(100);
+        PathTemplate b = template(100);
+        PathTemplate c = template(100);
+        PathDrawableCache.setMaxSize(3 * size(a));
+        PathDrawableCache.put("a", a);
+        PathDrawableCache.put("b", b);
+        PathDrawableCache.put("c", c);
+        // a is used again, so b is the oldest one
+        PathDrawableCache.lookup("a");
+
+        int evictions = PathDrawableCache.getEvictionCount();
+        PathTemplate d = template(100);
+        PathDrawableCache.put("d", d);
+        assertEquals(evictions + 1, PathDrawableCache.getEvictionCount());
+        assertFalse(b.mCached);
+        assertNull(PathDrawableCache.lookup("b"));
+        assertSame(a, PathDrawableCache.lookup("a"));
+        assertEquals(3 * size(a), PathDrawableCache.getSize());
+
+        PathDrawableCache.setMaxSize(size(a));
+        // only the most recently used one is left
+        assertSame(a, PathDrawableCache.lookup("a"));
+        assertNull(PathDrawableCache.lookup("c"));
+        assertNull(PathDrawableCache.lookup("d"));
+        assertEquals(size(a), PathDrawableCache.getSize());
+    }
+
+    @Test
+    public void tooLargeTemplateIsNotKept() {
+        PathDrawableCache.setMaxSize(100);
+        PathTemplate a = template(1000);
+        PathDrawableCache.put("a", a);
+        assertFalse(a.mCached);
+        assertEquals(0, PathDrawableCache.getSize());
+    }
+
+    @Test
+    public void replacedTemplateIsNotAccounted() {
+        PathTemplate a = template(10);
+        PathTemplate b = template(1000);
+        PathDrawableCache.put("a", a);
+        PathDrawableCache.put("a", b);
+        assertFalse(a.mCached);
+        assertTrue(b.mCached);
+        assertEquals(size(b), PathDrawableCache.getSize());
+
+        // the geometry of the replaced template is not accounted any more
+        PathDrawableCache.addGeometrySize(a, 500);
+        assertEquals(size(b), PathDrawableCache.getSize());
+    }
+
+    @Test
+    public void geometryIsAccounted() {
+        PathTemplate a = template(10);
+        PathTemplate b = template(10);
+        int size = size(a);
+        PathDrawableCache.setMaxSize(2 * size + 1000);
+        PathDrawableCache.put("a", a);
+        PathDrawableCache.put("b", b);
+
+        PathDrawableCache.addGeometrySize(b, 600);
+        assertEquals(2 * size + 600, PathDrawableCache.getSize());
+        assertEquals(size + 600, size(b));
+
+        // growing past the maximum size evicts the least recently used template
+        PathDrawableCache.addGeometrySize(b, 500);
+        assertFalse(a.mCached);
+        assertTrue(b.mCached);
+        assertEquals(size + 1100, PathDrawableCache.getSize());
+
+        // the evicted template keeps counting its geometry, so it is put with its full size
+        PathDrawableCache.addGeometrySize(a, 100);
+        assertEquals(size + 1100, PathDrawableCache.getSize());
+        PathDrawableCache.setMaxSize(10000);
+        PathDrawableCache.put("a", a);
+        assertEquals(2 * size + 1200, PathDrawableCache.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxSize() {
+        PathDrawableCache.setMaxSize(-1);
+    }
+}
@@ -0,0 +1,103 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathFlattenerTest {
+    private static boolean[] simplify(float[] points, float epsilon) {
+        int count = points.length / 2;
+        boolean[] keep = new boolean[count];
+        PathFlattener.simplify(points, count, epsilon, keep, new int[2 * count]);
+        return keep;
+    }
+
+    private static String kept(boolean[] keep) {
+        StringBuilder out = new StringBuilder();
+        for (boolean k : keep) {
+            out.append(k ? 'x' : '.');
+        }
+        return out.toString();
+    }
+
+    // the distance from (px, py) to the segment (x0, y0) - (x1, y1)
+    private static float distance(float px, float py, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSq = dx * dx + dy * dy;
+        float t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - x0) * dx + (py - y0) * dy) / lengthSq));
+        return (float) Math.hypot(px - x0 - t * dx, py - y0 - t * dy);
+    }
+
+    @Test
+    public void straightLineKeepsTheEnds() {
+        assertEquals("x...x", kept(simplify(new float[] {0, 0, 1, 0, 2, 0, 3, 0, 4, 0}, .1f)));
+    }
+
+    @Test
+    public void twoPoints() {
+        assertEquals("xx", kept(simplify(new float[] {0, 0, 5, 5}, 1)));
+    }
+
+    @Test
+    public void cornerIsKept() {
+        assertEquals("x.x.x", kept(simplify(new float[] {0, 0, 1, 0, 2, 0, 2, 1, 2, 2}, .1f)));
+    }
+
+    @Test
+    public void pointsWithinEpsilonAreDropped() {
+        float[] points = {0, 0, 1, .05f, 2, -.05f, 3, .09f, 4, 0};
+        assertEquals("x...x", kept(simplify(points, .1f)));
+        // (3, .09) is kept first, then (2, -.05) is .11 away from the segment to it
+        assertEquals("x.xxx", kept(simplify(points, .08f)));
+    }
+
+    @Test
+    public void closedContourKeepsTheFarthestPoint() {
+        // the first and the last point are the same, so the distance is measured from it
+        float[] square = {0, 0, 1, 0, 2, 0, 2, 1, 2, 2, 1, 2, 0, 2, 0, 1, 0, 0};
+        assertEquals("x.x.x.x.x", kept(simplify(square, .1f)));
+    }
+
+    @Test
+    public void turningBackIsKept() {
+        // all the points are on one line but the polyline goes back
+        assertEquals("x.x.x", kept(simplify(new float[] {0, 0, 2, 0, 4, 0, 3, 0, 2, 0}, .1f)));
+    }
+
+    @Test
+    public void resultIsWithinEpsilon() {
+        int count = 500;
+        float epsilon = .25f;
+        float[] points = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            double angle = i * 2 * Math.PI / (count - 1);
+            points[2 * i] = (float) (100 * Math.cos(angle));
+            points[2 * i + 1] = (float) (60 * Math.sin(3 * angle));
+        }
+        boolean[] keep = simplify(points, epsilon);
+        int kept = 0;
+        int previous = 0;
+        for (int i = 1; i < count; i++) {
+            if (keep[i]) {
+                for (int j = previous + 1; j < i; j++) {
+                    float d = distance(points[2 * j], points[2 * j + 1], points[2 * previous],
+                            points[2 * previous + 1], points[2 * i], points[2 * i + 1]);
+                    assertTrue("point " + j + " is " + d + " away", d <= epsilon);
+                }
+                previous = i;
+                kept++;
+            }
+        }
+        assertTrue(keep[0] && keep[count - 1]);
+        assertTrue("kept " + kept + " points", kept > 10 && kept < count / 2);
+    }
+
+    @Test
+    public void buffersAreCleared() {
+        boolean[] keep = {true, true, true, true};
+        PathFlattener.simplify(new float[] {0, 0, 1, 0, 2, 0, 3, 0}, 4, .1f, keep, new int[8]);
+        assertEquals("x..x", kept(keep));
+    }
+}
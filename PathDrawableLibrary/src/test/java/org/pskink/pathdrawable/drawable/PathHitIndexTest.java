@@ -0,0 +1,92 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathHitIndexTest {
+    private static final float NaN = Float.NaN;
+
+    private static String query(PathHitIndex index, float left, float top, float right, float bottom) {
+        BitSet out = new BitSet();
+        // the bits of the previous query are cleared
+        out.set(100);
+        index.query(left, top, right, bottom, out);
+        return out.toString();
+    }
+
+    @Test
+    public void candidatesOfThePoint() {
+        // a 2x2 grid over (0, 0) - (100, 100)
+        PathHitIndex index = new PathHitIndex(new float[] {
+                0, 0, 10, 10,
+                90, 90, 100, 100,
+                0, 0, 100, 100,
+                60, 10, 70, 20,
+        }, 4);
+        assertEquals(4, index.getLayerCount());
+        assertEquals("{0, 2}", query(index, 5, 5, 5, 5));
+        assertEquals("{1, 2}", query(index, 95, 95, 95, 95));
+        assertEquals("{2, 3}", query(index, 65, 15, 65, 15));
+        // the whole grid
+        assertEquals("{0, 1, 2, 3}", query(index, 0, 0, 100, 100));
+    }
+
+    @Test
+    public void outsideIsCoveredByTheEdgeCells() {
+        PathHitIndex index = new PathHitIndex(new float[] {
+                0, 0, 10, 10,
+                90, 90, 100, 100,
+                60, 60, 70, 70,
+                0, 90, 10, 100,
+        }, 4);
+        assertEquals("{0}", query(index, -50, -50, -40, -40));
+        // the bottom right cell with both of the layers in it
+        assertEquals("{1, 2}", query(index, 500, 500, 600, 600));
+        assertEquals("{0, 3}", query(index, -50, 0, -40, 100));
+    }
+
+    @Test
+    public void unknownBoundsAreCandidatesEverywhere() {
+        PathHitIndex index = new PathHitIndex(new float[] {
+                NaN, 0, 0, 0,
+                0, 0, 10, 10,
+                90, 90, 100, 100,
+                NaN, 0, 0, 0,
+        }, 4);
+        assertEquals("{0, 1, 3}", query(index, 5, 5, 5, 5));
+        assertEquals("{0, 2, 3}", query(index, 95, 95, 95, 95));
+    }
+
+    @Test
+    public void degenerateBounds() {
+        // all the layers at one point, and no known bounds at all
+        PathHitIndex index = new PathHitIndex(new float[] {5, 5, 5, 5, 5, 5, 5, 5}, 2);
+        assertEquals("{0, 1}", query(index, 5, 5, 5, 5));
+        assertEquals("{0}", query(new PathHitIndex(new float[] {NaN, 0, 0, 0}, 1), 1, 1, 1, 1));
+        assertEquals("{}", query(new PathHitIndex(new float[0], 0), 1, 1, 1, 1));
+    }
+
+    @Test
+    public void manyLayers() {
+        // a 32x32 grid of 10x10 layers, every one in its own cell
+        int side = 32;
+        float[] bounds = new float[4 * side * side];
+        for (int i = 0; i < side * side; i++) {
+            float left = 10 * (i % side);
+            float top = 10 * (i / side);
+            bounds[4 * i] = left + 1;
+            bounds[4 * i + 1] = top + 1;
+            bounds[4 * i + 2] = left + 9;
+            bounds[4 * i + 3] = top + 9;
+        }
+        PathHitIndex index = new PathHitIndex(bounds, side * side);
+        BitSet out = new BitSet();
+        index.query(155, 75, 155, 75, out);
+        assertTrue(out.get(7 * side + 15));
+        assertTrue("" + out, out.cardinality() <= 4);
+    }
+}
@@ -0,0 +1,90 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathHitShapeTest {
+    // the winding number of the closed polygon (x, y pairs) at the point
+    private static int winding(float[] polygon, float x, float y) {
+        int winding = 0;
+        int n = polygon.length / 2;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            winding += PathHitShape.crossing(polygon[2 * i], polygon[2 * i + 1],
+                    polygon[2 * j], polygon[2 * j + 1], x, y);
+        }
+        return winding;
+    }
+
+    @Test
+    public void crossingDirection() {
+        // the ray from (0, 5) crosses both, the one from (20, 5) none
+        assertEquals(1, PathHitShape.crossing(10, 0, 10, 10, 0, 5));
+        assertEquals(-1, PathHitShape.crossing(10, 10, 10, 0, 0, 5));
+        assertEquals(0, PathHitShape.crossing(10, 0, 10, 10, 20, 5));
+        assertEquals(0, PathHitShape.crossing(10, 10, 10, 0, 20, 5));
+        // horizontal edges are never crossed
+        assertEquals(0, PathHitShape.crossing(0, 5, 10, 5, -1, 5));
+    }
+
+    @Test
+    public void vertexIsCountedOnce() {
+        // the ray goes through the vertex (10, 5) of two edges going the same way
+        assertEquals(1, PathHitShape.crossing(10, 0, 10, 5, 0, 5) + PathHitShape.crossing(10, 5, 10, 10, 0, 5));
+        // and through the tip of a spike, entering and leaving at once
+        assertEquals(0, PathHitShape.crossing(5, 0, 10, 5, 0, 5) + PathHitShape.crossing(10, 5, 5, 0, 0, 5));
+    }
+
+    @Test
+    public void windingOfPolygons() {
+        float[] square = {0, 0, 10, 0, 10, 10, 0, 10};
+        assertEquals(1, winding(square, 5, 5));
+        assertEquals(0, winding(square, 15, 5));
+        assertEquals(0, winding(square, 5, 15));
+        // a ray through the corners and along the edges
+        assertEquals(1, winding(square, 5, 0));
+        assertEquals(0, winding(square, -5, 0));
+        assertEquals(0, winding(square, -5, 10));
+
+        float[] reversed = {0, 0, 0, 10, 10, 10, 10, 0};
+        assertEquals(-1, winding(reversed, 5, 5));
+        // the star's pentagon in the middle is wound twice
+        float[] star = {50, 0, 79, 90, 2, 35, 98, 35, 21, 90};
+        assertEquals(2, Math.abs(winding(star, 50, 50)));
+        assertEquals(1, Math.abs(winding(star, 50, 10)));
+    }
+
+    @Test
+    public void distanceToTheSegment() {
+        // perpendicular, before the start and after the end
+        assertEquals(9, PathHitShape.distanceSq(0, 0, 10, 0, 5, 3, 1, 1), 0);
+        assertEquals(25, PathHitShape.distanceSq(0, 0, 10, 0, -3, 4, 1, 1), 0);
+        assertEquals(16, PathHitShape.distanceSq(0, 0, 10, 0, 10, 4, 1, 1), 0);
+        // a degenerate edge is a point
+        assertEquals(25, PathHitShape.distanceSq(1, 1, 1, 1, 4, 5, 1, 1), 0);
+    }
+
+    @Test
+    public void distanceIsScaled() {
+        // the distance is measured in pixels, 2 path units up are 4 pixels
+        assertEquals(16, PathHitShape.distanceSq(0, 0, 10, 0, 5, 2, 3, 2), 1e-4f);
+        assertEquals(36, PathHitShape.distanceSq(0, 0, 0, 10, 2, 5, 3, 2), 1e-4f);
+    }
+
+    @Test
+    public void edgeIntersectsRectangle() {
+        // crossing it, inside it and touching its border
+        assertTrue(PathHitShape.intersects(-5, 5, 15, 5, 0, 0, 10, 10));
+        assertTrue(PathHitShape.intersects(2, 2, 3, 3, 0, 0, 10, 10));
+        assertTrue(PathHitShape.intersects(10, -5, 10, 15, 0, 0, 10, 10));
+        // the boxes overlap but the diagonal passes by the corner
+        assertFalse(PathHitShape.intersects(8, 14, 14, 8, 0, 0, 10, 10));
+        assertTrue(PathHitShape.intersects(5, 15, 15, 5, 0, 0, 10, 10));
+        // apart
+        assertFalse(PathHitShape.intersects(11, 0, 20, 10, 0, 0, 10, 10));
+        assertFalse(PathHitShape.intersects(-5, -1, 15, -1, 0, 0, 10, 10));
+    }
+}
@@ -0,0 +1,50 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PathMetricsTest {
+    private static PathTemplate.LayerTemplate layer(String data) {
+        return new PathTemplate.LayerTemplate(null, PathParser.createPathDataFromPathData(data),
+                0, 1, null, null, 0, 1, 0);
+    }
+
+    @Test
+    public void pathByteSize() {
+        // the native size grows with 8 bytes per point and one per verb
+        int empty = PathMetrics.getPathByteSize(0, 0);
+        assertEquals(empty + 8 * 10 + 4, PathMetrics.getPathByteSize(10, 4));
+        // M L Q C: 1 + 1 + 2 + 3 points, z and the move to the start after it
+        PathData data = PathParser.createPathDataFromPathData("M0 0 L1 1 Q2 2 3 3 C4 4 5 5 6 6z");
+        assertEquals(PathMetrics.getPathByteSize(8, 6), PathMetrics.getPathByteSize(data));
+    }
+
+    @Test
+    public void relativeAndShorthandCommandsAreCounted() {
+        PathData data = PathParser.createPathDataFromPathData("m1 1 h1 v1 l1 1 t1 1 s1 1 1 1");
+        assertEquals(PathMetrics.getPathByteSize(1 + 1 + 1 + 1 + 2 + 3, 6), PathMetrics.getPathByteSize(data));
+    }
+
+    @Test
+    public void geometryOfTheTemplate() {
+        PathTemplate template = new PathTemplate(1, 1, null, null, null, new PathTemplate.LayerTemplate[] {
+                layer("M0 0 L1 1 L2 0"),
+                layer("M0 0 C1 1 2 2 3 3 M5 5 Q6 6 7 7"),
+        });
+        PathMetrics.Geometry geometry = PathMetrics.getGeometry(template);
+        assertEquals(2, geometry.getLayerCount());
+        assertEquals(3 + 4, geometry.getVerbCount());
+        assertEquals(3 + 1 + 3 + 1 + 2, geometry.getPointCount());
+        // every layer is a Path of its own
+        assertEquals(PathMetrics.getPathByteSize(3, 3) + PathMetrics.getPathByteSize(7, 4),
+                geometry.getNativePathBytes());
+    }
+
+    @Test
+    public void arcsAreCountedAsCubics() {
+        // like the framework a half circle is split into four cubics when the scale is not known
+        PathData data = PathParser.createPathDataFromPathData("M0 0 A10 10 0 0 1 20 0");
+        assertEquals(PathMetrics.getPathByteSize(1 + 4 * 3, 5), PathMetrics.getPathByteSize(data));
+    }
+}
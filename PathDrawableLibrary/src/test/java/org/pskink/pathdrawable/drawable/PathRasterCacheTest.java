@@ -0,0 +1,98 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathRasterCacheTest {
+    private static PathRasterCache.Key key(Object source, int flags, int width, int height) {
+        return new PathRasterCache.Key(source, flags, width, height);
+    }
+
+    @Test
+    public void keysCompareTheSourceByIdentity() {
+        Object source = new Object();
+        assertEquals(key(source, 1, 10, 20), key(source, 1, 10, 20));
+        assertEquals(key(source, 1, 10, 20).hashCode(), key(source, 1, 10, 20).hashCode());
+        // equal strings are still different sources, e.g. two modified drawables
+        assertFalse(key(new String("a"), 0, 10, 10).equals(key(new String("a"), 0, 10, 10)));
+    }
+
+    @Test
+    public void keysCompareTheFlagsAndTheSize() {
+        Object source = new Object();
+        PathRasterCache.Key key = key(source, PathRasterCache.FLAG_LEVEL_OF_DETAIL, 10, 20);
+        assertFalse(key.equals(key(source, PathRasterCache.FLAG_CANVAS_MATRIX, 10, 20)));
+        assertFalse(key.equals(key(source, PathRasterCache.FLAG_LEVEL_OF_DETAIL, 20, 10)));
+        assertFalse(key.equals(key(source, PathRasterCache.FLAG_LEVEL_OF_DETAIL, 10, 21)));
+        assertFalse(key.equals(null));
+    }
+
+    @Test
+    public void entryMatches() {
+        Object source = new Object();
+        PathRasterCache.Entry entry = new PathRasterCache.Entry(key(source, 0, 10, 20), null);
+        assertTrue(entry.matches(source, 0, 10, 20));
+        assertFalse(entry.matches(new Object(), 0, 10, 20));
+        assertFalse(entry.matches(source, PathRasterCache.FLAG_CANVAS_MATRIX, 10, 20));
+        assertFalse(entry.matches(source, 0, 20, 10));
+    }
+
+    @Test
+    public void renderingIsExclusive() {
+        PathRasterCache.Entry entry = new PathRasterCache.Entry(key(new Object(), 0, 10, 10), null);
+        assertTrue(PathRasterCache.beginRender(entry));
+        // e.g. the prefetcher is drawing it, the drawable draws directly meanwhile
+        assertFalse(PathRasterCache.beginRender(entry));
+        PathRasterCache.endRender(entry, true);
+        assertTrue(entry.mValid);
+        // a valid entry is not drawn again
+        assertFalse(PathRasterCache.beginRender(entry));
+    }
+
+    @Test
+    public void failedRenderingCanBeRetried() {
+        PathRasterCache.Entry entry = new PathRasterCache.Entry(key(new Object(), 0, 10, 10), null);
+        assertTrue(PathRasterCache.beginRender(entry));
+        PathRasterCache.endRender(entry, false);
+        assertFalse(entry.mValid);
+        assertTrue(PathRasterCache.beginRender(entry));
+    }
+
+    @Test
+    public void oneThreadRendersAtATime() throws InterruptedException {
+        final PathRasterCache.Entry entry = new PathRasterCache.Entry(key(new Object(), 0, 10, 10), null);
+        final AtomicInteger rendering = new AtomicInteger();
+        final AtomicInteger maxRendering = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        if (PathRasterCache.beginRender(entry)) {
+                            int count = rendering.incrementAndGet();
+                            if (count > maxRendering.get()) {
+                                maxRendering.set(count);
+                            }
+                            rendering.decrementAndGet();
+                            PathRasterCache.endRender(entry, false);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, maxRendering.get());
+        assertTrue(PathRasterCache.beginRender(entry));
+        PathRasterCache.endRender(entry, true);
+        assertTrue(entry.mValid);
+    }
+}
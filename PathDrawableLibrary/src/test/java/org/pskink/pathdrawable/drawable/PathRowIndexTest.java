@@ -0,0 +1,64 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class PathRowIndexTest {
+    private static String query(PathRowIndex index, float top, float bottom) {
+        BitSet out = new BitSet();
+        // the bits of the previous query are cleared
+        out.set(100);
+        index.query(top, bottom, out);
+        return out.toString();
+    }
+
+    @Test
+    public void layersCrossingTheClip() {
+        // 4 rows 25 pixels high
+        PathRowIndex index = new PathRowIndex(0, 100, 4, 4);
+        index.add(0, 0, 10);
+        index.add(1, 30, 60);
+        index.add(2, 80, 100);
+        index.add(3, 0, 100);
+        assertEquals("{0, 3}", query(index, 0, 20));
+        assertEquals("{0, 1, 3}", query(index, 10, 30));
+        assertEquals("{1, 3}", query(index, 55, 70));
+        assertEquals("{2, 3}", query(index, 90, 95));
+        assertEquals("{0, 1, 2, 3}", query(index, 0, 100));
+    }
+
+    @Test
+    public void edgeRowsCoverTheOutside() {
+        PathRowIndex index = new PathRowIndex(0, 100, 4, 2);
+        index.add(0, 0, 10);
+        index.add(1, 90, 100);
+        assertEquals("{0}", query(index, -50, -10));
+        assertEquals("{1}", query(index, 200, 300));
+        assertEquals("{0, 1}", query(index, -1000, 1000));
+    }
+
+    @Test
+    public void unboundedLayersAreEverywhere() {
+        PathRowIndex index = new PathRowIndex(0, 100, 4, 3);
+        index.add(0, 0, 10);
+        index.addUnbounded(1);
+        index.add(2, 90, 100);
+        assertEquals("{0, 1}", query(index, 0, 5));
+        assertEquals("{1}", query(index, 40, 60));
+        assertEquals("{1, 2}", query(index, 95, 300));
+    }
+
+    @Test
+    public void rowsAreAtLeastOnePixelHigh() {
+        // 2 pixels in 32 rows: only the first three rows are used
+        PathRowIndex index = new PathRowIndex(10, 12, 32, 2);
+        index.add(0, 10, 10.5f);
+        index.add(1, 11.5f, 12);
+        assertEquals("{0}", query(index, 10, 10.5f));
+        assertEquals("{0, 1}", query(index, 10, 12));
+        assertEquals("{1}", query(index, 11, 12));
+    }
+}
@@ -0,0 +1,81 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathTileRendererTest {
+    private static final int MIN = PathTileRenderer.MIN_LEVEL;
+    private static final int MAX = PathTileRenderer.MAX_LEVEL;
+
+    private static int baseLevel(int width, int height) {
+        return PathTileRenderer.getBaseLevel(new PathTileRenderer.Scene(0, 0, width, height, 0));
+    }
+
+    @Test
+    public void levelScale() {
+        assertEquals(1, PathTileRenderer.levelScale(0), 0);
+        assertEquals(8, PathTileRenderer.levelScale(3), 0);
+        assertEquals(.125f, PathTileRenderer.levelScale(-3), 0);
+        assertEquals(256, PathTileRenderer.levelScale(MAX), 0);
+        assertEquals(1 / 256f, PathTileRenderer.levelScale(MIN), 0);
+    }
+
+    @Test
+    public void levelIsTheLowestNotBlurry() {
+        assertEquals(0, PathTileRenderer.getLevel(1));
+        assertEquals(1, PathTileRenderer.getLevel(1.01f));
+        assertEquals(1, PathTileRenderer.getLevel(2));
+        assertEquals(2, PathTileRenderer.getLevel(2.5f));
+        assertEquals(0, PathTileRenderer.getLevel(.75f));
+        assertEquals(-1, PathTileRenderer.getLevel(.5f));
+        assertEquals(-2, PathTileRenderer.getLevel(.2f));
+    }
+
+    @Test
+    public void levelIsClamped() {
+        assertEquals(MAX, PathTileRenderer.getLevel(1000));
+        assertEquals(MIN, PathTileRenderer.getLevel(.0001f));
+        assertEquals(MIN, PathTileRenderer.getLevel(0));
+    }
+
+    @Test
+    public void baseLevelCoversTheDrawableWithOneTile() {
+        int tile = PathTileRenderer.TILE_SIZE;
+        assertEquals(0, baseLevel(tile, 10));
+        assertEquals(0, baseLevel(1, 1));
+        assertEquals(-1, baseLevel(10, tile + 1));
+        assertEquals(-1, baseLevel(2 * tile, 2 * tile));
+        assertEquals(-3, baseLevel(5 * tile, 100));
+        assertEquals(MIN, baseLevel(1000 * tile, 1));
+    }
+
+    @Test
+    public void keysAreUnique() {
+        HashSet<Long> keys = new HashSet<>();
+        int count = 0;
+        for (int level = MIN; level <= MAX; level++) {
+            for (int column = 0; column < 20; column++) {
+                for (int row = 0; row < 20; row++) {
+                    keys.add(PathTileRenderer.getKey(level, column, row));
+                    count++;
+                }
+            }
+            // the far tiles of the highest levels
+            keys.add(PathTileRenderer.getKey(level, (1 << 23) - 1, 0));
+            keys.add(PathTileRenderer.getKey(level, 0, (1 << 23) - 1));
+            count += 2;
+        }
+        assertEquals(count, keys.size());
+    }
+
+    @Test
+    public void keysDoNotMixTheColumnAndTheRow() {
+        assertTrue(PathTileRenderer.getKey(0, 1, 0) != PathTileRenderer.getKey(0, 0, 1));
+        assertTrue(PathTileRenderer.getKey(1, 0, 0) != PathTileRenderer.getKey(0, 1 << 24, 0));
+        assertEquals(PathTileRenderer.getKey(2, 3, 4), PathTileRenderer.getKey(2, 3, 4));
+    }
+}
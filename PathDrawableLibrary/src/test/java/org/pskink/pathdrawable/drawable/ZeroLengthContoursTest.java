@@ -0,0 +1,116 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ZeroLengthContoursTest {
+    // records the absolute segments passed to the target
+    private static final class Recorder implements PathSink {
+        final StringBuilder mOut = new StringBuilder();
+
+        private void add(String command, float... params) {
+            mOut.append(command);
+            for (float param : params) {
+                mOut.append(' ').append((int) param);
+            }
+            mOut.append(' ');
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            add("M", x, y);
+        }
+
+        @Override
+        public void rMoveTo(float dx, float dy) {
+            throw new AssertionError("unexpected relative move");
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            add("L", x, y);
+        }
+
+        @Override
+        public void rLineTo(float dx, float dy) {
+            throw new AssertionError("unexpected relative line");
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            add("Q", x1, y1, x2, y2);
+        }
+
+        @Override
+        public void rQuadTo(float dx1, float dy1, float dx2, float dy2) {
+            throw new AssertionError("unexpected relative quad");
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            add("C", x1, y1, x2, y2, x3, y3);
+        }
+
+        @Override
+        public void rCubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            throw new AssertionError("unexpected relative cubic");
+        }
+
+        @Override
+        public void close() {
+            add("Z");
+        }
+    }
+
+    private static ZeroLengthContours find(String data, PathSink target) {
+        ZeroLengthContours contours = new ZeroLengthContours(target);
+        PathCommands.parse(data, contours);
+        contours.end();
+        return contours;
+    }
+
+    private static float[] points(ZeroLengthContours contours) {
+        float[] points = new float[2 * contours.getCount()];
+        System.arraycopy(contours.getPoints(), 0, points, 0, points.length);
+        return points;
+    }
+
+    @Test
+    public void dotsAreFound() {
+        ZeroLengthContours contours = find("M1 2z M10 0 L20 0 M5 5 L5 5 m1 1 c0 0 0 0 0 0 M7 7 q0 0 7 7", null);
+        assertArrayEquals(new float[] {1, 2, 5, 5, 6, 6}, points(contours), 0);
+    }
+
+    @Test
+    public void lonelyMovesAreNotDots() {
+        assertEquals(0, find("M1 2 M3 4 L5 6", null).getCount());
+        assertEquals(0, find("", null).getCount());
+    }
+
+    @Test
+    public void segmentAfterCloseStartsAtTheStart() {
+        // the second contour starts at (1, 2) again and has no length
+        ZeroLengthContours contours = find("M1 2 L5 2z l0 0", null);
+        assertArrayEquals(new float[] {1, 2}, points(contours), 0);
+    }
+
+    @Test
+    public void manyDots() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            data.append('M').append(i).append(' ').append(i).append('z');
+        }
+        ZeroLengthContours contours = find(data.toString(), null);
+        assertEquals(20, contours.getCount());
+        assertEquals(19, contours.getPoints()[38], 0);
+    }
+
+    @Test
+    public void targetGetsThePathWithoutThem() {
+        Recorder recorder = new Recorder();
+        find("M1 2z M10 0 L10 0 L20 0 L20 0z l0 5 M3 3 l0 0", recorder);
+        assertEquals("M 10 0 L 20 0 Z M 10 0 L 10 5 ", recorder.mOut.toString());
+    }
+}
@@ -0,0 +1,394 @@
+package org.pskink.pathdrawable.drawable;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Build time compiler of &lt;layers&gt; xml files into the binary format read by
+ * PathTemplate.read() (see there for the format description).
+ * <p>
+ * It lives in the same package as the library's PathDataTokenizer which is compiled
+ * into buildSrc as well, so the params are exactly the same as the ones parsed at
+ * runtime.
+ * <p>
+ * The xml file must be in a res/xml (or res/xml-&lt;qualifiers&gt;) directory: the
+ * "@string/name" references of the path data and tags are resolved at build time from
+ * the res/values (or res/values-&lt;qualifiers&gt; with the same qualifiers) string
+ * resources, all the other references are resolved at runtime.
+ */
+public final class PathDrawableCompiler {
+    static final int MAGIC = 0x50445257; // "PDRW"
+    static final int VERSION = 2;
+
+    static final int VALUE_NONE = 0;
+    static final int VALUE_LITERAL = 1;
+    static final int VALUE_REFERENCE = 2;
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    // TypedValue.COMPLEX_UNIT_* constants
+    private static final String[] UNITS = {
+            "px", "dp", "sp", "pt", "in", "mm",
+    };
+
+    private PathDrawableCompiler() {
+    }
+
+    /**
+     * @param dir the resource directory, for example "xml-land"
+     * @return the configuration qualifiers of the directory ("land"), an empty string
+     * for the default one, or null if it is not an xml resource directory
+     */
+    public static String getQualifiers(File dir) {
+        String name = dir.getName();
+        if ("xml".equals(name)) {
+            return "";
+        }
+        return name.startsWith("xml-") ? name.substring("xml-".length()) : null;
+    }
+
+    /**
+     * @param xml the xml file to check
+     * @return true if the root tag of the xml file is &lt;layers&gt;
+     */
+    public static boolean isLayersFile(File xml) throws IOException {
+        return "layers".equals(parse(xml).getDocumentElement().getTagName());
+    }
+
+    /**
+     * Compile the &lt;layers&gt; xml file.
+     * @param xml the xml file
+     * @param out the output stream where the binary data is written to
+     */
+    public static void compile(File xml, OutputStream out) throws IOException {
+        Element root = parse(xml).getDocumentElement();
+        if (!"layers".equals(root.getTagName())) {
+            throw error(xml, "No <layers> start tag found");
+        }
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeShort(VERSION);
+
+        float pathWidth = parseFloat(xml, attr(root, "path_width"), 0);
+        float pathHeight = parseFloat(xml, attr(root, "path_height"), 0);
+        if (pathWidth <= 0 || pathHeight <= 0) {
+            throw error(xml, "Both path_width and path_height must be >= 0");
+        }
+        dos.writeFloat(pathWidth);
+        dos.writeFloat(pathHeight);
+
+        String padding = androidAttr(root, "padding");
+        String[] paddings = {
+                androidAttr(root, "paddingLeft"), androidAttr(root, "paddingTop"),
+                androidAttr(root, "paddingRight"), androidAttr(root, "paddingBottom"),
+        };
+        for (String pad : paddings) {
+            writeDimension(xml, dos, pad != null ? pad : padding);
+        }
+        dos.writeByte(parseEnum(xml, attr(root, "scale_type"), 0, "fill", "start", "center", "end"));
+        writeColor(xml, dos, androidAttr(root, "background"));
+
+        NodeList nodes = root.getElementsByTagName("layer");
+        dos.writeInt(nodes.getLength());
+        PathDataTokenizer tokenizer = new PathDataTokenizer();
+        Strings strings = new Strings(xml);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element layer = (Element) nodes.item(i);
+            writeString(dos, strings.resolve(androidAttr(layer, "tag")));
+            writeColor(xml, dos, attr(layer, "stroke_color"));
+            writeDimension(xml, dos, attr(layer, "stroke_width"));
+            dos.writeByte(parseFlags(xml, attr(layer, "stroke_style"), 1, "stroke", "fill"));
+            dos.writeByte(parseEnum(xml, attr(layer, "cap_type"), 2, "butt", "round", "square"));
+            dos.writeFloat(parseFloat(xml, attr(layer, "trim_start"), 0));
+            dos.writeFloat(parseFloat(xml, attr(layer, "trim_end"), 1));
+            dos.writeFloat(parseFloat(xml, attr(layer, "trim_offset"), 0));
+
+            String data = strings.resolve(attr(layer, "data"));
+            if (data == null || data.trim().length() == 0) {
+                throw error(xml, "path data is empty");
+            }
+            try {
+                tokenizer.tokenize(data.trim());
+            } catch (RuntimeException e) {
+                throw error(xml, "Error in parsing " + data + ": " + e.getMessage());
+            }
+            int count = tokenizer.mCommandCount;
+            dos.writeInt(count);
+            dos.write(tokenizer.mCommands, 0, count);
+            for (int j = 0; j <= count; j++) {
+                dos.writeInt(tokenizer.mOffsets[j]);
+            }
+            dos.writeInt(tokenizer.mParamCount);
+            for (int j = 0; j < tokenizer.mParamCount; j++) {
+                dos.writeFloat(tokenizer.mParams[j]);
+            }
+        }
+        dos.flush();
+    }
+
+    private static Document parse(File xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(xml);
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (org.xml.sax.SAXException e) {
+            throw new IOException(xml + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String androidAttr(Element e, String name) {
+        return e.hasAttributeNS(ANDROID_NS, name) ? e.getAttributeNS(ANDROID_NS, name) : null;
+    }
+
+    // the library attributes, whatever namespace prefix is used
+    private static String attr(Element e, String name) {
+        NamedNodeMap attrs = e.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr a = (Attr) attrs.item(i);
+            if (name.equals(a.getLocalName()) && !ANDROID_NS.equals(a.getNamespaceURI())
+                    && a.getNamespaceURI() != null) {
+                return a.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        dos.writeBoolean(s != null);
+        if (s != null) {
+            dos.writeUTF(s);
+        }
+    }
+
+    private static boolean isReference(File xml, String value) throws IOException {
+        if (value.startsWith("?")) {
+            throw error(xml, "Theme attributes are not supported: " + value);
+        }
+        return value.startsWith("@");
+    }
+
+    private static void writeColor(File xml, DataOutputStream dos, String value) throws IOException {
+        if (value == null) {
+            dos.writeByte(VALUE_NONE);
+        } else if (isReference(xml, value)) {
+            dos.writeByte(VALUE_REFERENCE);
+            dos.writeUTF(value);
+        } else {
+            dos.writeByte(VALUE_LITERAL);
+            dos.writeInt(parseColor(xml, value));
+        }
+    }
+
+    private static void writeDimension(File xml, DataOutputStream dos, String value) throws IOException {
+        if (value == null) {
+            dos.writeByte(VALUE_NONE);
+        } else if (isReference(xml, value)) {
+            dos.writeByte(VALUE_REFERENCE);
+            dos.writeUTF(value);
+        } else {
+            String v = value.trim().toLowerCase(Locale.US).replace("dip", "dp");
+            for (int unit = 0; unit < UNITS.length; unit++) {
+                if (v.endsWith(UNITS[unit])) {
+                    dos.writeByte(VALUE_LITERAL);
+                    dos.writeFloat(parseFloat(xml, v.substring(0, v.length() - UNITS[unit].length()), 0));
+                    dos.writeByte(unit);
+                    return;
+                }
+            }
+            throw error(xml, "Invalid dimension: " + value);
+        }
+    }
+
+    private static int parseColor(File xml, String value) throws IOException {
+        String v = value.trim();
+        if (!v.startsWith("#")) {
+            throw error(xml, "Invalid color: " + value);
+        }
+        v = v.substring(1);
+        if (v.length() == 3 || v.length() == 4) {
+            // #rgb or #argb: duplicate every digit
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < v.length(); i++) {
+                sb.append(v.charAt(i)).append(v.charAt(i));
+            }
+            v = sb.toString();
+        }
+        if (v.length() == 6) {
+            v = "ff" + v;
+        }
+        if (v.length() != 8) {
+            throw error(xml, "Invalid color: " + value);
+        }
+        try {
+            return (int) Long.parseLong(v, 16);
+        } catch (NumberFormatException e) {
+            throw error(xml, "Invalid color: " + value);
+        }
+    }
+
+    private static float parseFloat(File xml, String value, float def) throws IOException {
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw error(xml, "Invalid float: " + value);
+        }
+    }
+
+    private static int parseEnum(File xml, String value, int def, String... names) throws IOException {
+        if (value == null) {
+            return def;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(value.trim())) {
+                return i;
+            }
+        }
+        throw error(xml, "Invalid value: " + value);
+    }
+
+    private static int parseFlags(File xml, String value, int def, String... names) throws IOException {
+        if (value == null) {
+            return def;
+        }
+        int flags = 0;
+        for (String flag : value.split("\\|")) {
+            flags |= 1 << parseEnum(xml, flag, 0, names);
+        }
+        return flags;
+    }
+
+    /**
+     * The string resources of res/values and res/values-&lt;qualifiers&gt; of the xml file,
+     * read when the first reference is resolved.
+     */
+    private static final class Strings {
+        private static final String PREFIX = "@string/";
+        // the string references are resolved recursively, but not forever
+        private static final int MAX_DEPTH = 8;
+
+        private final File mXml;
+        private final File mResDir;
+        private final String mQualifiers;
+        // the strings of the default and the qualified values directories
+        private Map<String, String> mDefault;
+        private Map<String, String> mQualified;
+        // the names defined by any other values directory, their runtime value depends
+        // on the configuration so they cannot be resolved at build time
+        private Map<String, String> mOther;
+
+        Strings(File xml) {
+            mXml = xml;
+            File dir = xml.getAbsoluteFile().getParentFile();
+            mResDir = dir.getParentFile();
+            mQualifiers = getQualifiers(dir);
+        }
+
+        String resolve(String value) throws IOException {
+            for (int depth = 0; value != null && value.startsWith("@"); depth++) {
+                if (!value.startsWith(PREFIX)) {
+                    throw error(mXml, "Only @string/ references are supported in the path data and tags: " + value);
+                }
+                if (mQualifiers == null) {
+                    throw error(mXml, "Cannot resolve " + value + ", the file is not in a res/xml directory");
+                }
+                if (depth == MAX_DEPTH) {
+                    throw error(mXml, "Too deeply nested string reference: " + value);
+                }
+                if (mDefault == null) {
+                    load();
+                }
+                String name = value.substring(PREFIX.length());
+                String dir = mQualified.containsKey(name) ? "values-" + mQualifiers : "values";
+                if (mOther.containsKey(name)) {
+                    throw error(mXml, value + " is defined by " + mOther.get(name) + " too, the value used at runtime"
+                            + " depends on the configuration: put the path data into res/xml-<qualifiers> instead");
+                }
+                value = mQualified.containsKey(name) ? mQualified.get(name) : mDefault.get(name);
+                if (value == null) {
+                    throw error(mXml, "Unknown string resource: " + PREFIX + name);
+                }
+                if (value.startsWith("@") && !value.startsWith(PREFIX)) {
+                    throw error(mXml, "Only @string/ references are supported, " + PREFIX + name + " in "
+                            + dir + " is " + value);
+                }
+            }
+            return value;
+        }
+
+        private void load() throws IOException {
+            mDefault = new HashMap<>();
+            mQualified = new HashMap<>();
+            mOther = new HashMap<>();
+            File[] dirs = mResDir.listFiles();
+            if (dirs == null) {
+                return;
+            }
+            String qualified = mQualifiers.length() > 0 ? "values-" + mQualifiers : null;
+            for (File dir : dirs) {
+                String name = dir.getName();
+                if ("values".equals(name)) {
+                    readStrings(dir, mDefault);
+                } else if (name.equals(qualified)) {
+                    readStrings(dir, mQualified);
+                } else if (name.startsWith("values-")) {
+                    Map<String, String> strings = new HashMap<>();
+                    readStrings(dir, strings);
+                    for (String key : strings.keySet()) {
+                        mOther.put(key, name);
+                    }
+                }
+            }
+        }
+
+        private static void readStrings(File dir, Map<String, String> out) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                if (!file.getName().endsWith(".xml")) {
+                    continue;
+                }
+                NodeList nodes = parse(file).getDocumentElement().getElementsByTagName("string");
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    Element e = (Element) nodes.item(i);
+                    out.put(e.getAttribute("name"), unquote(e.getTextContent().trim()));
+                }
+            }
+        }
+
+        // the path data and tags have neither escapes nor markup, only the quotes matter
+        private static String unquote(String s) {
+            if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"")) {
+                return s.substring(1, s.length() - 1);
+            }
+            return s;
+        }
+    }
+
+    private static IOException error(File xml, String msg) {
+        return new IOException(xml + ": " + msg);
+    }
+}
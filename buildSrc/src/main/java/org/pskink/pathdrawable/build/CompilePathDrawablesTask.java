@@ -0,0 +1,84 @@
+package org.pskink.pathdrawable.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.util.PatternSet;
+import org.pskink.pathdrawable.drawable.PathDrawableCompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compiles every &lt;layers&gt; xml file found in the xml directories of
+ * {@link #getResDir()} into <code>pathdrawable/&lt;name&gt;.pd</code> (for res/xml) or
+ * <code>pathdrawable/&lt;qualifiers&gt;/&lt;name&gt;.pd</code> (for res/xml-&lt;qualifiers&gt;)
+ * under {@link #getOutputDir()}, so it can be added to the assets and loaded with
+ * <code>PathDrawable.fromAsset()</code>. Other xml files are ignored.
+ */
+public class CompilePathDrawablesTask extends DefaultTask {
+    public static final String ASSET_DIR = "pathdrawable";
+    public static final String EXTENSION = ".pd";
+
+    private File mResDir;
+    private File mOutputDir;
+
+    public File getResDir() {
+        return mResDir;
+    }
+
+    public void setResDir(File resDir) {
+        mResDir = resDir;
+    }
+
+    /**
+     * @return the xml files and the string resources referenced by the path data
+     */
+    @InputFiles
+    public FileCollection getSource() {
+        return getProject().fileTree(mResDir).matching(
+                new PatternSet().include("xml/*.xml", "xml-*/*.xml", "values*/*.xml"));
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        mOutputDir = outputDir;
+    }
+
+    @TaskAction
+    public void compile() {
+        File dir = new File(mOutputDir, ASSET_DIR);
+        getProject().delete(dir);
+        dir.mkdirs();
+        for (File xml : getSource()) {
+            try {
+                String qualifiers = PathDrawableCompiler.getQualifiers(xml.getParentFile());
+                if (qualifiers == null || !PathDrawableCompiler.isLayersFile(xml)) {
+                    continue;
+                }
+                String name = xml.getName();
+                name = name.substring(0, name.length() - ".xml".length());
+                File outDir = qualifiers.length() > 0 ? new File(dir, qualifiers) : dir;
+                outDir.mkdirs();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(outDir, name + EXTENSION)));
+                try {
+                    PathDrawableCompiler.compile(xml, out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new GradleException(e.getMessage(), e);
+            }
+        }
+    }
+}